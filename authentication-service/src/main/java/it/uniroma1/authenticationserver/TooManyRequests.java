@@ -0,0 +1,17 @@
+/**
+ * @author Giuseppe Valente <valentepeppe@gmail.com>
+ */
+
+package it.uniroma1.authenticationserver;
+
+import org.springframework.security.core.AuthenticationException;
+
+/**
+ * Thrown when the login can't be processed because the service is saturated
+ */
+public class TooManyRequests extends AuthenticationException {
+
+    public TooManyRequests(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * @author Giuseppe Valente <valentepeppe@gmail.com>
+ */
+
+package it.uniroma1.authenticationserver.anomaly;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class Anomaly {
+
+    public enum Type {
+        //Many failed logins for the same user
+        BRUTE_FORCE,
+        //Failed logins for many users from the same IP
+        CREDENTIAL_STUFFING,
+        //Logins for the same user from many IPs
+        VELOCITY
+    }
+
+    private Type type;
+    //The username or the IP
+    private String key;
+    //The number of events in the window that triggered the anomaly
+    private int count;
+    private long timestamp;
+}
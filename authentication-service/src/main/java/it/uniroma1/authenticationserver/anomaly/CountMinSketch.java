@@ -0,0 +1,129 @@
+/**
+ * @author Giuseppe Valente <valentepeppe@gmail.com>
+ */
+
+package it.uniroma1.authenticationserver.anomaly;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Approximate counters for any number of keys with a fixed memory: depth rows
+ * of width int counters. The estimate of a key is never lower than the real count,
+ * it is higher by at most e * total / width with probability 1 - e^-depth, so
+ * the width must grow with the total to keep the error under a threshold.
+ * Two sketches with the same size are merged summing the counters.
+ */
+public class CountMinSketch {
+
+    private final int depth;
+    private final int width;
+    private final int[] counters;
+
+    public CountMinSketch(int depth, int width) {
+        if(depth < 1 || width < 1) {
+            throw new IllegalArgumentException("Depth and width must be positive");
+        }
+        this.depth = depth;
+        this.width = width;
+        this.counters = new int[depth * width];
+    }
+
+    public void add(String key, int count) {
+        long hash = SketchHash.hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        //A different position for each row from the two halves of the hash
+        for(int i = 0; i < depth; i++) {
+            counters[i * width + Math.floorMod(h1 + i * h2, width)] += count;
+        }
+    }
+
+    public long estimate(String key) {
+        long hash = SketchHash.hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long min = Long.MAX_VALUE;
+        for(int i = 0; i < depth; i++) {
+            min = Math.min(min, counters[i * width + Math.floorMod(h1 + i * h2, width)]);
+        }
+        return min;
+    }
+
+    public void merge(CountMinSketch other) {
+        if(other.depth != depth || other.width != width) {
+            throw new IllegalArgumentException("Sketches with different size");
+        }
+        for(int i = 0; i < counters.length; i++) {
+            counters[i] += other.counters[i];
+        }
+    }
+
+    /**
+     * @param total The expected sum of the counts
+     * @param maxError The max error of an estimate
+     * @return The power of two width that keeps the error of an estimate under
+     * maxError with probability 1 - e^-depth
+     */
+    public static int width(long total, long maxError) {
+        long width = (long) Math.ceil(Math.E * total / Math.max(1, maxError));
+        return (int) Math.min(1 << 30, Math.max(1, Long.highestOneBit(width - 1) << 1));
+    }
+
+    public int serializedSize() {
+        int used = used();
+        return 3 * Integer.BYTES + (isSparse(used) ? used * 2 * Integer.BYTES : counters.length * Integer.BYTES);
+    }
+
+    /**
+     * Write the sketch: the counters in use as (index, value) pairs when they
+     * are few, otherwise all the counters
+     */
+    public void writeTo(ByteBuffer buffer) {
+        int used = used();
+        buffer.putInt(depth);
+        buffer.putInt(width);
+        if(isSparse(used)) {
+            buffer.putInt(used);
+            for(int i = 0; i < counters.length; i++) {
+                if(counters[i] != 0) {
+                    buffer.putInt(i);
+                    buffer.putInt(counters[i]);
+                }
+            }
+        } else {
+            buffer.putInt(-1);
+            for(int c : counters) {
+                buffer.putInt(c);
+            }
+        }
+    }
+
+    public static CountMinSketch readFrom(ByteBuffer buffer) {
+        CountMinSketch cms = new CountMinSketch(buffer.getInt(), buffer.getInt());
+        int used = buffer.getInt();
+        if(used >= 0) {
+            for(int i = 0; i < used; i++) {
+                cms.counters[buffer.getInt()] = buffer.getInt();
+            }
+        } else {
+            for(int i = 0; i < cms.counters.length; i++) {
+                cms.counters[i] = buffer.getInt();
+            }
+        }
+        return cms;
+    }
+
+    private int used() {
+        int used = 0;
+        for(int c : counters) {
+            if(c != 0) {
+                used++;
+            }
+        }
+        return used;
+    }
+
+    private boolean isSparse(int used) {
+        return used * 2 < counters.length;
+    }
+}
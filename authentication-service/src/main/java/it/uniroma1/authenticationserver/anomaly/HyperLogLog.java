@@ -0,0 +1,304 @@
+/**
+ * @author Giuseppe Valente <valentepeppe@gmail.com>
+ */
+
+package it.uniroma1.authenticationserver.anomaly;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Estimate of the number of distinct values with a fixed memory: 2^precision
+ * registers of 6 bits, packed 10 for each long (precision 8 = 26 longs).
+ * While few registers are set they are kept as a list of (index, value)
+ * pairs, a few bytes for the many keys with one or two values, and they are
+ * packed when the list would be as big as the serialized registers.
+ * Two sketches with the same precision are merged keeping the max register,
+ * the result is the sketch of the union of the values.
+ */
+public class HyperLogLog {
+
+    private static final int REGISTER_BITS = 6;
+    private static final int REGISTERS_PER_WORD = 10;
+    private static final long REGISTER_MASK = (1L << REGISTER_BITS) - 1;
+    private static final int SPARSE = 0x80;
+
+    private final int precision;
+    private final int registers;
+    private final int wordCount;
+    //Packed registers, null while the sketch is sparse
+    private long[] words;
+    //Registers set while sparse: index << 8 | value
+    private int[] pairs = new int[2];
+    private int used;
+
+    /**
+     * @param precision Between 4 and 16, the standard error is 1.04 / sqrt(2^precision)
+     */
+    public HyperLogLog(int precision) {
+        if(precision < 4 || precision > 16) {
+            throw new IllegalArgumentException("Precision must be between 4 and 16");
+        }
+        this.precision = precision;
+        this.registers = 1 << precision;
+        this.wordCount = (registers + REGISTERS_PER_WORD - 1) / REGISTERS_PER_WORD;
+    }
+
+    public void add(String value) {
+        addHash(SketchHash.hash64(value));
+    }
+
+    public void addHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        //The bit set at the end bounds the rank when the remaining bits are all 0
+        long remaining = (hash << precision) | (1L << (precision - 1));
+        int rank = Long.numberOfLeadingZeros(remaining) + 1;
+        if(rank > get(index)) {
+            set(index, rank);
+        }
+    }
+
+    public long estimate() {
+        if(words == null) {
+            double sum = registers - used;
+            for(int i = 0; i < used; i++) {
+                sum += 1.0 / (1L << (pairs[i] & 0xFF));
+            }
+            return estimate(sum, registers - used);
+        }
+        double sum = 0;
+        int zeros = 0;
+        for(int i = 0; i < registers; i++) {
+            int r = get(i);
+            sum += 1.0 / (1L << r);
+            if(r == 0) {
+                zeros++;
+            }
+        }
+        return estimate(sum, zeros);
+    }
+
+    /**
+     * Estimate of the union of the sketches, without changing them.
+     * The null sketches are ignored, at least one must be present
+     */
+    public static long estimateUnion(HyperLogLog... sketches) {
+        HyperLogLog a = null;
+        int present = 0;
+        for(HyperLogLog s : sketches) {
+            if(s == null) {
+                continue;
+            }
+            present++;
+            if(a == null) {
+                a = s;
+            } else {
+                a.checkCompatible(s);
+            }
+        }
+        if(present == 1) {
+            return a.estimate();
+        }
+        byte[] union = new byte[a.registers];
+        for(HyperLogLog s : sketches) {
+            if(s != null) {
+                s.maxInto(union);
+            }
+        }
+        double sum = 0;
+        int zeros = 0;
+        for(int r : union) {
+            sum += 1.0 / (1L << r);
+            if(r == 0) {
+                zeros++;
+            }
+        }
+        return a.estimate(sum, zeros);
+    }
+
+    public void merge(HyperLogLog other) {
+        checkCompatible(other);
+        if(other.words == null) {
+            for(int i = 0; i < other.used; i++) {
+                int index = other.pairs[i] >>> 8;
+                int r = other.pairs[i] & 0xFF;
+                if(r > get(index)) {
+                    set(index, r);
+                }
+            }
+            return;
+        }
+        for(int i = 0; i < registers; i++) {
+            int r = other.get(i);
+            if(r > get(i)) {
+                set(i, r);
+            }
+        }
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * @return The number of registers set, at least the distinct values up to a few
+     */
+    public int getUsed() {
+        if(words == null) {
+            return used;
+        }
+        int count = 0;
+        for(int i = 0; i < registers; i++) {
+            if(get(i) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Write the sketch: the registers in use as (index, value) pairs when
+     * they are few, otherwise all the registers
+     */
+    public void writeTo(ByteBuffer buffer) {
+        int count = getUsed();
+        if(isSparse(count)) {
+            buffer.put((byte) (precision | SPARSE));
+            buffer.putShort((short) count);
+            if(words == null) {
+                for(int i = 0; i < used; i++) {
+                    buffer.putShort((short) (pairs[i] >>> 8));
+                    buffer.put((byte) (pairs[i] & 0xFF));
+                }
+                return;
+            }
+            for(int i = 0; i < registers && count > 0; i++) {
+                int r = get(i);
+                if(r != 0) {
+                    buffer.putShort((short) i);
+                    buffer.put((byte) r);
+                    count--;
+                }
+            }
+        } else {
+            buffer.put((byte) precision);
+            for(int i = 0; i < wordCount; i++) {
+                buffer.putLong(words[i]);
+            }
+        }
+    }
+
+    public static HyperLogLog readFrom(ByteBuffer buffer) {
+        byte header = buffer.get();
+        HyperLogLog hll = new HyperLogLog(header & ~SPARSE & 0xFF);
+        if((header & SPARSE) != 0) {
+            int count = buffer.getShort() & 0xFFFF;
+            for(int i = 0; i < count; i++) {
+                int index = buffer.getShort() & 0xFFFF;
+                hll.set(index, buffer.get());
+            }
+        } else {
+            hll.words = new long[hll.wordCount];
+            hll.pairs = null;
+            for(int i = 0; i < hll.wordCount; i++) {
+                hll.words[i] = buffer.getLong();
+            }
+        }
+        return hll;
+    }
+
+    /**
+     * @return The number of bytes used by writeTo
+     */
+    public int serializedSize() {
+        int count = getUsed();
+        return isSparse(count) ? 1 + Short.BYTES + count * 3 : 1 + wordCount * Long.BYTES;
+    }
+
+    private boolean isSparse(int count) {
+        return count * 3 < wordCount * Long.BYTES;
+    }
+
+    private long estimate(double sum, int zeros) {
+        double alpha;
+        switch(registers) {
+            case 16: alpha = 0.673; break;
+            case 32: alpha = 0.697; break;
+            case 64: alpha = 0.709; break;
+            default: alpha = 0.7213 / (1 + 1.079 / registers);
+        }
+        double estimate = alpha * registers * registers / sum;
+        //Small cardinalities: linear counting on the empty registers
+        if(estimate <= 2.5 * registers && zeros > 0) {
+            estimate = registers * Math.log((double) registers / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    private void checkCompatible(HyperLogLog other) {
+        if(other.precision != precision) {
+            throw new IllegalArgumentException("Sketches with different precision");
+        }
+    }
+
+    private int get(int index) {
+        if(words == null) {
+            for(int i = 0; i < used; i++) {
+                if(pairs[i] >>> 8 == index) {
+                    return pairs[i] & 0xFF;
+                }
+            }
+            return 0;
+        }
+        return (int) ((words[index / REGISTERS_PER_WORD] >>> ((index % REGISTERS_PER_WORD) * REGISTER_BITS)) & REGISTER_MASK);
+    }
+
+    private void set(int index, int value) {
+        if(words == null) {
+            for(int i = 0; i < used; i++) {
+                if(pairs[i] >>> 8 == index) {
+                    pairs[i] = index << 8 | value;
+                    return;
+                }
+            }
+            if(isSparse(used + 1)) {
+                if(used == pairs.length) {
+                    pairs = Arrays.copyOf(pairs, used * 2);
+                }
+                pairs[used++] = index << 8 | value;
+                return;
+            }
+            toDense();
+        }
+        int word = index / REGISTERS_PER_WORD;
+        int shift = (index % REGISTERS_PER_WORD) * REGISTER_BITS;
+        words[word] = (words[word] & ~(REGISTER_MASK << shift)) | ((long) value << shift);
+    }
+
+    private void toDense() {
+        int[] sparse = pairs;
+        int count = used;
+        words = new long[wordCount];
+        pairs = null;
+        used = 0;
+        for(int i = 0; i < count; i++) {
+            set(sparse[i] >>> 8, sparse[i] & 0xFF);
+        }
+    }
+
+    /**
+     * Copy in union the registers greater than its values
+     */
+    private void maxInto(byte[] union) {
+        if(words == null) {
+            for(int i = 0; i < used; i++) {
+                int index = pairs[i] >>> 8;
+                union[index] = (byte) Math.max(union[index], pairs[i] & 0xFF);
+            }
+        } else {
+            for(int i = 0; i < registers; i++) {
+                union[i] = (byte) Math.max(union[i], get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/**
+ * @author Giuseppe Valente <valentepeppe@gmail.com>
+ * Detect the anomalies of the login attempts
+ */
+
+package it.uniroma1.authenticationserver.anomaly;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.uniroma1.authenticationserver.audit.AuditLog;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * The login threads publish each attempt in a ring buffer (no allocation, no
+ * lock), a single detector thread reads the attempts and adds them to the
+ * sketches of the current window used by the rules:
+ * 1) Brute force: failed logins of a user
+ * 2) Credential stuffing: distinct users with failed logins from an IP
+ * 3) Velocity: distinct IPs used by a user
+ * The failed logins are counted in the sliding window, weighting the ones of
+ * the previous window by the part still inside it, the distinct values are
+ * counted in the current and in the previous window.
+ * At the end of a window the sketches of the local attempts are sent to the
+ * other instances, the ones received are kept apart and added only to the
+ * previous window, so the attempts of an instance are never sent again by
+ * another one. The rules see the attempts on all the instances with the delay
+ * of a window.
+ * An anomaly is reported once for each window.
+ * The detector thread also writes the attempts in the audit journal.
+ */
+@Component
+public class LoginAnomalyDetector {
+
+    private static final int POLL_BATCH = 1024;
+    private static final int RECENT_ANOMALIES = 100;
+
+    Logger logger = LoggerFactory.getLogger(LoginAnomalyDetector.class);
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private LoginSketchExchange sketchExchange;
+
+    @Autowired
+    private AuditLog auditLog;
+
+    @Value("${anomaly.ring.size:8192}")
+    private int ringSize;
+
+    @Value("${anomaly.window.ms:60000}")
+    private long windowMillis;
+
+    @Value("${anomaly.bruteforce.failures:10}")
+    private int bruteForceFailures;
+
+    @Value("${anomaly.stuffing.users:20}")
+    private int stuffingUsers;
+
+    @Value("${anomaly.velocity.ips:5}")
+    private int velocityIps;
+
+    @Value("${anomaly.sketch.hll.precision:8}")
+    private int hllPrecision;
+
+    @Value("${anomaly.sketch.cms.depth:4}")
+    private int cmsDepth;
+
+    //0 to derive it from the expected keys
+    @Value("${anomaly.sketch.cms.width:0}")
+    private int cmsWidth;
+
+    @Value("${anomaly.sketch.cms.expected.keys:10000}")
+    private long cmsExpectedKeys;
+
+    private LoginEventRing ring;
+    private final Consumer<LoginEvent> handler = this::onEvent;
+    //Used only by the detector thread: the local attempts of the current window,
+    //the ones of the other instances and the previous window with both
+    private LoginSketches current;
+    private LoginSketches currentRemote;
+    private LoginSketches previous;
+    private final Map<Anomaly.Type, Map<String, Long>> lastAlerts = new EnumMap<Anomaly.Type, Map<String, Long>>(Anomaly.Type.class);
+
+    private final ArrayDeque<Anomaly> recentAnomalies = new ArrayDeque<Anomaly>();
+    private final Map<Anomaly.Type, Counter> anomalyCounters = new EnumMap<Anomaly.Type, Counter>(Anomaly.Type.class);
+    private Thread detector;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void init() {
+        ring = new LoginEventRing(ringSize);
+        if(cmsWidth <= 0) {
+            //A user or an IP must not reach a threshold with the failures of the others:
+            //most of the keys fail once or twice in a window, the total is about their number
+            cmsWidth = CountMinSketch.width(cmsExpectedKeys, Math.min(bruteForceFailures, stuffingUsers));
+        }
+        logger.info("Login sketches with " + cmsDepth + " x " + cmsWidth + " counters");
+        long epoch = System.currentTimeMillis() / windowMillis;
+        current = new LoginSketches(epoch, hllPrecision, cmsDepth, cmsWidth);
+        currentRemote = new LoginSketches(epoch, hllPrecision, cmsDepth, cmsWidth);
+        previous = new LoginSketches(epoch - 1, hllPrecision, cmsDepth, cmsWidth);
+        for(Anomaly.Type type : Anomaly.Type.values()) {
+            anomalyCounters.put(type, Counter.builder("login.anomalies").tag("type", type.name()).register(meterRegistry));
+            lastAlerts.put(type, new HashMap<String, Long>());
+        }
+        FunctionCounter.builder("login.events.dropped", ring, LoginEventRing::getDropped).register(meterRegistry);
+        Gauge.builder("login.events.pending", ring, LoginEventRing::size).register(meterRegistry);
+
+        running = true;
+        detector = new Thread(this::run, "login-anomaly-detector");
+        detector.setDaemon(true);
+        detector.start();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        detector.join(1000);
+    }
+
+    /**
+     * Publish a login attempt, it doesn't allocate memory and never blocks
+     * 
+     * @param username The username sent
+     * @param sourceIp The IP of the client
+     * @param outcome The result of the login
+     * @param startNanos The System.nanoTime() at the start of the login
+     */
+    public void record(String username, String sourceIp, LoginEvent.Outcome outcome, long startNanos) {
+        ring.publish(username, sourceIp, outcome, System.currentTimeMillis(), System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return The last anomalies detected, the newest first
+     */
+    public List<Anomaly> getRecentAnomalies() {
+        synchronized(recentAnomalies) {
+            return new ArrayList<Anomaly>(recentAnomalies);
+        }
+    }
+
+    private void run() {
+        while(running) {
+            try {
+                if(ring.poll(handler, POLL_BATCH) == 0) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                }
+                rotate(System.currentTimeMillis());
+                LoginSketches remote;
+                while((remote = sketchExchange.poll()) != null) {
+                    merge(remote);
+                }
+            } catch(RuntimeException e) {
+                logger.error("Anomaly detection error", e);
+            }
+        }
+    }
+
+    private void onEvent(LoginEvent event) {
+        auditLog.login(event);
+        long now = event.getTimestamp();
+        rotate(now);
+        String username = event.getUsername();
+        String ip = event.getSourceIp();
+        if(username == null) {
+            return;
+        }
+
+        if(event.isFailure()) {
+            current.addFailure(username, ip);
+            long failures = current.userFailures(username) + currentRemote.userFailures(username) + Math.round(previous.userFailures(username) * previousWeight(now));
+            if(failures >= bruteForceFailures) {
+                report(Anomaly.Type.BRUTE_FORCE, username, failures, now);
+            }
+            //There can't be more distinct users than failed logins from the IP
+            if(ip != null && current.ipFailures(ip) + currentRemote.ipFailures(ip) + previous.ipFailures(ip) >= stuffingUsers) {
+                long distinctUsers = HyperLogLog.estimateUnion(current.ipFailedUsers(ip), currentRemote.ipFailedUsers(ip), previous.ipFailedUsers(ip));
+                if(distinctUsers >= stuffingUsers) {
+                    report(Anomaly.Type.CREDENTIAL_STUFFING, ip, distinctUsers, now);
+                }
+            }
+        }
+        if(ip != null && event.getOutcome() != LoginEvent.Outcome.REJECTED) {
+            current.addUserIp(username, ip);
+            long distinctIps = HyperLogLog.estimateUnion(current.userIps(username), currentRemote.userIps(username), previous.userIps(username));
+            if(distinctIps >= velocityIps) {
+                report(Anomaly.Type.VELOCITY, username, distinctIps, now);
+            }
+        }
+    }
+
+    /**
+     * The part of the previous window still inside the sliding window ending at now
+     */
+    private double previousWeight(long now) {
+        double elapsed = (double) (now - current.getEpoch() * windowMillis) / windowMillis;
+        return Math.min(1, Math.max(0, 1 - elapsed));
+    }
+
+    /**
+     * Close the current window if now is in a new one: the local sketches are
+     * sent to the other instances, then the remote ones are added to them to
+     * make the previous window
+     */
+    private void rotate(long now) {
+        long epoch = now / windowMillis;
+        //The events can arrive slightly out of order, they are counted in the current window
+        if(epoch <= current.getEpoch()) {
+            return;
+        }
+        if(!current.isEmpty()) {
+            sketchExchange.publish(current);
+        }
+        if(epoch == current.getEpoch() + 1) {
+            current.merge(currentRemote);
+            previous = current;
+        } else {
+            previous = new LoginSketches(epoch - 1, hllPrecision, cmsDepth, cmsWidth);
+        }
+        current = new LoginSketches(epoch, hllPrecision, cmsDepth, cmsWidth);
+        currentRemote = new LoginSketches(epoch, hllPrecision, cmsDepth, cmsWidth);
+        for(Map<String, Long> alerts : lastAlerts.values()) {
+            alerts.values().removeIf(t -> now - t >= windowMillis);
+        }
+    }
+
+    /**
+     * Add the attempts of another instance to the window they belong to
+     */
+    private void merge(LoginSketches remote) {
+        if(remote.getEpoch() == previous.getEpoch()) {
+            previous.merge(remote);
+        } else if(remote.getEpoch() == currentRemote.getEpoch()) {
+            currentRemote.merge(remote);
+        } else {
+            logger.debug("Login sketches of epoch " + remote.getEpoch() + " discarded");
+        }
+    }
+
+    private void report(Anomaly.Type type, String key, long count, long now) {
+        //Once for each window
+        Long lastAlert = lastAlerts.get(type).get(key);
+        if(lastAlert != null && now - lastAlert < windowMillis) {
+            return;
+        }
+        lastAlerts.get(type).put(key, now);
+        Anomaly anomaly = new Anomaly(type, key, (int) count, now);
+        anomalyCounters.get(type).increment();
+        logger.warn("Login anomaly " + type + " for " + key + ": " + count + " events in " + windowMillis + " ms");
+        synchronized(recentAnomalies) {
+            if(recentAnomalies.size() == RECENT_ANOMALIES) {
+                recentAnomalies.removeLast();
+            }
+            recentAnomalies.addFirst(anomaly);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * @author Giuseppe Valente <valentepeppe@gmail.com>
+ */
+
+package it.uniroma1.authenticationserver.anomaly;
+
+import lombok.Getter;
+
+/**
+ * A login attempt. The events are slots of the LoginEventRing, allocated once
+ * and overwritten by the next attempts: a consumer must not keep a reference
+ */
+@Getter
+public class LoginEvent {
+
+    public enum Outcome {
+        SUCCESS,
+        BAD_CREDENTIALS,
+        DISABLED,
+        REJECTED,
+        ERROR
+    }
+
+    private String username;
+    private String sourceIp;
+    private Outcome outcome;
+    private long timestamp;
+    private long latencyNanos;
+
+    void set(String username, String sourceIp, Outcome outcome, long timestamp, long latencyNanos) {
+        this.username = username;
+        this.sourceIp = sourceIp;
+        this.outcome = outcome;
+        this.timestamp = timestamp;
+        this.latencyNanos = latencyNanos;
+    }
+
+    public boolean isFailure() {
+        return outcome == Outcome.BAD_CREDENTIALS || outcome == Outcome.DISABLED;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * @author Giuseppe Valente <valentepeppe@gmail.com>
+ */
+
+package it.uniroma1.authenticationserver.anomaly;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Bounded ring buffer of login events with many producers (the login threads)
+ * and a single consumer (the detector).
+ * The slots are allocated once, publishing an event doesn't allocate and never
+ * blocks: if the consumer is too slow the event is dropped.
+ */
+public class LoginEventRing {
+
+    private final LoginEvent[] slots;
+    //Sequence published in each slot, -1 if the slot has never been written
+    private final AtomicLongArray published;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private volatile long consumed;
+
+    /**
+     * @param capacity The number of slots, rounded up to a power of two
+     */
+    public LoginEventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        slots = new LoginEvent[size];
+        published = new AtomicLongArray(size);
+        for(int i = 0; i < size; i++) {
+            slots[i] = new LoginEvent();
+            published.set(i, -1);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Write an event in the next free slot
+     * 
+     * @return false if the buffer is full and the event has been dropped
+     */
+    public boolean publish(String username, String sourceIp, LoginEvent.Outcome outcome, long timestamp, long latencyNanos) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if(sequence - consumed >= slots.length) {
+                dropped.increment();
+                return false;
+            }
+        } while(!claimed.compareAndSet(sequence, sequence + 1));
+
+        int index = (int) (sequence & mask);
+        slots[index].set(username, sourceIp, outcome, timestamp, latencyNanos);
+        published.set(index, sequence);
+        return true;
+    }
+
+    /**
+     * Pass to the handler the events published in order, must be called by a single thread
+     * 
+     * @param handler The consumer of the events, the event is valid only during the call
+     * @param max The max number of events to read
+     * @return The number of events read
+     */
+    public int poll(Consumer<LoginEvent> handler, int max) {
+        long sequence = consumed;
+        int read = 0;
+        while(read < max) {
+            int index = (int) (sequence & mask);
+            if(published.get(index) != sequence) {
+                break; //Not yet published
+            }
+            handler.accept(slots[index]);
+            sequence++;
+            read++;
+            consumed = sequence; //Frees the slot
+        }
+        return read;
+    }
+
+    public long size() {
+        return claimed.get() - consumed;
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * @author Giuseppe Valente <valentepeppe@gmail.com>
+ */
+
+package it.uniroma1.authenticationserver.anomaly;
+
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.uniroma1.authenticationserver.messaging.RabbitMqConfig;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Send the sketches of a closed window to the other authentication-service
+ * instances and keep the ones received until the detector merges them
+ */
+@Component
+public class LoginSketchExchange {
+
+    private static final String INSTANCE_HEADER = "instance";
+
+    Logger logger = LoggerFactory.getLogger(LoginSketchExchange.class);
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${anomaly.window.ms:60000}")
+    private long windowMillis;
+
+    private final String instanceId = UUID.randomUUID().toString();
+    private final Queue<LoginSketches> received = new ConcurrentLinkedQueue<LoginSketches>();
+    private DistributionSummary sentBytes;
+
+    @PostConstruct
+    public void init() {
+        sentBytes = DistributionSummary.builder("login.sketches.sent").baseUnit("bytes").register(meterRegistry);
+    }
+
+    /**
+     * Send the sketches, they are lost if the broker is not available
+     */
+    public void publish(LoginSketches sketches) {
+        try {
+            byte[] body = sketches.toBytes();
+            MessageProperties properties = new MessageProperties();
+            properties.setContentType(MessageProperties.CONTENT_TYPE_BYTES);
+            properties.setHeader(INSTANCE_HEADER, instanceId);
+            //Useless after the next window
+            properties.setExpiration(String.valueOf(windowMillis));
+            rabbitTemplate.send(RabbitMqConfig.SKETCHES_EXCHANGE, "", new Message(body, properties));
+            sentBytes.record(body.length);
+        } catch(AmqpException e) {
+            logger.debug("Login sketches not sent: " + e.getMessage());
+        }
+    }
+
+    @RabbitListener(queues = "#{sketchesQueue.name}")
+    public void receive(Message message) {
+        if(instanceId.equals(message.getMessageProperties().getHeader(INSTANCE_HEADER))) {
+            return;
+        }
+        try {
+            received.add(LoginSketches.fromBytes(message.getBody()));
+        } catch(RuntimeException e) {
+            logger.warn("Login sketches not valid: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return The next sketches received from the other instances, null if there are none
+     */
+    public LoginSketches poll() {
+        return received.poll();
+    }
+}
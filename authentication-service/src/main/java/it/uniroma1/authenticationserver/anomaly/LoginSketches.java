@@ -0,0 +1,193 @@
+/**
+ * @author Giuseppe Valente <valentepeppe@gmail.com>
+ */
+
+package it.uniroma1.authenticationserver.anomaly;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The sketches of the login attempts of one window (epoch):
+ * - failed logins for each user and for each IP (Count-Min)
+ * - distinct IPs of each user and distinct users with failed logins of each IP (HyperLogLog)
+ * The sketches of the same epoch built by different instances are merged
+ * into the sketches of all the attempts. Only the keys with at least
+ * MIN_SENT distinct values are sent: most users log in from a single IP and
+ * most IPs fail for a single user, and a rule needs many values of a key.
+ */
+public class LoginSketches {
+
+    private static final byte VERSION = 3;
+    private static final int MIN_SENT = 2;
+
+    private final long epoch;
+    private final int precision;
+    private final CountMinSketch userFailures;
+    private final CountMinSketch ipFailures;
+    private final Map<String, HyperLogLog> userIps = new HashMap<String, HyperLogLog>();
+    private final Map<String, HyperLogLog> ipFailedUsers = new HashMap<String, HyperLogLog>();
+    private boolean empty = true;
+
+    /**
+     * @param epoch The number of the window (timestamp / window length)
+     * @param precision The precision of the HyperLogLog sketches
+     * @param depth The rows of the Count-Min sketches
+     * @param width The counters in a row of the Count-Min sketches
+     */
+    public LoginSketches(long epoch, int precision, int depth, int width) {
+        this(epoch, precision, new CountMinSketch(depth, width), new CountMinSketch(depth, width));
+    }
+
+    private LoginSketches(long epoch, int precision, CountMinSketch userFailures, CountMinSketch ipFailures) {
+        this.epoch = epoch;
+        this.precision = precision;
+        this.userFailures = userFailures;
+        this.ipFailures = ipFailures;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    public void addFailure(String username, String ip) {
+        empty = false;
+        if(username != null) {
+            userFailures.add(username, 1);
+        }
+        if(ip != null) {
+            ipFailures.add(ip, 1);
+            if(username != null) {
+                ipFailedUsers.computeIfAbsent(ip, i -> new HyperLogLog(precision)).add(username);
+            }
+        }
+    }
+
+    public void addUserIp(String username, String ip) {
+        empty = false;
+        userIps.computeIfAbsent(username, u -> new HyperLogLog(precision)).add(ip);
+    }
+
+    public long userFailures(String username) {
+        return userFailures.estimate(username);
+    }
+
+    public long ipFailures(String ip) {
+        return ipFailures.estimate(ip);
+    }
+
+    /**
+     * @return The sketch of the IPs of the user, null if the user has no logins
+     */
+    public HyperLogLog userIps(String username) {
+        return userIps.get(username);
+    }
+
+    /**
+     * @return The sketch of the users with failed logins from the IP, null if there are none
+     */
+    public HyperLogLog ipFailedUsers(String ip) {
+        return ipFailedUsers.get(ip);
+    }
+
+    /**
+     * Add the attempts of the other sketches, they must be of the same epoch
+     * and have the same size
+     */
+    public void merge(LoginSketches other) {
+        if(other.epoch != epoch) {
+            throw new IllegalArgumentException("Sketches of epoch " + other.epoch + " instead of " + epoch);
+        }
+        userFailures.merge(other.userFailures);
+        ipFailures.merge(other.ipFailures);
+        merge(userIps, other.userIps);
+        merge(ipFailedUsers, other.ipFailedUsers);
+        empty &= other.empty;
+    }
+
+    public byte[] toBytes() {
+        int size = 1 + Long.BYTES + 1 + userFailures.serializedSize() + ipFailures.serializedSize() 
+                + serializedSize(userIps) + serializedSize(ipFailedUsers);
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(VERSION);
+        buffer.putLong(epoch);
+        buffer.put((byte) precision);
+        userFailures.writeTo(buffer);
+        ipFailures.writeTo(buffer);
+        write(buffer, userIps);
+        write(buffer, ipFailedUsers);
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    public static LoginSketches fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if(buffer.get() != VERSION) {
+            throw new IllegalArgumentException("Unknown sketches version");
+        }
+        long epoch = buffer.getLong();
+        int precision = buffer.get();
+        LoginSketches sketches = new LoginSketches(epoch, precision, CountMinSketch.readFrom(buffer), CountMinSketch.readFrom(buffer));
+        read(buffer, sketches.userIps);
+        read(buffer, sketches.ipFailedUsers);
+        sketches.empty = false;
+        return sketches;
+    }
+
+    private static void merge(Map<String, HyperLogLog> target, Map<String, HyperLogLog> source) {
+        for(Map.Entry<String, HyperLogLog> entry : source.entrySet()) {
+            HyperLogLog hll = target.get(entry.getKey());
+            if(hll == null) {
+                target.put(entry.getKey(), entry.getValue());
+            } else {
+                hll.merge(entry.getValue());
+            }
+        }
+    }
+
+    private static int serializedSize(Map<String, HyperLogLog> sketches) {
+        int size = Integer.BYTES;
+        for(Map.Entry<String, HyperLogLog> entry : sketches.entrySet()) {
+            if(isSent(entry.getValue())) {
+                size += Short.BYTES + entry.getKey().length() * 3 + entry.getValue().serializedSize();
+            }
+        }
+        return size;
+    }
+
+    private static void write(ByteBuffer buffer, Map<String, HyperLogLog> sketches) {
+        int sizePosition = buffer.position();
+        int sent = 0;
+        buffer.putInt(0);
+        for(Map.Entry<String, HyperLogLog> entry : sketches.entrySet()) {
+            if(!isSent(entry.getValue())) {
+                continue;
+            }
+            sent++;
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            buffer.putShort((short) key.length);
+            buffer.put(key);
+            entry.getValue().writeTo(buffer);
+        }
+        buffer.putInt(sizePosition, sent);
+    }
+
+    private static boolean isSent(HyperLogLog hll) {
+        return hll.getUsed() >= MIN_SENT;
+    }
+
+    private static void read(ByteBuffer buffer, Map<String, HyperLogLog> sketches) {
+        int size = buffer.getInt();
+        for(int i = 0; i < size; i++) {
+            byte[] key = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(key);
+            sketches.put(new String(key, StandardCharsets.UTF_8), HyperLogLog.readFrom(buffer));
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/**
+ * @author Giuseppe Valente <valentepeppe@gmail.com>
+ */
+
+package it.uniroma1.authenticationserver.anomaly;
+
+/**
+ * 64 bit hash of the strings used by the sketches. It must be the same on all
+ * the instances, so String.hashCode (32 bit) is not enough
+ */
+final class SketchHash {
+
+    private SketchHash() {}
+
+    static long hash64(String value) {
+        //FNV-1a on the chars, then the SplitMix64 finalizer to spread the bits
+        long h = 0xcbf29ce484222325L;
+        for(int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+}
@@ -0,0 +1,265 @@
+/**
+ * @author Giuseppe Valente <valentepeppe@gmail.com>
+ */
+
+package it.uniroma1.authenticationserver.audit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of binary records, written in memory-mapped segment
+ * files of fixed size. A record is:
+ * length (int, whole record) | CRC32C (int, of the rest) | timestamp (long) | type (byte) | payload
+ * The length is written last, a record with length 0 or a wrong CRC is the
+ * end of the segment.
+ * 
+ * An append is a copy in the page cache, the segments are forced to disk
+ * every flushMillis by a background thread (group commit): if the process
+ * crashes no record is lost, if the machine crashes the records of the last
+ * interval can be lost.
+ * 
+ * The segments are named with their index and the timestamp of their first
+ * record, the timestamps never decrease so a reader can seek by time.
+ * When a segment is created the oldest ones are deleted if there are more
+ * than maxSegments or if all their records are older than maxAgeMillis.
+ */
+public class AuditJournal implements Closeable {
+
+    static final String SUFFIX = ".journal";
+    static final int HEADER = Integer.BYTES + Integer.BYTES + Long.BYTES + 1;
+
+    Logger logger = LoggerFactory.getLogger(AuditJournal.class);
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final long maxAgeMillis;
+    private final CRC32C crc = new CRC32C();
+    private final ScheduledExecutorService flusher;
+    private final FileChannel lockChannel;
+
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long segmentIndex;
+    private long lastTimestamp;
+    private volatile boolean dirty;
+
+    /**
+     * Open the journal, the records are appended after the last valid record
+     * of the last segment
+     * 
+     * @param directory The directory of the segments
+     * @param segmentSize The size of a segment in bytes
+     * @param flushMillis The interval between two forces to disk, 0 to force only at close
+     * @throws IOException if the journal can't be opened or it's used by another writer
+     */
+    public AuditJournal(Path directory, int segmentSize, long flushMillis) throws IOException {
+        this(directory, segmentSize, flushMillis, 0, 0);
+    }
+
+    /**
+     * Open the journal, the records are appended after the last valid record
+     * of the last segment
+     * 
+     * @param directory The directory of the segments
+     * @param segmentSize The size of a segment in bytes
+     * @param flushMillis The interval between two forces to disk, 0 to force only at close
+     * @param maxSegments The max number of segments kept, 0 for no limit
+     * @param maxAgeMillis The max age of the records kept, 0 for no limit
+     * @throws IOException if the journal can't be opened or it's used by another writer
+     */
+    public AuditJournal(Path directory, int segmentSize, long flushMillis, int maxSegments, long maxAgeMillis) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.maxAgeMillis = maxAgeMillis;
+        Files.createDirectories(directory);
+        //Only one writer for each directory
+        lockChannel = FileChannel.open(directory.resolve("journal.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch(OverlappingFileLockException e) {
+            lock = null;
+        }
+        if(lock == null) {
+            lockChannel.close();
+            throw new IOException("Audit journal " + directory + " used by another writer");
+        }
+        List<Path> segments = segments(directory);
+        if(segments.isEmpty()) {
+            openSegment(0, System.currentTimeMillis());
+        } else {
+            Path last = segments.get(segments.size() - 1);
+            segmentIndex = segmentIndex(last);
+            channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            lastTimestamp = segmentTimestamp(last);
+            int position = 0;
+            int size;
+            while((size = recordSize(segment, position, crc)) > 0) {
+                lastTimestamp = segment.getLong(position + 2 * Integer.BYTES);
+                position += size;
+            }
+            segment.position(position);
+            deleteOldSegments(System.currentTimeMillis());
+        }
+        if(flushMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "audit-journal-flush");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * Append a record
+     * 
+     * @param timestamp The time of the event, if it's older than the last record the time of the last record is used
+     * @param type The type of the event
+     * @param payload The content of the event
+     * @throws IOException if a new segment can't be created
+     */
+    public synchronized void append(long timestamp, byte type, byte[] payload) throws IOException {
+        int size = HEADER + payload.length;
+        if(size > segmentSize) {
+            throw new IllegalArgumentException("Record of " + size + " bytes bigger than a segment");
+        }
+        timestamp = Math.max(timestamp, lastTimestamp);
+        lastTimestamp = timestamp;
+        if(segment.remaining() < size) {
+            roll(timestamp);
+        }
+        int start = segment.position();
+        segment.position(start + 2 * Integer.BYTES);
+        segment.putLong(timestamp);
+        segment.put(type);
+        segment.put(payload);
+        crc.reset();
+        crc.update(segment.slice(start + 2 * Integer.BYTES, size - 2 * Integer.BYTES));
+        segment.putInt(start + Integer.BYTES, (int) crc.getValue());
+        segment.putInt(start, size);
+        dirty = true;
+    }
+
+    /**
+     * Force the records written to disk
+     */
+    public void flush() {
+        MappedByteBuffer current;
+        synchronized(this) {
+            if(!dirty) {
+                return;
+            }
+            dirty = false;
+            current = segment;
+        }
+        //Outside the lock, the appends continue during the write to disk
+        current.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(flusher != null) {
+            flusher.shutdown();
+        }
+        synchronized(this) {
+            segment.force();
+            channel.close();
+        }
+        lockChannel.close();
+    }
+
+    private void roll(long timestamp) throws IOException {
+        segment.force();
+        channel.close();
+        openSegment(segmentIndex + 1, timestamp);
+        deleteOldSegments(timestamp);
+    }
+
+    /**
+     * Delete the oldest segments beyond maxSegments and the ones with all the
+     * records older than maxAgeMillis, never the current segment
+     */
+    private void deleteOldSegments(long now) throws IOException {
+        if(maxSegments <= 0 && maxAgeMillis <= 0) {
+            return;
+        }
+        List<Path> segments = segments(directory);
+        for(int i = 0; i < segments.size() - 1; i++) {
+            boolean tooMany = maxSegments > 0 && segments.size() - i > maxSegments;
+            //The records of a segment are older than the first record of the next one
+            boolean tooOld = maxAgeMillis > 0 && segmentTimestamp(segments.get(i + 1)) <= now - maxAgeMillis;
+            if(!tooMany && !tooOld) {
+                break;
+            }
+            Files.deleteIfExists(segments.get(i));
+            logger.info("Audit journal segment " + segments.get(i) + " deleted");
+        }
+    }
+
+    private void openSegment(long index, long timestamp) throws IOException {
+        segmentIndex = index;
+        Path path = directory.resolve(String.format("%010d-%019d%s", index, timestamp, SUFFIX));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        logger.info("Audit journal segment " + path);
+    }
+
+    /**
+     * The size of the record at position, 0 if there isn't a valid record
+     */
+    static int recordSize(ByteBuffer buffer, int position, CRC32C crc) {
+        if(buffer.limit() - position < HEADER) {
+            return 0;
+        }
+        int size = buffer.getInt(position);
+        if(size < HEADER || size > buffer.limit() - position) {
+            return 0;
+        }
+        crc.reset();
+        crc.update(buffer.slice(position + 2 * Integer.BYTES, size - 2 * Integer.BYTES));
+        return (int) crc.getValue() == buffer.getInt(position + Integer.BYTES) ? size : 0;
+    }
+
+    /**
+     * @return The segments of the journal, the oldest first
+     */
+    static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+    }
+
+    static long segmentIndex(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.indexOf('-')));
+    }
+
+    static long segmentTimestamp(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(name.indexOf('-') + 1, name.length() - SUFFIX.length()));
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * @author Giuseppe Valente <valentepeppe@gmail.com>
+ */
+
+package it.uniroma1.authenticationserver.audit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.uniroma1.authenticationserver.anomaly.LoginEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Record the login attempts in the audit journal, used for the offline
+ * analysis. The payload of a LOGIN record is:
+ * outcome (byte, ordinal of LoginEvent.Outcome) | latency in nanoseconds (long) | username | source IP
+ * where a string is its length in bytes (unsigned short) and its UTF-8 bytes
+ */
+@Component
+public class AuditLog {
+
+    public static final byte LOGIN = 1;
+
+    Logger logger = LoggerFactory.getLogger(AuditLog.class);
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${audit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${audit.journal.dir:audit}")
+    private String directory;
+
+    @Value("${audit.segment.size.mb:64}")
+    private int segmentSizeMb;
+
+    @Value("${audit.flush.ms:1000}")
+    private long flushMillis;
+
+    @Value("${audit.retention.segments:100}")
+    private int retentionSegments;
+
+    @Value("${audit.retention.days:30}")
+    private int retentionDays;
+
+    private AuditJournal journal;
+    private Counter errors;
+
+    @PostConstruct
+    public void init() {
+        errors = Counter.builder("audit.journal.errors").register(meterRegistry);
+        if(enabled) {
+            try {
+                journal = new AuditJournal(Paths.get(directory), segmentSizeMb * 1024 * 1024, flushMillis,
+                        retentionSegments, TimeUnit.DAYS.toMillis(retentionDays));
+            } catch(IOException e) {
+                logger.error("Audit journal disabled: " + e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if(journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Record a login attempt
+     * 
+     * @param event The attempt
+     */
+    public void login(LoginEvent event) {
+        if(journal == null) {
+            return;
+        }
+        byte[] user = bytes(event.getUsername());
+        byte[] ip = bytes(event.getSourceIp());
+        ByteBuffer payload = ByteBuffer.allocate(1 + Long.BYTES + 2 * Short.BYTES + user.length + ip.length);
+        payload.put((byte) event.getOutcome().ordinal());
+        payload.putLong(event.getLatencyNanos());
+        payload.putShort((short) user.length).put(user);
+        payload.putShort((short) ip.length).put(ip);
+        try {
+            journal.append(event.getTimestamp(), LOGIN, payload.array());
+        } catch(IOException e) {
+            errors.increment();
+            logger.warn("Audit record not written: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Read a string of a payload
+     */
+    public static String readString(ByteBuffer payload) {
+        byte[] value = new byte[payload.getShort() & 0xFFFF];
+        payload.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String value) {
+        if(value == null) {
+            return new byte[0];
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        //A string can't be longer than an unsigned short
+        return bytes.length <= 0xFFFF ? bytes : Arrays.copyOf(bytes, 0xFFFF);
+    }
+}
@@ -3,23 +3,28 @@
  */
 package it.uniroma1.authenticationserver.controllers;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
-import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.web.authentication.WebAuthenticationDetails;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 
-import it.uniroma1.authenticationserver.entities.Role;
-import it.uniroma1.authenticationserver.entities.User;
+import it.uniroma1.authenticationserver.TooManyRequests;
+import it.uniroma1.authenticationserver.anomaly.Anomaly;
+import it.uniroma1.authenticationserver.anomaly.LoginAnomalyDetector;
 import it.uniroma1.authenticationserver.security.CustomAuth;
 import it.uniroma1.authenticationserver.security.JwtUtil;
+import it.uniroma1.authenticationserver.security.LoginRateLimiter;
+import jakarta.servlet.http.HttpServletRequest;
 
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -34,30 +39,61 @@ public class LoginController {
     @Autowired
     private JwtUtil jwtUtil;
 
+    @Autowired
+    private LoginAnomalyDetector anomalyDetector;
+
+    @Autowired
+    private LoginRateLimiter loginRateLimiter;
+
     /**
      * Check if the user is authenticated or not
      * 
      * @param username The username
      * @param password The password
+     * @param request The HTTP Request
      * @return the JWT Token if the user is authenticated
      */
     @PostMapping("/api/login")
-    public ResponseEntity<String> login(@RequestParam String username, @RequestParam String password) {
+    public CompletableFuture<ResponseEntity<String>> login(@RequestParam String username, @RequestParam String password, HttpServletRequest request) {
 
+        long retryAfter = loginRateLimiter.acquire(request.getRemoteAddr(), username);
+        if(retryAfter > 0) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter)).body("Too many login requests"));
+        }
         try {
             
-            Authentication authentication = new UsernamePasswordAuthenticationToken(username, password);
-            authentication = customAuth.authenticate(authentication);
+            UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(username, password);
+            authentication.setDetails(new WebAuthenticationDetails(request)); //Source IP for the anomaly detection
+            return customAuth.authenticateAsync(authentication)
+                    .thenApply(this::createLoginResponse)
+                    .exceptionally(e -> {
+                        if(e.getCause() instanceof TimeoutException) {
+                            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("At the moment is not possible satisfy the login request");
+                        }
+                        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+                    });
+        
+        } catch(TooManyRequests e) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, "1").body(e.getMessage()));
+        } catch(Exception e) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage()));
+        }
+    }
+
+    /**
+     * Create the response of the login
+     * 
+     * @param authentication The authenticated user, null if the credentials are not valid
+     * @return The response with the JWT Token
+     */
+    private ResponseEntity<String> createLoginResponse(Authentication authentication) {
+
+        try {
             if(authentication != null) {
-              User u = new User();
-              u.setUsername(authentication.getName());
-              Set<Role> roles = new HashSet<Role>();
-              for(GrantedAuthority ga : authentication.getAuthorities()) {
-                roles.add((Role) ga);
-              }
-              u.setEnabled(true); //The authentication is done, the user is enabled to login
-              u.setAuthorities(roles);
-              String token = jwtUtil.generateToken(u);
+              //The authentication is done, the user is enabled to login
+              String token = jwtUtil.generateToken(authentication.getName(), true, authentication.getAuthorities());
               if(token != null) {
                 return ResponseEntity.status(HttpStatus.OK).body(token);
               } else {
@@ -83,6 +119,17 @@ public class LoginController {
         return "Superadmin resource";
     }
 
+    /**
+     * The last login anomalies detected
+     * 
+     * @return The anomalies, the newest first
+     */
+    @GetMapping("/api/private/anomalies")
+    @PreAuthorize("hasRole('SUPERADMIN')")
+    public List<Anomaly> loginAnomalies() {
+        return anomalyDetector.getRecentAnomalies();
+    }
+
     @GetMapping("/api/private/system_administrator_resource")
     @PreAuthorize("hasRole('SYSTEM_ADMINISTRATOR')")
     public String privateSystemAdministratorEndpoint() {
@@ -0,0 +1,25 @@
+/**
+ * @author Giuseppe Valente <valentepeppe@gmail.com>
+ */
+
+package it.uniroma1.authenticationserver.entities;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A row of the login query: the columns of the user needed by the login and
+ * one of its roles, null if the user has no roles
+ */
+@Getter
+@AllArgsConstructor
+public class LoginRow {
+
+    private Long id;
+    private String username;
+    private String password;
+    private Boolean enabled;
+    private Long roleId;
+    private String authority;
+
+}
@@ -0,0 +1,26 @@
+/**
+ * @author Giuseppe Valente <valentepeppe@gmail.com>
+ */
+
+package it.uniroma1.authenticationserver.entities;
+
+import java.util.Set;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * The user as seen by the login: only the credentials, the enabled flag and
+ * the roles, loaded together with a single query
+ */
+@Getter
+@AllArgsConstructor
+public class LoginUser {
+
+    private Long id;
+    private String username;
+    private String password;
+    private boolean enabled;
+    private Set<Role> authorities;
+
+}
@@ -28,8 +28,13 @@ import lombok.Setter;
 @Table(name = "application_users")
 public class User implements UserDetails{
 
+    /**
+     * Ids are reserved in blocks from a sequence (a table on MySQL) instead of
+     * being assigned by the insert, so that the inserts can be sent in batches
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "application_users_seq")
+    @SequenceGenerator(name = "application_users_seq", sequenceName = "application_users_seq", allocationSize = 50)
     private Long id;
 
     @Column(unique = true, nullable = false, length = 255)
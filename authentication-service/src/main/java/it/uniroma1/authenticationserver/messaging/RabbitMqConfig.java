@@ -0,0 +1,62 @@
+/**
+ * @author Giuseppe Valente <valentepeppe@gmail.com>
+ */
+
+package it.uniroma1.authenticationserver.messaging;
+
+import org.springframework.amqp.core.AnonymousQueue;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.FanoutExchange;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.annotation.EnableRabbit;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableRabbit
+public class RabbitMqConfig {
+
+    public static final String SKETCHES_EXCHANGE = "login_sketches";
+    public static final String USER_CHANGES_EXCHANGE = "user_changes";
+
+    /**
+     * Each instance receives the login sketches of all the instances on its
+     * own temporary queue
+     */
+    @Bean
+    public FanoutExchange sketchesExchange() {
+        return new FanoutExchange(SKETCHES_EXCHANGE, false, false);
+    }
+
+    @Bean
+    public Queue sketchesQueue() {
+        return new AnonymousQueue();
+    }
+
+    @Bean
+    public Binding sketchesBinding(Queue sketchesQueue, FanoutExchange sketchesExchange) {
+        return BindingBuilder.bind(sketchesQueue).to(sketchesExchange);
+    }
+
+    /**
+     * The services that write application_users send here the usernames of
+     * the changed users, each instance receives them on its own temporary queue.
+     * Declared with the same arguments of the database-service
+     */
+    @Bean
+    public FanoutExchange userChangesExchange() {
+        return new FanoutExchange(USER_CHANGES_EXCHANGE, false, false);
+    }
+
+    @Bean
+    public Queue userChangesQueue() {
+        return new AnonymousQueue();
+    }
+
+    @Bean
+    public Binding userChangesBinding(Queue userChangesQueue, FanoutExchange userChangesExchange) {
+        return BindingBuilder.bind(userChangesQueue).to(userChangesExchange);
+    }
+
+}
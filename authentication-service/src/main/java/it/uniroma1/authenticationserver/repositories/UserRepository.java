@@ -4,8 +4,15 @@
 
 package it.uniroma1.authenticationserver.repositories;
 
+import java.util.List;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import it.uniroma1.authenticationserver.entities.LoginRow;
 import it.uniroma1.authenticationserver.entities.User;
 
 public interface UserRepository extends CrudRepository<User, Long>{
@@ -13,4 +20,22 @@ public interface UserRepository extends CrudRepository<User, Long>{
     public User findByEmail(String email);
     public User findByUsername(String username); 
 
+    /**
+     * The columns needed by the login and the roles of the user, one row for
+     * each role, read with a single query
+     */
+    @Query("SELECT new it.uniroma1.authenticationserver.entities.LoginRow(u.id, u.username, u.password, u.enabled, r.id, r.authority) " +
+           "FROM User u LEFT JOIN u.authorities r WHERE u.username = :username")
+    public List<LoginRow> findLoginRowsByUsername(@Param("username") String username);
+
+    /**
+     * Replace the password hash only if it is still the one that has been verified
+     * 
+     * @return The number of updated users
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE User u SET u.password = :newPassword WHERE u.id = :id AND u.password = :oldPassword")
+    public int updatePassword(@Param("id") Long id, @Param("oldPassword") String oldPassword, @Param("newPassword") String newPassword);
+
 }
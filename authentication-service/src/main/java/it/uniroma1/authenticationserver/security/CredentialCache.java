@@ -0,0 +1,165 @@
+/**
+ * @author Giuseppe Valente <valentepeppe@gmail.com>
+ */
+
+package it.uniroma1.authenticationserver.security;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.uniroma1.authenticationserver.entities.LoginUser;
+
+/**
+ * LRU cache of the credentials read by the login (hash, enabled flag and
+ * roles). An entry is dropped when the change event of its user arrives and
+ * is never returned after ttlMillis: if an event is lost a changed or
+ * disabled user is seen with the old values at most for ttlMillis.
+ * The entries are split in stripes, each one with its own lock and its own
+ * LRU order, as in the TokenCache of the userservice.
+ */
+@Component
+public class CredentialCache {
+
+    private static final int STRIPES = 64;
+    private static final int MIN_STRIPE_SIZE = 64;
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final Stripe[] stripes;
+    private final Counter hits;
+    private final Counter misses;
+
+    /**
+     * Incremented at each invalidation, before removing the users: a user
+     * read from the DB before an invalidation may be stale and is not cached
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private record CachedUser(LoginUser user, long expiration) {}
+
+    private static class Stripe extends LinkedHashMap<String, CachedUser> {
+
+        private final int maxKeys;
+
+        private Stripe(int maxKeys) {
+            //Access order: the eldest entry is the least recently used
+            super(16, 0.75f, true);
+            this.maxKeys = maxKeys;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedUser> eldest) {
+            return size() > maxKeys || eldest.getValue().expiration() <= System.currentTimeMillis();
+        }
+    }
+
+    public CredentialCache(@Value("${login.cache.max.size:10000}") int maxSize, @Value("${login.cache.ttl.ms:60000}") long ttlMillis, 
+            MeterRegistry registry) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        int count = Integer.highestOneBit(Math.max(1, Math.min(STRIPES, maxSize / MIN_STRIPE_SIZE)));
+        this.stripes = new Stripe[count];
+        for(int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(Math.max(1, maxSize / count));
+        }
+        this.hits = Counter.builder("login.cache.requests").tag("result", "hit").register(registry);
+        this.misses = Counter.builder("login.cache.requests").tag("result", "miss").register(registry);
+        Gauge.builder("login.cache.size", this, CredentialCache::size).register(registry);
+    }
+
+    /**
+     * @param username The username
+     * @return The cached user, null if it is not cached or is expired
+     */
+    public LoginUser get(String username) {
+        Stripe stripe = stripe(username);
+        synchronized(stripe) {
+            CachedUser cached = stripe.get(username);
+            if(cached != null) {
+                if(cached.expiration() > System.currentTimeMillis()) {
+                    hits.increment();
+                    return cached.user();
+                }
+                stripe.remove(username);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * To take before reading the user from the DB
+     * 
+     * @return The current count of invalidations
+     */
+    public long stamp() {
+        return invalidations.get();
+    }
+
+    /**
+     * Cache a user read from the DB, if no invalidation happened after the read started
+     * 
+     * @param user The user
+     * @param stamp The stamp taken before the read
+     */
+    public void put(LoginUser user, long stamp) {
+        if(maxSize <= 0 || ttlMillis <= 0) {
+            return;
+        }
+        Stripe stripe = stripe(user.getUsername());
+        synchronized(stripe) {
+            //An invalidation after this check removes the user under the same lock
+            if(stamp == invalidations.get()) {
+                stripe.put(user.getUsername(), new CachedUser(user, System.currentTimeMillis() + ttlMillis));
+            }
+        }
+    }
+
+    /**
+     * Drop the users changed in the DB
+     */
+    public void evict(Collection<String> usernames) {
+        invalidations.incrementAndGet();
+        for(String username : usernames) {
+            Stripe stripe = stripe(username);
+            synchronized(stripe) {
+                stripe.remove(username);
+            }
+        }
+    }
+
+    /**
+     * Drop all the users, when the change events may have been lost
+     */
+    public void clear() {
+        invalidations.incrementAndGet();
+        for(Stripe stripe : stripes) {
+            synchronized(stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for(Stripe stripe : stripes) {
+            synchronized(stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private Stripe stripe(String key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+}
@@ -6,18 +6,37 @@
 
 package it.uniroma1.authenticationserver.security;
 
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.AuthenticationServiceException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.web.authentication.WebAuthenticationDetails;
 import org.springframework.stereotype.Component;
 
-import it.uniroma1.authenticationserver.entities.User;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.uniroma1.authenticationserver.TooManyRequests;
+import it.uniroma1.authenticationserver.anomaly.LoginAnomalyDetector;
+import it.uniroma1.authenticationserver.anomaly.LoginEvent;
+import it.uniroma1.authenticationserver.entities.LoginUser;
 import it.uniroma1.authenticationserver.repositories.UserRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
 @Component
 public class CustomAuth implements AuthenticationProvider {
@@ -27,21 +46,159 @@ public class CustomAuth implements AuthenticationProvider {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private PasswordVerifier passwordVerifier;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private LoginAnomalyDetector anomalyDetector;
+
+    @Autowired
+    private CredentialCache credentialCache;
+
+    @Autowired
+    private UserChangeExchange userChangeExchange;
+
+    @Autowired
+    private RoleCatalog roleCatalog;
+
+    @Value("${login.rehash.queue.size:1000}")
+    private int rehashQueueSize;
+
+    private Timer dbTimer;
+    private Counter rehashed;
+
+    /**
+     * Writes the new hashes to the DB, so the BCrypt threads only hash.
+     * When its queue is full the rehash is skipped, the next login retries it
+     */
+    private ThreadPoolExecutor rehashWriter;
+
+    @PostConstruct
+    public void init() {
+        dbTimer = Timer.builder("login.stage.duration").tag("stage", "db")
+                .publishPercentileHistogram().register(meterRegistry);
+        rehashed = Counter.builder("login.bcrypt.rehashed").register(meterRegistry);
+        rehashWriter = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(rehashQueueSize),
+                r -> new Thread(r, "rehash-writer"), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        rehashWriter.shutdown();
+    }
+
     @Override
     public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        try {
+            return authenticateAsync(authentication).join();
+        } catch (CompletionException e) {
+            if(e.getCause() instanceof TimeoutException) {
+                throw new AuthenticationServiceException("Password verification timeout", e.getCause());
+            }
+            throw new AuthenticationServiceException("Password verification failed", e.getCause());
+        }
+    }
+
+    /**
+     * Load the user on the calling thread, from the credential cache or from
+     * the DB, and check the password on the BCrypt verification pool
+     * 
+     * @param authentication The username and password to check
+     * @return The authenticated user, null if the credentials are not valid
+     * @throws TooManyRequests if there are too many logins waiting the verification
+     */
+    public CompletableFuture<Authentication> authenticateAsync(Authentication authentication) throws TooManyRequests {
         logger.info("authenticate");
         
-        BCryptPasswordEncoder bCryptPasswordEncoder = new BCryptPasswordEncoder();
-        User u = userRepository.findByUsername(authentication.getName());
+        long start = System.nanoTime();
+        String username = authentication.getName();
+        String sourceIp = sourceIp(authentication);
+        LoginUser u = credentialCache.get(username);
+        if(u == null) {
+            long stamp = credentialCache.stamp();
+            u = dbTimer.record(() -> roleCatalog.loginUser(userRepository.findLoginRowsByUsername(username)));
+            if(u != null) {
+                credentialCache.put(u, stamp);
+            }
+        }
+        if(u == null || u.getUsername() == null) {
+            anomalyDetector.record(username, sourceIp, LoginEvent.Outcome.BAD_CREDENTIALS, start);
+            return CompletableFuture.completedFuture(null);
+        }
+        Authentication authenticated = new UsernamePasswordAuthenticationToken(u.getUsername(), u.getPassword(), u.getAuthorities());
+        boolean enabled = u.isEnabled();
+        Long id = u.getId();
+        String storedUsername = u.getUsername();
+        String rawPassword = authentication.getCredentials().toString();
+        String encodedPassword = u.getPassword();
         //Check same password in DB
-        if( u != null && u.getUsername() != null &&
-            bCryptPasswordEncoder.matches(authentication.getCredentials().toString(), u.getPassword()) 
-            && u.isEnabled()) {
-            return new UsernamePasswordAuthenticationToken(u.getUsername(), u.getPassword(), u.getAuthorities());
-        } 
+        CompletableFuture<Boolean> verification;
+        try {
+            verification = passwordVerifier.matches(rawPassword, encodedPassword);
+        } catch(TooManyRequests e) {
+            anomalyDetector.record(username, sourceIp, LoginEvent.Outcome.REJECTED, start);
+            throw e;
+        }
+        return verification.handle((matches, e) -> {
+                    if(e != null) {
+                        anomalyDetector.record(username, sourceIp, LoginEvent.Outcome.ERROR, start);
+                        throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+                    }
+                    if(matches) {
+                        passwordVerifier.recordCost(encodedPassword);
+                        if(passwordVerifier.needsRehash(encodedPassword)) {
+                            rehash(id, storedUsername, rawPassword, encodedPassword);
+                        }
+                    }
+                    anomalyDetector.record(username, sourceIp, 
+                        !matches ? LoginEvent.Outcome.BAD_CREDENTIALS : enabled ? LoginEvent.Outcome.SUCCESS : LoginEvent.Outcome.DISABLED, start);
+                    return matches && enabled ? authenticated : null;
+                });
+    }
+
+    /**
+     * The IP of the client, if the request details are in the authentication
+     */
+    private String sourceIp(Authentication authentication) {
+        if(authentication.getDetails() instanceof WebAuthenticationDetails details) {
+            return details.getRemoteAddress();
+        }
         return null;
     }
 
+    /**
+     * Hash again the password with the configured cost and save it, without
+     * waiting the end of the operation
+     * 
+     * @param id The id of the user
+     * @param username The username of the user, dropped from the credential cache
+     * @param rawPassword The verified password
+     * @param encodedPassword The current hash
+     */
+    private void rehash(Long id, String username, String rawPassword, String encodedPassword) {
+        passwordVerifier.encode(rawPassword)
+                .thenAcceptAsync(newPassword -> newPassword.ifPresent(p -> {
+                    if(userRepository.updatePassword(id, encodedPassword, p) > 0) {
+                        rehashed.increment();
+                        credentialCache.evict(List.of(username));
+                        userChangeExchange.publish(id, username);
+                    }
+                }), rehashWriter)
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if(cause instanceof RejectedExecutionException) {
+                        //Queue full, the next login retries it
+                        logger.debug("Password rehash skipped for user " + id);
+                    } else {
+                        logger.warn("Password rehash failed for user " + id, e);
+                    }
+                    return null;
+                });
+    }
+
     @Override
     public boolean supports(Class<?> authentication) {
         return authentication.equals(UsernamePasswordAuthenticationToken.class);
@@ -12,9 +12,7 @@ package it.uniroma1.authenticationserver.security;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -24,7 +22,6 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import io.jsonwebtoken.Claims;
-import it.uniroma1.authenticationserver.entities.Role;
 import it.uniroma1.authenticationserver.entities.User;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
@@ -37,6 +34,9 @@ public class JwtFilter extends OncePerRequestFilter {
     @Autowired
     private JwtUtil jwtUtil;
 
+    @Autowired
+    private RoleCatalog roleCatalog;
+
     /**
      * Convert the claims into User object
      * 
@@ -48,14 +48,8 @@ public class JwtFilter extends OncePerRequestFilter {
             User u = new User();
             u.setUsername(claims.get("username", String.class));
             u.setEnabled(claims.get("enabled", Boolean.class));
-            Set<Role> authorities = new HashSet<Role>();
-            List<String> stringaAthorities = claims.get("roles", List.class);
-            for(String tmp : stringaAthorities) {
-                Role r = new Role();
-                r.setAuthority(tmp);
-                authorities.add(r);
-            }
-            u.setAuthorities(authorities);
+            //Shared roles, the set of the same roles is built once
+            u.setAuthorities(roleCatalog.roles(claims.get("roles", List.class)));
             return u;
         
         }
@@ -74,7 +68,7 @@ public class JwtFilter extends OncePerRequestFilter {
                     //1. Check token signature and extract all information
                     Claims claims = jwtUtil.extractAllClaims(token);
                     //2. Check if the token is not expired
-                    boolean isTokenExpired = jwtUtil.isTokenExpired(token);
+                    boolean isTokenExpired = jwtUtil.isTokenExpired(claims);
                     //3. Create the user and insert into Security Context
                     if(!isTokenExpired && claims != null) {
                         User u = createUserbyClaims(claims);
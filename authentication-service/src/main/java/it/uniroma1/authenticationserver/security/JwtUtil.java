@@ -20,8 +20,11 @@
 package it.uniroma1.authenticationserver.security;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 
 import io.jsonwebtoken.Jwts;
+import jakarta.annotation.PostConstruct;
+import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 
 import org.springframework.beans.factory.annotation.Value;
@@ -31,6 +34,7 @@ import org.springframework.stereotype.Service;
 
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 
 import java.util.HashMap;
@@ -44,6 +48,19 @@ public class JwtUtil {
     @Value("${jwt.symmetric.key}")
     private String secretKey;
 
+    /**
+     * The key and the parser are immutable and thread safe, they are built
+     * once instead of for each token
+     */
+    private SecretKey key;
+    private JwtParser jwtParser;
+
+    @PostConstruct
+    public void init() throws UnsupportedEncodingException {
+        key = new SecretKeySpec(secretKey.getBytes("UTF-8"), "HmacSHA256");
+        jwtParser = Jwts.parser().verifyWith(key).build();
+    }
+
     public String extractUsername(String token) throws UnsupportedEncodingException {
         return extractClaim(token, Claims::getSubject);
     }
@@ -58,12 +75,22 @@ public class JwtUtil {
     }
 
     public Claims extractAllClaims(String token) throws UnsupportedEncodingException {
-        SecretKeySpec secret_key = new SecretKeySpec(secretKey.getBytes("UTF-8"), "HmacSHA256");
-        return Jwts.parser().verifyWith(secret_key).build().parseSignedClaims(token).getPayload();
+        return jwtParser.parseSignedClaims(token).getPayload();
     }
 
     public Boolean isTokenExpired(String token) throws UnsupportedEncodingException {
-        return extractExpiration(token).before(new Date());
+        return isTokenExpired(extractAllClaims(token));
+    }
+
+    /**
+     * Check the expiration on claims already extracted, without parsing the
+     * token again
+     * 
+     * @param claims The claims of the token
+     * @return true if the token is expired
+     */
+    public Boolean isTokenExpired(Claims claims) {
+        return claims.getExpiration().before(new Date());
     }
 
     /**
@@ -79,17 +106,33 @@ public class JwtUtil {
      * @throws Exception
      */
     public String generateToken(UserDetails user) throws Exception {
+        if(user == null) {
+            throw new Exception("Invalid user");
+        }
+        return generateToken(user.getUsername(), user.isEnabled(), user.getAuthorities());
+    }
+
+    /**
+     * Same of generateToken(UserDetails) without building the user
+     * 
+     * @param username The username
+     * @param enabled The enabled flag
+     * @param authorities The authorities
+     * @return The Signed JWT
+     * @throws Exception
+     */
+    public String generateToken(String username, boolean enabled, Collection<? extends GrantedAuthority> authorities) throws Exception {
 
         Map<String, Object> claims = new HashMap<>();
-        if(user == null || user.getUsername() == null || user.getUsername().trim().equals("")) {
+        if(username == null || username.trim().equals("")) {
             throw new Exception("Invalid user");
         }
 
-        claims.put("username", user.getUsername());
-        claims.put("enabled", user.isEnabled());
-        List<String> roles = new ArrayList<String>();
-        if (user.getAuthorities() != null) {
-            for(GrantedAuthority ga : user.getAuthorities()) {
+        claims.put("username", username);
+        claims.put("enabled", enabled);
+        List<String> roles = new ArrayList<String>(authorities != null ? authorities.size() : 0);
+        if (authorities != null) {
+            for(GrantedAuthority ga : authorities) {
                 if(ga != null) {
                     roles.add(ga.getAuthority());
                 }
@@ -110,8 +153,6 @@ public class JwtUtil {
      */
     public String createToken(Map<String, Object> claims, String subject) throws UnsupportedEncodingException {
 
-        SecretKeySpec key = new SecretKeySpec(secretKey.getBytes("UTF-8"), "HmacSHA256");
-
         return Jwts.builder()
                 .claims(claims)
                 .subject(subject)
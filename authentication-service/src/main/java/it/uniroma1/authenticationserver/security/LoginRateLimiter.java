@@ -0,0 +1,97 @@
+/**
+ * @author Giuseppe Valente <valentepeppe@gmail.com>
+ */
+
+package it.uniroma1.authenticationserver.security;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Admission control of /api/login: the requests are limited for each IP and
+ * for each username before the BCrypt verification, so a single client can't
+ * keep the verification pool busy
+ */
+@Component
+public class LoginRateLimiter {
+
+    private static final String ROUTE = "login";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${login.ratelimit.ip.capacity:20}")
+    private int ipCapacity;
+
+    @Value("${login.ratelimit.ip.per.second:5}")
+    private double ipPerSecond;
+
+    @Value("${login.ratelimit.user.capacity:10}")
+    private int userCapacity;
+
+    @Value("${login.ratelimit.user.per.second:0.5}")
+    private double userPerSecond;
+
+    @Value("${login.ratelimit.max.keys:100000}")
+    private int maxKeys;
+
+    private RateLimiter ipLimiter;
+    private RateLimiter userLimiter;
+    private Counter ipRejected;
+    private Counter userRejected;
+
+    @PostConstruct
+    public void init() {
+        ipLimiter = new RateLimiter(ipCapacity, ipPerSecond, maxKeys);
+        userLimiter = new RateLimiter(userCapacity, userPerSecond, maxKeys);
+        ipRejected = Counter.builder("ratelimit.rejected").tag("route", ROUTE).tag("key", "ip").register(meterRegistry);
+        userRejected = Counter.builder("ratelimit.rejected").tag("route", ROUTE).tag("key", "user").register(meterRegistry);
+        Gauge.builder("ratelimit.keys", () -> ipLimiter.size() + userLimiter.size()).tag("route", ROUTE).register(meterRegistry);
+    }
+
+    /**
+     * Take a token for the IP and one for the username, only if both are
+     * available: a request refused for the username doesn't use a token of the IP
+     * 
+     * @param ip The IP of the client
+     * @param username The username sent, null if unknown
+     * @return 0 if the request is allowed, otherwise the seconds to wait before retrying
+     */
+    public long acquire(String ip, String username) {
+        //Always the IP first and then the username
+        synchronized(ipLimiter.lock(ip)) {
+            long now = System.nanoTime();
+            long wait = ipLimiter.waitNanos(ip, now);
+            if(wait > 0) {
+                ipRejected.increment();
+                return toSeconds(wait);
+            }
+            if(username == null) {
+                ipLimiter.take(ip, now);
+                return 0;
+            }
+            synchronized(userLimiter.lock(username)) {
+                wait = userLimiter.waitNanos(username, now);
+                if(wait > 0) {
+                    userRejected.increment();
+                    return toSeconds(wait);
+                }
+                ipLimiter.take(ip, now);
+                userLimiter.take(username, now);
+                return 0;
+            }
+        }
+    }
+
+    private long toSeconds(long nanos) {
+        return Math.max(1, (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * @author Giuseppe Valente <valentepeppe@gmail.com>
+ * Verify the passwords on a bounded pool of threads, so a burst of logins
+ * can't take all the HTTP workers
+ */
+
+package it.uniroma1.authenticationserver.security;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.uniroma1.authenticationserver.TooManyRequests;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+@Component
+public class PasswordVerifier {
+
+    Logger logger = LoggerFactory.getLogger(PasswordVerifier.class);
+
+    @Autowired
+    private PasswordEncoder passwordEncoder;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${login.bcrypt.threads:0}")
+    private int threads;
+
+    @Value("${login.bcrypt.queue.size:100}")
+    private int queueSize;
+
+    @Value("${login.bcrypt.timeout.ms:2000}")
+    private long timeout;
+
+    @Value("${login.bcrypt.strength:10}")
+    private int strength;
+
+    private ThreadPoolExecutor executor;
+    private Timer bcryptTimer;
+    private Counter rejected;
+
+    /**
+     * One counter for each cost seen, registered only the first time
+     */
+    private final Map<Integer, Counter> costCounters = new ConcurrentHashMap<Integer, Counter>();
+
+    @PostConstruct
+    public void init() {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        BlockingQueue<Runnable> queue = queueSize > 0 ? new ArrayBlockingQueue<Runnable>(queueSize) : new SynchronousQueue<Runnable>();
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS, queue,
+                r -> new Thread(r, "bcrypt-" + counter.incrementAndGet()),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        bcryptTimer = Timer.builder("login.stage.duration").tag("stage", "bcrypt")
+                .publishPercentileHistogram().register(meterRegistry);
+        rejected = Counter.builder("login.bcrypt.rejected").register(meterRegistry);
+        Gauge.builder("login.bcrypt.queue.size", queue, BlockingQueue::size).register(meterRegistry);
+        logger.info("BCrypt verification pool: " + poolSize + " threads, " + queueSize + " queued logins");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Check the password against the hash on the verification pool
+     * 
+     * @param rawPassword The password sent by the user
+     * @param encodedPassword The hash stored in DB
+     * @return The result of the check, completed exceptionally with a TimeoutException
+     *         if the verification is not done in time
+     * @throws TooManyRequests if the pool and its queue are full
+     */
+    public CompletableFuture<Boolean> matches(CharSequence rawPassword, String encodedPassword) throws TooManyRequests {
+        try {
+            return CompletableFuture
+                    .supplyAsync(() -> bcryptTimer.record(() -> passwordEncoder.matches(rawPassword, encodedPassword)), executor)
+                    .orTimeout(timeout, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new TooManyRequests("Too many login requests");
+        }
+    }
+
+    /**
+     * Hash the password with the configured cost on the verification pool.
+     * It is a background work: if the pool is full nothing is done
+     * 
+     * @param rawPassword The password to hash
+     * @return The new hash, empty if the pool is full
+     */
+    public CompletableFuture<Optional<String>> encode(CharSequence rawPassword) {
+        try {
+            return CompletableFuture.supplyAsync(() -> Optional.of(passwordEncoder.encode(rawPassword)), executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+    }
+
+    /**
+     * Count a verified hash in the distribution of the costs, the logins
+     * converge to the configured cost because of the rehash
+     * 
+     * @param encodedPassword The hash verified
+     */
+    public void recordCost(String encodedPassword) {
+        int cost = cost(encodedPassword);
+        Counter counter = costCounters.get(cost);
+        if(counter == null) {
+            counter = costCounters.computeIfAbsent(cost, c -> Counter.builder("login.bcrypt.cost").tag("cost", String.valueOf(c))
+                    .register(meterRegistry));
+        }
+        counter.increment();
+    }
+
+    /**
+     * Check if the hash has been created with a cost different from the configured one
+     * 
+     * @param encodedPassword The BCrypt hash
+     * @return true if the password must be hashed again
+     */
+    public boolean needsRehash(String encodedPassword) {
+        return cost(encodedPassword) != strength;
+    }
+
+    /**
+     * Extract the cost from a BCrypt hash ($2a$10$...)
+     * 
+     * @param encodedPassword The BCrypt hash
+     * @return The cost, -1 if the hash is not a BCrypt hash
+     */
+    public static int cost(String encodedPassword) {
+        if(encodedPassword == null || encodedPassword.length() < 7 || encodedPassword.charAt(0) != '$' || encodedPassword.charAt(6) != '$') {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(encodedPassword.substring(4, 6));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * @author Giuseppe Valente <valentepeppe@gmail.com>
+ */
+
+package it.uniroma1.authenticationserver.security;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token buckets for many keys (IPs, usernames). A bucket is kept as the time
+ * when it will be full again: a request takes a token moving this time ahead
+ * of the interval of a token, it is rejected if the time would be more than
+ * capacity tokens ahead of now.
+ * The buckets are split in stripes, each one with its own lock and a bounded
+ * map that removes the least recently used keys, so the threads contend only
+ * when they use keys of the same stripe.
+ */
+public class RateLimiter {
+
+    private static final int STRIPES = 64;
+
+    private final long tokenNanos;
+    private final long burstNanos;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private static class Stripe extends LinkedHashMap<String, long[]> {
+
+        private final int maxKeys;
+
+        private Stripe(int maxKeys) {
+            super(16, 0.75f, true);
+            this.maxKeys = maxKeys;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+            return size() > maxKeys;
+        }
+    }
+
+    /**
+     * @param capacity The max number of requests in a burst
+     * @param perSecond The tokens added each second
+     * @param maxKeys The max number of keys kept in memory
+     */
+    public RateLimiter(int capacity, double perSecond, int maxKeys) {
+        if(capacity < 1 || perSecond <= 0) {
+            throw new IllegalArgumentException("Capacity and rate must be positive");
+        }
+        this.tokenNanos = (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+        this.burstNanos = tokenNanos * capacity;
+        for(int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(Math.max(1, maxKeys / STRIPES));
+        }
+    }
+
+    /**
+     * Take a token from the bucket of the key
+     * 
+     * @param key The client IP or the username
+     * @return 0 if the request is allowed, otherwise the nanoseconds to wait for a token
+     */
+    public long acquire(String key) {
+        Stripe stripe = stripe(key);
+        synchronized(stripe) {
+            long now = System.nanoTime();
+            long wait = waitNanos(key, now);
+            if(wait == 0) {
+                take(key, now);
+            }
+            return wait;
+        }
+    }
+
+    /**
+     * The lock of the bucket of the key: held to check the buckets of more
+     * limiters before taking their tokens, always locking them in the same order
+     */
+    Object lock(String key) {
+        return stripe(key);
+    }
+
+    /**
+     * @return 0 if the bucket of the key has a token, otherwise the nanoseconds
+     * to wait for it. The lock of the key must be held
+     */
+    long waitNanos(String key, long now) {
+        long[] full = stripe(key).get(key);
+        if(full == null) {
+            return 0;
+        }
+        long next = Math.max(full[0], now) + tokenNanos;
+        return next - now > burstNanos ? next - now - burstNanos : 0;
+    }
+
+    /**
+     * Take a token checked with waitNanos, the lock of the key must be held
+     */
+    void take(String key, long now) {
+        Stripe stripe = stripe(key);
+        long[] full = stripe.get(key);
+        if(full == null) {
+            stripe.put(key, new long[] {now + tokenNanos});
+        } else {
+            full[0] = Math.max(full[0], now) + tokenNanos;
+        }
+    }
+
+    private Stripe stripe(String key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * @return The keys in memory
+     */
+    public int size() {
+        int size = 0;
+        for(Stripe stripe : stripes) {
+            synchronized(stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+}
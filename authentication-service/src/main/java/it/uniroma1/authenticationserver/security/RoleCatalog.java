@@ -0,0 +1,173 @@
+/**
+ * @author Giuseppe Valente <valentepeppe@gmail.com>
+ */
+
+package it.uniroma1.authenticationserver.security;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import it.uniroma1.authenticationserver.entities.LoginRow;
+import it.uniroma1.authenticationserver.entities.LoginUser;
+import it.uniroma1.authenticationserver.entities.Role;
+import it.uniroma1.authenticationserver.entities.User;
+import it.uniroma1.authenticationserver.repositories.RoleRepository;
+
+/**
+ * The roles are a few and almost never change: one immutable instance for
+ * each authority is shared by all the users, tokens and authentications, and
+ * the sets of the most common combinations of roles are built only once.
+ * The catalog is loaded at startup and an entry is replaced when the login
+ * reads the same authority with a different id. An authority not in the DB
+ * gets a new instance each time, so the tokens can't fill the catalog
+ */
+@Component
+public class RoleCatalog {
+
+    Logger logger = LoggerFactory.getLogger(RoleCatalog.class);
+
+    @Autowired
+    private RoleRepository roleRepository;
+
+    private final int maxSets;
+    private final Map<String, Role> roles = new ConcurrentHashMap<String, Role>();
+    private final Map<List<String>, Set<Role>> sets = new ConcurrentHashMap<List<String>, Set<Role>>();
+
+    public RoleCatalog(@Value("${role.catalog.max.sets:256}") int maxSets) {
+        this.maxSets = maxSets;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if(roleRepository == null) {
+            return;
+        }
+        for(Role r : roleRepository.findAll()) {
+            role(r.getId(), r.getAuthority());
+        }
+        logger.info("Role catalog loaded with {} roles", roles.size());
+    }
+
+    /**
+     * @param authority The authority
+     * @return The shared instance of the role, a new one without id if unknown
+     */
+    public Role role(String authority) {
+        Role role = roles.get(authority);
+        return role != null ? role : new CatalogRole(null, authority);
+    }
+
+    /**
+     * @param id The id read from the DB
+     * @param authority The authority read from the DB
+     * @return The shared instance of the role, replaced if the id is changed
+     */
+    public Role role(Long id, String authority) {
+        Role role = roles.get(authority);
+        if(role != null && Objects.equals(role.getId(), id)) {
+            return role;
+        }
+        synchronized(this) {
+            role = roles.get(authority);
+            if(role == null || !Objects.equals(role.getId(), id)) {
+                role = new CatalogRole(id, authority);
+                roles.put(authority, role);
+                //The sets could contain the old instance
+                sets.clear();
+            }
+            return role;
+        }
+    }
+
+    /**
+     * @param authorities The authorities, as in the claims of the token
+     * @return The immutable set of the shared roles
+     */
+    public Set<Role> roles(List<String> authorities) {
+        if(authorities == null || authorities.isEmpty()) {
+            return Set.of();
+        }
+        Set<Role> set = sets.get(authorities);
+        if(set != null) {
+            return set;
+        }
+        List<Role> found = new ArrayList<Role>(authorities.size());
+        for(String authority : authorities) {
+            found.add(role(authority));
+        }
+        set = Set.copyOf(found);
+        synchronized(this) {
+            if(sets.size() < maxSets && isCurrent(set)) {
+                sets.putIfAbsent(List.copyOf(authorities), set);
+            }
+        }
+        return set;
+    }
+
+    /**
+     * Merge the rows of the login query, one for each role of the user
+     * 
+     * @param rows The rows of the same user
+     * @return The user with the shared roles, null if there are no rows
+     */
+    public LoginUser loginUser(List<LoginRow> rows) {
+        if(rows == null || rows.isEmpty()) {
+            return null;
+        }
+        LoginRow first = rows.get(0);
+        List<String> authorities = new ArrayList<String>(rows.size());
+        for(LoginRow row : rows) {
+            if(row.getAuthority() != null) {
+                authorities.add(role(row.getRoleId(), row.getAuthority()).getAuthority());
+            }
+        }
+        return new LoginUser(first.getId(), first.getUsername(), first.getPassword(), 
+            first.getEnabled() != null && first.getEnabled(), roles(authorities));
+    }
+
+    private boolean isCurrent(Set<Role> set) {
+        for(Role r : set) {
+            if(roles.get(r.getAuthority()) != r) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Role shared between threads, it can't be modified
+     */
+    private static final class CatalogRole extends Role {
+
+        CatalogRole(Long id, String authority) {
+            super(id, authority, null);
+        }
+
+        @Override
+        public void setId(Long id) {
+            throw new UnsupportedOperationException("Shared role");
+        }
+
+        @Override
+        public void setAuthority(String authority) {
+            throw new UnsupportedOperationException("Shared role");
+        }
+
+        @Override
+        public void setUsers(Set<User> users) {
+            throw new UnsupportedOperationException("Shared role");
+        }
+    }
+}
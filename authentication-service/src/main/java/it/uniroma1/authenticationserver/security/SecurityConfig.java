@@ -17,6 +17,8 @@ import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 
+import jakarta.servlet.DispatcherType;
+
 @Configuration
 @EnableWebSecurity
 @EnableMethodSecurity(securedEnabled = true)
@@ -34,6 +36,7 @@ public class SecurityConfig {
 		http
             .csrf((csrf) -> csrf.disable())
 			.authorizeHttpRequests((requests) -> requests
+				.dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll() //Completion of the asynchronous login
 				.requestMatchers(
 								 "/", 
 								 "/api/public", 
@@ -0,0 +1,98 @@
+/**
+ * @author Giuseppe Valente <valentepeppe@gmail.com>
+ */
+
+package it.uniroma1.authenticationserver.security;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.AsyncConsumerStartedEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import it.uniroma1.authenticationserver.messaging.RabbitMqConfig;
+
+/**
+ * Send and receive the change events of the users of application_users, the
+ * body is the JSON array of the events. The database-service sends them from
+ * its outbox with a growing version, the ones sent here have no version.
+ * The users of the received events are dropped from the credential cache
+ */
+@Component
+public class UserChangeExchange {
+
+    private static final TypeReference<List<Map<String, Object>>> EVENTS_TYPE = new TypeReference<List<Map<String, Object>>>() {};
+
+    Logger logger = LoggerFactory.getLogger(UserChangeExchange.class);
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private CredentialCache credentialCache;
+
+    @Autowired
+    private Queue userChangesQueue;
+
+    /**
+     * Notify the update of a user, the other instances drop it when they receive it
+     */
+    public void publish(Long userId, String username) {
+        try {
+            MessageProperties properties = new MessageProperties();
+            properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+            properties.setContentEncoding("UTF-8");
+            rabbitTemplate.send(RabbitMqConfig.USER_CHANGES_EXCHANGE, "", new Message(objectMapper.writeValueAsBytes(
+                List.of(Map.of("type", "UPDATED", "userId", userId, "username", username, "timestamp", System.currentTimeMillis()))), properties));
+        } catch(AmqpException | IOException e) {
+            logger.warn("Change of user " + username + " not sent: " + e.getMessage());
+        }
+    }
+
+    @RabbitListener(queues = "#{userChangesQueue.name}")
+    public void receive(Message message) {
+        try {
+            List<String> usernames = new ArrayList<String>();
+            for(Map<String, Object> event : objectMapper.readValue(message.getBody(), EVENTS_TYPE)) {
+                if(event.get("username") instanceof String username) {
+                    usernames.add(username);
+                }
+            }
+            credentialCache.evict(usernames);
+        } catch(IOException e) {
+            logger.warn("User change not valid: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The events sent while the queue had no consumer are lost: when the
+     * consumer starts again (after a broker failure) all the users are dropped
+     */
+    @EventListener
+    public void consumerStarted(AsyncConsumerStartedEvent event) {
+        if(event.getSource() instanceof AbstractMessageListenerContainer container 
+                && Arrays.asList(container.getQueueNames()).contains(userChangesQueue.getName())) {
+            credentialCache.clear();
+        }
+    }
+}
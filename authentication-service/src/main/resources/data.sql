@@ -1011,3 +1011,5 @@ INSERT INTO user_role(user_id, role_id) VALUES (51,2);
 INSERT INTO user_role(user_id, role_id) VALUES (54,1);
 INSERT INTO user_role(user_id, role_id) VALUES (59,1);
 
+-- The rows above are inserted with explicit ids, move the user sequence after them
+ALTER SEQUENCE application_users_seq RESTART WITH 1001;
@@ -0,0 +1,65 @@
+package it.uniroma1.authenticationserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.uniroma1.authenticationserver.entities.LoginUser;
+import it.uniroma1.authenticationserver.security.CredentialCache;
+
+public class CredentialCacheTest {
+
+    private LoginUser user(String username) {
+        return new LoginUser(1L, username, "hash", true, Set.of());
+    }
+
+    @Test
+    public void testEvict() {
+        CredentialCache cache = new CredentialCache(100, 60000, new SimpleMeterRegistry());
+        cache.put(user("alice"), cache.stamp());
+        cache.put(user("bob"), cache.stamp());
+        assertNotNull(cache.get("alice"));
+        cache.evict(List.of("alice"));
+        assertNull(cache.get("alice"));
+        assertNotNull(cache.get("bob"));
+    }
+
+    /**
+     * A user read before an invalidation is not cached, it may be stale
+     */
+    @Test
+    public void testReadBeforeInvalidationIsNotCached() {
+        CredentialCache cache = new CredentialCache(100, 60000, new SimpleMeterRegistry());
+        long stamp = cache.stamp();
+        cache.evict(List.of("alice"));
+        cache.put(user("alice"), stamp);
+        assertNull(cache.get("alice"));
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+        CredentialCache cache = new CredentialCache(100, 50, new SimpleMeterRegistry());
+        cache.put(user("alice"), cache.stamp());
+        assertNotNull(cache.get("alice"));
+        Thread.sleep(100);
+        assertNull(cache.get("alice"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsDropped() {
+        CredentialCache cache = new CredentialCache(2, 60000, new SimpleMeterRegistry());
+        cache.put(user("alice"), cache.stamp());
+        cache.put(user("bob"), cache.stamp());
+        cache.get("alice");
+        cache.put(user("carol"), cache.stamp());
+        assertEquals(2, cache.size());
+        assertNull(cache.get("bob"));
+        assertNotNull(cache.get("alice"));
+    }
+}
@@ -0,0 +1,313 @@
+package it.uniroma1.authenticationserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.uniroma1.authenticationserver.anomaly.Anomaly;
+import it.uniroma1.authenticationserver.audit.AuditJournalReader;
+import it.uniroma1.authenticationserver.audit.AuditLog;
+import it.uniroma1.authenticationserver.anomaly.CountMinSketch;
+import it.uniroma1.authenticationserver.anomaly.HyperLogLog;
+import it.uniroma1.authenticationserver.anomaly.LoginAnomalyDetector;
+import it.uniroma1.authenticationserver.anomaly.LoginEvent;
+import it.uniroma1.authenticationserver.anomaly.LoginEventRing;
+import it.uniroma1.authenticationserver.anomaly.LoginSketchExchange;
+import it.uniroma1.authenticationserver.anomaly.LoginSketches;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+    "anomaly.bruteforce.failures=3",
+    "anomaly.stuffing.users=3",
+    "anomaly.velocity.ips=3",
+    "audit.journal.dir=target/audit-test"
+})
+@ActiveProfiles("dev")
+public class LoginAnomalyDetectorTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private LoginAnomalyDetector anomalyDetector;
+
+    @Autowired
+    private LoginSketchExchange sketchExchange;
+
+    @Autowired
+    private AuditLog auditLog;
+
+    @Test
+    public void testBruteForceFromLoginEndpoint() throws Exception {
+        for(int i = 0; i < 3; i++) {
+            MultiValueMap<String, String> parameters = new LinkedMultiValueMap<String, String>();
+            parameters.add("username", "superadmin");
+            parameters.add("password", "wrong password " + i);
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+
+            ResponseEntity<String> response = restTemplate.postForEntity(
+                    "http://localhost:" + port + "/api/login",
+                    new HttpEntity<>(parameters, headers),
+                    String.class);
+            assertEquals(HttpStatusCode.valueOf(403), response.getStatusCode());
+        }
+        assertTrue(waitAnomaly(Anomaly.Type.BRUTE_FORCE, "superadmin"));
+    }
+
+    @Test
+    public void testCredentialStuffing() throws Exception {
+        for(int i = 0; i < 3; i++) {
+            anomalyDetector.record("stuffed" + i, "10.0.0.1", LoginEvent.Outcome.BAD_CREDENTIALS, System.nanoTime());
+        }
+        assertTrue(waitAnomaly(Anomaly.Type.CREDENTIAL_STUFFING, "10.0.0.1"));
+    }
+
+    @Test
+    public void testVelocity() throws Exception {
+        for(int i = 0; i < 3; i++) {
+            anomalyDetector.record("traveler", "10.0.1." + i, LoginEvent.Outcome.SUCCESS, System.nanoTime());
+        }
+        assertTrue(waitAnomaly(Anomaly.Type.VELOCITY, "traveler"));
+    }
+
+    @Test
+    public void testNoAnomalyUnderThresholds() throws Exception {
+        anomalyDetector.record("quiet", "10.0.2.1", LoginEvent.Outcome.BAD_CREDENTIALS, System.nanoTime());
+        anomalyDetector.record("quiet", "10.0.2.1", LoginEvent.Outcome.SUCCESS, System.nanoTime());
+        assertFalse(waitAnomaly(Anomaly.Type.BRUTE_FORCE, "quiet"));
+    }
+
+    @Test
+    public void testRingDropsWhenFull() {
+        LoginEventRing ring = new LoginEventRing(4);
+        for(int i = 0; i < ring.capacity(); i++) {
+            assertTrue(ring.publish("user", "ip", LoginEvent.Outcome.SUCCESS, i, 0));
+        }
+        assertFalse(ring.publish("user", "ip", LoginEvent.Outcome.SUCCESS, 4, 0));
+        assertEquals(1, ring.getDropped());
+
+        long[] timestamps = new long[4];
+        int[] read = new int[1];
+        assertEquals(4, ring.poll(e -> timestamps[read[0]++] = e.getTimestamp(), 10));
+        assertEquals(3, timestamps[3]);
+        assertTrue(ring.publish("user", "ip", LoginEvent.Outcome.SUCCESS, 5, 0));
+    }
+
+    @Test
+    public void testHyperLogLogMerge() {
+        HyperLogLog first = new HyperLogLog(12);
+        HyperLogLog second = new HyperLogLog(12);
+        for(int i = 0; i < 10000; i++) {
+            first.add("10.0." + i);
+            second.add("10.0." + (i + 5000));
+        }
+        assertEquals(10000, first.estimate(), 500);
+        long union = HyperLogLog.estimateUnion(first, second);
+        first.merge(second);
+        assertEquals(union, first.estimate());
+        assertEquals(15000, union, 750);
+
+        HyperLogLog small = new HyperLogLog(8);
+        for(int i = 0; i < 3; i++) {
+            small.add("10.0.3." + i);
+            small.add("10.0.3." + i);
+        }
+        assertEquals(3, small.estimate());
+
+        //Sparse sketches, merged with a dense one
+        HyperLogLog other = new HyperLogLog(8);
+        other.add("10.0.3.0");
+        other.add("10.0.3.9");
+        assertEquals(2, other.getUsed());
+        assertEquals(4, HyperLogLog.estimateUnion(small, other, null));
+        HyperLogLog dense = new HyperLogLog(8);
+        for(int i = 0; i < 1000; i++) {
+            dense.add("10.0.4." + i);
+        }
+        long denseUnion = HyperLogLog.estimateUnion(dense, small);
+        small.merge(dense);
+        assertEquals(denseUnion, small.estimate());
+        assertEquals(1000, small.estimate(), 150);
+    }
+
+    @Test
+    public void testCountMinSketchMerge() {
+        CountMinSketch first = new CountMinSketch(4, 64);
+        CountMinSketch second = new CountMinSketch(4, 64);
+        for(int i = 0; i < 1000; i++) {
+            first.add("user" + i, 1);
+        }
+        first.add("target", 5);
+        second.add("target", 7);
+        first.merge(second);
+        assertTrue(first.estimate("target") >= 12);
+        for(int i = 0; i < 1000; i++) {
+            assertTrue(first.estimate("user" + i) >= 1);
+        }
+    }
+
+    @Test
+    public void testCountMinSketchWidth() {
+        //e * 10000 / 10 = 2719
+        assertEquals(4096, CountMinSketch.width(10000, 10));
+        assertEquals(1024, CountMinSketch.width(1000, 3));
+        CountMinSketch cms = new CountMinSketch(4, CountMinSketch.width(10000, 10));
+        for(int i = 0; i < 10000; i++) {
+            cms.add("user" + i, 1);
+        }
+        int over = 0;
+        for(int i = 0; i < 10000; i++) {
+            if(cms.estimate("user" + i) > 10) {
+                over++;
+            }
+        }
+        assertTrue(over < 10000 * Math.exp(-4), "Estimates over the threshold: " + over);
+    }
+
+    @Test
+    public void testSketchesSerialization() {
+        LoginSketches sketches = new LoginSketches(7, 8, 4, 4096);
+        for(int i = 0; i < 300; i++) {
+            sketches.addFailure("user" + i, "10.0.4.1");
+            sketches.addUserIp("traveler", "10.0.5." + i);
+        }
+        sketches.addUserIp("user1", "10.0.4.1");
+        sketches.addUserIp("user2", "10.0.4.1");
+        sketches.addUserIp("user2", "10.0.4.2");
+        for(int i = 0; i < 1000; i++) {
+            sketches.addUserIp("single" + i, "10.0.6.1");
+        }
+        byte[] bytes = sketches.toBytes();
+        LoginSketches copy = LoginSketches.fromBytes(bytes);
+        assertEquals(7, copy.getEpoch());
+        assertEquals(sketches.userFailures("user1"), copy.userFailures("user1"));
+        assertEquals(sketches.ipFailures("10.0.4.1"), copy.ipFailures("10.0.4.1"));
+        assertEquals(sketches.userIps("traveler").estimate(), copy.userIps("traveler").estimate());
+        assertEquals(sketches.ipFailedUsers("10.0.4.1").estimate(), copy.ipFailedUsers("10.0.4.1").estimate());
+        //The users with a single IP are not sent
+        assertEquals(null, copy.userIps("user1"));
+        assertEquals(null, copy.userIps("single1"));
+        assertEquals(2, copy.userIps("user2").estimate());
+        //Few kilobytes instead of the 2600 events or of all the counters
+        assertTrue(bytes.length < 20000, "Bytes: " + bytes.length);
+
+        copy.merge(sketches);
+        assertEquals(2 * sketches.userFailures("user1"), copy.userFailures("user1"));
+        assertEquals(sketches.userIps("traveler").estimate(), copy.userIps("traveler").estimate());
+    }
+
+    @Test
+    public void testBruteForceAcrossInstances() throws Exception {
+        int width = (int) ReflectionTestUtils.getField(anomalyDetector, "cmsWidth");
+        LoginSketches remote = new LoginSketches(System.currentTimeMillis() / 60000, 8, 4, width);
+        remote.addFailure("distributed", "10.0.6.1");
+        remote.addFailure("distributed", "10.0.6.2");
+        MessageProperties properties = new MessageProperties();
+        properties.setHeader("instance", "other instance");
+        sketchExchange.receive(new Message(remote.toBytes(), properties));
+        Thread.sleep(50);
+
+        anomalyDetector.record("distributed", "10.0.6.3", LoginEvent.Outcome.BAD_CREDENTIALS, System.nanoTime());
+        assertTrue(waitAnomaly(Anomaly.Type.BRUTE_FORCE, "distributed"));
+    }
+
+    @Test
+    public void testOnlyLocalSketchesPublished() throws Exception {
+        List<LoginSketches> published = new ArrayList<LoginSketches>();
+        LoginAnomalyDetector detector = new LoginAnomalyDetector();
+        ReflectionTestUtils.setField(detector, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(detector, "auditLog", auditLog);
+        ReflectionTestUtils.setField(detector, "sketchExchange", new LoginSketchExchange() {
+            @Override
+            public void publish(LoginSketches sketches) {
+                published.add(LoginSketches.fromBytes(sketches.toBytes()));
+            }
+        });
+        ReflectionTestUtils.setField(detector, "ringSize", 16);
+        ReflectionTestUtils.setField(detector, "windowMillis", 60000L);
+        ReflectionTestUtils.setField(detector, "hllPrecision", 8);
+        ReflectionTestUtils.setField(detector, "cmsDepth", 4);
+        ReflectionTestUtils.setField(detector, "cmsWidth", 512);
+        detector.init();
+        detector.shutdown();
+
+        LoginSketches local = (LoginSketches) ReflectionTestUtils.getField(detector, "current");
+        long epoch = local.getEpoch();
+        LoginSketches remote = new LoginSketches(epoch, 8, 4, 512);
+        remote.addFailure("shared", "10.0.8.1");
+        remote.addFailure("shared", "10.0.8.1");
+        ReflectionTestUtils.invokeMethod(detector, "merge", remote);
+        local.addFailure("shared", "10.0.8.2");
+        ReflectionTestUtils.invokeMethod(detector, "rotate", (epoch + 1) * 60000);
+
+        //The attempts of the other instance are not sent back
+        assertEquals(1, published.size());
+        assertEquals(1, published.get(0).userFailures("shared"));
+        LoginSketches previous = (LoginSketches) ReflectionTestUtils.getField(detector, "previous");
+        assertEquals(3, previous.userFailures("shared"));
+    }
+
+    @Test
+    public void testLoginAudit() throws Exception {
+        long start = System.currentTimeMillis();
+        anomalyDetector.record("audited", "10.0.7.1", LoginEvent.Outcome.DISABLED, System.nanoTime());
+
+        boolean found = false;
+        try (AuditJournalReader reader = new AuditJournalReader(Paths.get("target/audit-test"))) {
+            reader.seek(start);
+            for(int i = 0; i < 20 && !found; i++) {
+                while(!found && reader.next()) {
+                    assertEquals(AuditLog.LOGIN, reader.getType());
+                    assertTrue(reader.getTimestamp() >= start);
+                    byte outcome = reader.getPayload().get();
+                    reader.getPayload().getLong();
+                    if(AuditLog.readString(reader.getPayload()).equals("audited")) {
+                        assertEquals(LoginEvent.Outcome.DISABLED.ordinal(), outcome);
+                        assertEquals("10.0.7.1", AuditLog.readString(reader.getPayload()));
+                        found = true;
+                    }
+                }
+                Thread.sleep(50);
+            }
+        }
+        assertTrue(found);
+    }
+
+    private boolean waitAnomaly(Anomaly.Type type, String key) throws InterruptedException {
+        for(int i = 0; i < 20; i++) {
+            List<Anomaly> anomalies = anomalyDetector.getRecentAnomalies();
+            if(anomalies.stream().anyMatch(a -> a.getType() == type && a.getKey().equals(key))) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+}
@@ -9,9 +9,15 @@ import java.io.UnsupportedEncodingException;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
 
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
@@ -25,6 +31,7 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 
@@ -34,7 +41,12 @@ import it.uniroma1.authenticationserver.entities.Role;
 import it.uniroma1.authenticationserver.entities.User;
 import it.uniroma1.authenticationserver.repositories.RoleRepository;
 import it.uniroma1.authenticationserver.repositories.UserRepository;
+import it.uniroma1.authenticationserver.security.CredentialCache;
 import it.uniroma1.authenticationserver.security.JwtUtil;
+import it.uniroma1.authenticationserver.security.LoginRateLimiter;
+import it.uniroma1.authenticationserver.security.PasswordVerifier;
+import it.uniroma1.authenticationserver.security.UserChangeExchange;
+import jakarta.persistence.EntityManagerFactory;
 
 @SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
 @ActiveProfiles("dev")
@@ -55,6 +67,21 @@ public class LoginControllerTest {
     @Autowired
     private JwtUtil jwtUtil;
 
+    @Autowired
+    private PasswordVerifier passwordVerifier;
+
+    @Autowired
+    private LoginRateLimiter loginRateLimiter;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private CredentialCache credentialCache;
+
+    @Autowired
+    private UserChangeExchange userChangeExchange;
+
     private User superadmin; // A user with superadmin role
     private User systemAdminUser; // A user with the role systemadmin
     private User disabledUser; // A disabled user
@@ -69,9 +96,10 @@ public class LoginControllerTest {
     @BeforeEach
     public void setUp() {
 
-        //Clear all database
+        //Clear all database, the users are written without sending their change events
         userRepository.deleteAll();
         roleRepository.deleteAll();
+        credentialCache.clear();
 
         Role roleSuperadmin = new Role();
         roleSuperadmin.setAuthority("ROLE_SUPERADMIN");
@@ -297,4 +325,179 @@ public class LoginControllerTest {
          assertEquals(HttpStatusCode.valueOf(401), respEntity.getStatusCode());
     }
 
+    @Test
+    public void testRehashOfLowCostPassword() throws Exception {
+        //Legacy user with a low cost hash
+        User legacyUser = new User();
+        legacyUser.setEmail("legacyUser");
+        legacyUser.setUsername("legacyUser");
+        legacyUser.setPassword(new BCryptPasswordEncoder(4).encode("HelloWolrd!123"));
+        legacyUser.setEnabled(true);
+        legacyUser.setAuthorities(new HashSet<Role>());
+        userRepository.save(legacyUser);
+
+        MultiValueMap<String, String> parameters = new LinkedMultiValueMap<String, String>();
+        parameters.add("username", legacyUser.getUsername());
+        parameters.add("password", "HelloWolrd!123");
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+
+        HttpEntity<MultiValueMap<String, String>> requestEntity = new HttpEntity<>(parameters, headers);
+
+        ResponseEntity<String> response = restTemplate.postForEntity(
+                "http://localhost:" + port + "/api/login",
+                requestEntity,
+                String.class);
+        assertEquals(HttpStatusCode.valueOf(200), response.getStatusCode());
+
+        //The new hash is written in background
+        String password = userRepository.findByUsername("legacyUser").getPassword();
+        for(int i = 0; i < 50 && PasswordVerifier.cost(password) == 4; i++) {
+            Thread.sleep(100);
+            password = userRepository.findByUsername("legacyUser").getPassword();
+        }
+        assertEquals(10, PasswordVerifier.cost(password));
+        assertTrue(bCryptPasswordEncoder.matches("HelloWolrd!123", password));
+
+        response = restTemplate.postForEntity(
+                "http://localhost:" + port + "/api/login",
+                requestEntity,
+                String.class);
+        assertEquals(HttpStatusCode.valueOf(200), response.getStatusCode());
+    }
+
+    @Test
+    public void testLoginRejectedWhenVerificationPoolIsFull() throws Exception {
+        //Occupy all the BCrypt threads and the queue
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) ReflectionTestUtils.getField(passwordVerifier, "executor");
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            for(int i = 0; i < executor.getMaximumPoolSize(); i++) {
+                executor.execute(() -> awaitQuietly(release));
+            }
+            while(executor.getQueue().remainingCapacity() > 0) {
+                executor.execute(() -> awaitQuietly(release));
+            }
+
+            MultiValueMap<String, String> parameters = new LinkedMultiValueMap<String, String>();
+            parameters.add("username", superadmin.getUsername());
+            parameters.add("password", "HelloWolrd!123");
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+
+            HttpEntity<MultiValueMap<String, String>> requestEntity = new HttpEntity<>(parameters, headers);
+
+            ResponseEntity<String> response = restTemplate.postForEntity(
+                    "http://localhost:" + port + "/api/login",
+                    requestEntity,
+                    String.class);
+            assertEquals(HttpStatusCode.valueOf(429), response.getStatusCode());
+            assertNotNull(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testLoginRateLimitedByUsername() throws Exception {
+        //Use all the tokens of the username from another IP
+        while(loginRateLimiter.acquire("10.0.0.1", "ratelimited") == 0);
+
+        MultiValueMap<String, String> parameters = new LinkedMultiValueMap<String, String>();
+        parameters.add("username", "ratelimited");
+        parameters.add("password", "HelloWolrd!123");
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+
+        ResponseEntity<String> response = restTemplate.postForEntity(
+                "http://localhost:" + port + "/api/login",
+                new HttpEntity<>(parameters, headers),
+                String.class);
+        assertEquals(HttpStatusCode.valueOf(429), response.getStatusCode());
+        assertTrue(Long.parseLong(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)) >= 1);
+    }
+
+    /**
+     * The user and its roles are read with a single query
+     */
+    @Test
+    public void testLoginWithSingleQuery() throws Exception {
+        MultiValueMap<String, String> parameters = new LinkedMultiValueMap<String, String>();
+        parameters.add("username", superadmin.getUsername());
+        parameters.add("password", "HelloWolrd!123");
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        try {
+            statistics.clear();
+            ResponseEntity<String> response = restTemplate.postForEntity(
+                    "http://localhost:" + port + "/api/login",
+                    new HttpEntity<>(parameters, headers),
+                    String.class);
+            assertEquals(HttpStatusCode.valueOf(200), response.getStatusCode());
+            assertEquals(1, statistics.getPrepareStatementCount());
+            @SuppressWarnings("unchecked")
+            List<String> roles = (List<String>) jwtUtil.extractAllClaims(response.getBody()).get("roles");
+            assertEquals(2, roles.size());
+        } finally {
+            statistics.setStatisticsEnabled(false);
+        }
+    }
+
+    /**
+     * After the first login the credentials are read from the cache until the
+     * change event of the user arrives
+     */
+    @Test
+    public void testLoginWithCachedCredentials() throws Exception {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        try {
+            statistics.clear();
+            assertEquals(HttpStatusCode.valueOf(200), login(systemAdminUser.getUsername()).getStatusCode());
+            assertEquals(HttpStatusCode.valueOf(200), login(systemAdminUser.getUsername()).getStatusCode());
+            assertEquals(1, statistics.getPrepareStatementCount());
+
+            //Disabled by another service
+            systemAdminUser.setEnabled(false);
+            userRepository.save(systemAdminUser);
+            statistics.clear();
+            assertEquals(HttpStatusCode.valueOf(200), login(systemAdminUser.getUsername()).getStatusCode());
+            assertEquals(0, statistics.getPrepareStatementCount());
+
+            MessageProperties properties = new MessageProperties();
+            properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+            userChangeExchange.receive(new Message(("[{\"version\":1,\"type\":\"DISABLED\",\"userId\":" + systemAdminUser.getId() 
+                + ",\"username\":\"" + systemAdminUser.getUsername() + "\",\"timestamp\":0}]").getBytes(), properties));
+            assertEquals(HttpStatusCode.valueOf(403), login(systemAdminUser.getUsername()).getStatusCode());
+            assertEquals(1, statistics.getPrepareStatementCount());
+        } finally {
+            statistics.setStatisticsEnabled(false);
+        }
+    }
+
+    private ResponseEntity<String> login(String username) {
+        MultiValueMap<String, String> parameters = new LinkedMultiValueMap<String, String>();
+        parameters.add("username", username);
+        parameters.add("password", "HelloWolrd!123");
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+        return restTemplate.postForEntity("http://localhost:" + port + "/api/login", new HttpEntity<>(parameters, headers), String.class);
+    }
+
+    private void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
 }
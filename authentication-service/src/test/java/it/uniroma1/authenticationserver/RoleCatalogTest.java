@@ -0,0 +1,76 @@
+package it.uniroma1.authenticationserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import it.uniroma1.authenticationserver.entities.LoginRow;
+import it.uniroma1.authenticationserver.entities.LoginUser;
+import it.uniroma1.authenticationserver.entities.Role;
+import it.uniroma1.authenticationserver.security.RoleCatalog;
+
+public class RoleCatalogTest {
+
+    @Test
+    public void testSharedInstances() {
+        RoleCatalog catalog = new RoleCatalog(16);
+        Role superadmin = catalog.role(1L, "ROLE_SUPERADMIN");
+        catalog.role(2L, "ROLE_SYSTEM_ADMINISTRATOR");
+        assertSame(superadmin, catalog.role("ROLE_SUPERADMIN"));
+        assertSame(superadmin, catalog.role(1L, "ROLE_SUPERADMIN"));
+        assertThrows(UnsupportedOperationException.class, () -> superadmin.setAuthority("ROLE_USER"));
+
+        //Claims parsed from two tokens
+        Set<Role> roles = catalog.roles(new ArrayList<String>(List.of("ROLE_SUPERADMIN", "ROLE_SYSTEM_ADMINISTRATOR")));
+        assertSame(roles, catalog.roles(new ArrayList<String>(List.of("ROLE_SUPERADMIN", "ROLE_SYSTEM_ADMINISTRATOR"))));
+        assertEquals(2, roles.size());
+        assertTrue(roles.contains(superadmin));
+        assertThrows(UnsupportedOperationException.class, () -> roles.add(superadmin));
+    }
+
+    /**
+     * A role read with a new id replaces the old instance also in the sets
+     */
+    @Test
+    public void testChangedRoleIsReplaced() {
+        RoleCatalog catalog = new RoleCatalog(16);
+        Role old = catalog.role(1L, "ROLE_SUPERADMIN");
+        Set<Role> roles = catalog.roles(List.of("ROLE_SUPERADMIN"));
+
+        LoginUser u = catalog.loginUser(List.of(new LoginRow(10L, "alice", "hash", true, 7L, "ROLE_SUPERADMIN")));
+        Role changed = u.getAuthorities().iterator().next();
+        assertNotSame(old, changed);
+        assertEquals(7L, changed.getId());
+        assertSame(changed, catalog.role("ROLE_SUPERADMIN"));
+        assertNotSame(roles, catalog.roles(List.of("ROLE_SUPERADMIN")));
+        assertSame(u.getAuthorities(), catalog.roles(List.of("ROLE_SUPERADMIN")));
+    }
+
+    @Test
+    public void testUserWithoutRoles() {
+        RoleCatalog catalog = new RoleCatalog(16);
+        LoginUser u = catalog.loginUser(List.of(new LoginRow(10L, "alice", "hash", true, null, null)));
+        assertTrue(u.getAuthorities().isEmpty());
+    }
+
+    /**
+     * An authority not in the DB is never kept, nor the sets with it
+     */
+    @Test
+    public void testUnknownRoleNotCached() {
+        RoleCatalog catalog = new RoleCatalog(16);
+        catalog.role(1L, "ROLE_SUPERADMIN");
+        Role unknown = catalog.role("ROLE_UNKNOWN");
+        assertEquals("ROLE_UNKNOWN", unknown.getAuthority());
+        assertNotSame(unknown, catalog.role("ROLE_UNKNOWN"));
+        assertNotSame(catalog.roles(List.of("ROLE_SUPERADMIN", "ROLE_UNKNOWN")), catalog.roles(List.of("ROLE_SUPERADMIN", "ROLE_UNKNOWN")));
+    }
+}
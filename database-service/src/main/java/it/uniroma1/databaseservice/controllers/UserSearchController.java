@@ -0,0 +1,110 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package it.uniroma1.databaseservice.controllers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import it.uniroma1.databaseservice.entitis.models.UserUI;
+import it.uniroma1.databaseservice.repositories.UserSearchRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletResponse;
+
+@RestController
+public class UserSearchController {
+
+    @Autowired
+    private UserSearchRepository userSearchRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${search.stream.page.size:500}")
+    private int pageSize;
+
+    @Value("${search.min.length:3}")
+    private int minLength;
+
+    private TransactionTemplate readOnlyTransaction;
+
+    @PostConstruct
+    public void init() {
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Search the users and write them as NDJSON (one JSON object for each line)
+     * while they are read, the memory used doesn't depend on the number of users found
+     * 
+     * @param queryString The string to search in username, email, name and surname,
+     *        at least search.min.length characters
+     * @param response The HTTP Response
+     * @throws IOException
+     */
+    @GetMapping(value = "/api/users/search", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @PreAuthorize("hasRole('SUPERADMIN')")
+    public void searchUsers(@RequestParam("q") String queryString, HttpServletResponse response) throws IOException {
+
+        if(queryString == null || queryString.trim().length() < minLength) {
+            response.sendError(HttpStatus.BAD_REQUEST.value(), "The query must have at least " + minLength + " characters");
+            return;
+        }
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.setRootValueSeparator(null);
+            readOnlyTransaction.executeWithoutResult(status -> {
+                try (Stream<UserUI> users = userSearchRepository.streamUsers(queryString, pageSize)) {
+                    long written = 0;
+                    for(UserUI u : (Iterable<UserUI>) users::iterator) {
+                        generator.writeObject(u);
+                        generator.writeRaw('\n');
+                        if(++written % pageSize == 0) {
+                            generator.flush();
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+}
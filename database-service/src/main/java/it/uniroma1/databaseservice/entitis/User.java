@@ -23,13 +23,16 @@ package it.uniroma1.databaseservice.entitis;
 import java.util.Set;
 
 import jakarta.persistence.Column;
+import it.uniroma1.databaseservice.repositories.UserSearchIndexListener;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.JoinTable;
 import jakarta.persistence.ManyToMany;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -39,11 +42,17 @@ import lombok.Setter;
 @Setter
 @NoArgsConstructor
 @Entity
+@EntityListeners(UserSearchIndexListener.class)
 @Table(name = "application_users")
 public class User {
 
+    /**
+     * Ids are reserved in blocks from a sequence (a table on MySQL) instead of
+     * being assigned by the insert, so that the inserts can be sent in batches
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "application_users_seq")
+    @SequenceGenerator(name = "application_users_seq", sequenceName = "application_users_seq", allocationSize = 50)
     private Long id;
 
     @Column(unique = true, nullable = false, length = 255)
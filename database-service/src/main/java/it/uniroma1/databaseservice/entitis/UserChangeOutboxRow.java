@@ -0,0 +1,64 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package it.uniroma1.databaseservice.entitis;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Row of the transactional outbox of the user changes, written in the same
+ * transaction of the change and deleted when it has been sent. The version is
+ * assigned by the relay when the row is read to be sent. The rows are written
+ * and read with JDBC, the entity only declares the table
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@Entity
+@Table(name = "user_change_outbox")
+public class UserChangeOutboxRow {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(nullable = false, length = 255)
+    private String username;
+
+    @Column(nullable = false, length = 32)
+    private String type;
+
+    @Column(name = "created_at", nullable = false)
+    private Long createdAt;
+
+    @Column(unique = true)
+    private Long version;
+}
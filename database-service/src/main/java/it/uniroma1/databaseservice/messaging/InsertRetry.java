@@ -0,0 +1,148 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package it.uniroma1.databaseservice.messaging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Retry of the insert requests that failed for an error of the service (not
+ * for the content of the request). A failed request is published to the retry
+ * exchange and waits in the queue of its retry level until its TTL expires,
+ * then the broker sends it back to its partition queue: the consumer is free
+ * to process the other requests in the meantime. The delay doubles at each
+ * level, after maxRetries attempts the request is parked.
+ * Only the requests nobody waits for (the confirmed inserts, with the results
+ * queue of a userservice as reply-to) are retried: the senders waiting on
+ * direct reply-to would reach their reply timeout first, so they get a failed
+ * ACK at the first error.
+ * A retried request goes back to its partition after its delay: the requests
+ * for the same user received in the meantime are processed before it, the
+ * order of a partition is kept only for the requests that don't fail.
+ */
+@Component
+public class InsertRetry {
+
+    public static final String RETRIES_HEADER = "x-insert-retries";
+    public static final String LEVEL_HEADER = "x-retry-level";
+    public static final String REASON_HEADER = "x-park-reason";
+    private static final String DIRECT_REPLY_TO = "amq.rabbitmq.reply-to";
+
+    Logger logger = LoggerFactory.getLogger(InsertRetry.class);
+
+    private final RabbitTemplate rabbitTemplate;
+    private final int maxRetries;
+    private final Counter[] retried;
+    private final Counter parked;
+    private final Counter deadLettered;
+
+    @Autowired
+    public InsertRetry(RabbitTemplate rabbitTemplate, MeterRegistry meterRegistry, @Value("${insert.retry.max:3}") int maxRetries) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.maxRetries = maxRetries;
+        this.retried = new Counter[maxRetries];
+        for(int level = 0; level < maxRetries; level++) {
+            retried[level] = Counter.builder("insert.retried").tag("level", String.valueOf(level)).register(meterRegistry);
+        }
+        this.parked = Counter.builder("insert.parked").register(meterRegistry);
+        this.deadLettered = Counter.builder("insert.dead.lettered").register(meterRegistry);
+    }
+
+    /**
+     * Delay of a retry level
+     * 
+     * @param initialDelay The delay of the first retry, in milliseconds
+     * @param level The retry level, from 0
+     */
+    public static long delay(long initialDelay, int level) {
+        return initialDelay << level;
+    }
+
+    /**
+     * @return true if the sender is waiting the reply with a timeout (direct reply-to)
+     */
+    public static boolean isWaited(Message message) {
+        String replyTo = message.getMessageProperties().getReplyTo();
+        return replyTo != null && replyTo.startsWith(DIRECT_REPLY_TO);
+    }
+
+    /**
+     * Number of times the request has already been retried
+     */
+    public static int retries(Message message) {
+        Object retries = message.getMessageProperties().getHeader(RETRIES_HEADER);
+        return retries instanceof Number n ? n.intValue() : 0;
+    }
+
+    /**
+     * Schedule a new attempt of a failed request, or park it if it has no
+     * attempts left
+     * 
+     * @param message The request received from the partition queue
+     * @param reason The error
+     * @return false if the request has been parked, the sender must be notified
+     */
+    public boolean retry(Message message, String reason) {
+        int retries = retries(message);
+        if(retries >= maxRetries) {
+            park(message, reason);
+            return false;
+        }
+        MessageProperties properties = message.getMessageProperties();
+        properties.getHeaders().remove("x-death");
+        properties.setHeader(RETRIES_HEADER, retries + 1);
+        properties.setHeader(LEVEL_HEADER, String.valueOf(retries));
+        //The routing key is kept when the TTL expires, so the request goes back to its partition
+        rabbitTemplate.send(RabbitMqConfig.RETRY_EXCHANGE, properties.getReceivedRoutingKey(), message);
+        retried[retries].increment();
+        return true;
+    }
+
+    /**
+     * Move a request to the parking queue, where it stays until an operator
+     * inspects it
+     */
+    public void park(Message message, String reason) {
+        MessageProperties properties = message.getMessageProperties();
+        properties.getHeaders().remove("x-death");
+        properties.setHeader(REASON_HEADER, reason);
+        rabbitTemplate.send(RabbitMqConfig.DEAD_LETTER_EXCHANGE, properties.getReceivedRoutingKey(), message);
+        parked.increment();
+        logger.warn("Insert request parked after " + retries(message) + " retries: " + reason);
+    }
+
+    /**
+     * Count the requests rejected by the consumer, the broker sends them
+     * to the parking queue
+     */
+    public void deadLettered(int count) {
+        deadLettered.increment(count);
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package it.uniroma1.databaseservice.messaging;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Read and write the messages in the format of their AMQP content type: JSON
+ * or Smile, the binary encoding of the same Jackson model. A reply is written
+ * in the format of its request, so the userservice instances choose the format
+ * and the ones that still send JSON keep working
+ */
+@Component
+public class MessageCodec {
+
+    public static final String CONTENT_TYPE_SMILE = "application/x-jackson-smile";
+
+    private final Map<String, ObjectMapper> codecs;
+
+    @Autowired
+    public MessageCodec(ObjectMapper objectMapper) {
+        this.codecs = Map.of(MessageProperties.CONTENT_TYPE_JSON, objectMapper, 
+            CONTENT_TYPE_SMILE, objectMapper.copyWith(new SmileFactory()));
+    }
+
+    /**
+     * Read the body of a message, JSON if the content type is missing or is
+     * the default application/octet-stream
+     * 
+     * @throws IOException if the body is not valid or the content type is not supported
+     */
+    public <T> T read(Message message, Class<T> type) throws IOException {
+        return codec(message.getMessageProperties().getContentType()).readValue(message.getBody(), type);
+    }
+
+    /**
+     * Write a reply in the format of the request
+     * 
+     * @param request The properties of the request
+     * @param value The body of the reply
+     * @return The reply, with the correlation id of the request
+     */
+    public Message reply(MessageProperties request, Object value) throws IOException {
+        String contentType = request.getContentType() != null && codecs.containsKey(mimeType(request.getContentType())) 
+            ? mimeType(request.getContentType()) : MessageProperties.CONTENT_TYPE_JSON;
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(contentType);
+        if(MessageProperties.CONTENT_TYPE_JSON.equals(contentType)) {
+            properties.setContentEncoding("UTF-8");
+        }
+        properties.setCorrelationId(request.getCorrelationId());
+        return new Message(codecs.get(contentType).writeValueAsBytes(value), properties);
+    }
+
+    private ObjectMapper codec(String contentType) throws IOException {
+        if(contentType == null || contentType.equals(MessageProperties.DEFAULT_CONTENT_TYPE)) {
+            return codecs.get(MessageProperties.CONTENT_TYPE_JSON);
+        }
+        ObjectMapper codec = codecs.get(mimeType(contentType));
+        if(codec == null) {
+            throw new IOException("Content type not supported: " + contentType);
+        }
+        return codec;
+    }
+
+    /**
+     * The content type without the parameters like the charset
+     */
+    private static String mimeType(String contentType) {
+        int parameters = contentType.indexOf(';');
+        return (parameters < 0 ? contentType : contentType.substring(0, parameters)).trim();
+    }
+}
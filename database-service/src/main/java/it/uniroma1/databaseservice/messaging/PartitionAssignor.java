@@ -0,0 +1,230 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package it.uniroma1.databaseservice.messaging;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Share the partition queues among the running database-service instances.
+ * Every instance sends a heartbeat to all the others, so each one knows the
+ * same list of members and computes the same assignment with rendezvous
+ * hashing: a partition is owned by the member with the highest score for it.
+ * When an instance joins or leaves only its partitions move.
+ */
+@Component
+public class PartitionAssignor {
+
+    private static final String LEAVE_HEADER = "x-leave";
+
+    Logger logger = LoggerFactory.getLogger(PartitionAssignor.class);
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private SimpleRabbitListenerContainerFactory batchContainerFactory;
+
+    @Autowired
+    private UserInsertConsumer userInsertConsumer;
+
+    @Value("${insert.partitions:8}")
+    private int partitions;
+
+    @Value("${insert.partition.queue.prefix:user_partition_}")
+    private String queuePrefix;
+
+    @Value("${partition.heartbeat.ms:2000}")
+    private long heartbeatMillis;
+
+    private final String instanceId = UUID.randomUUID().toString();
+
+    //Member id -> time of the last heartbeat
+    private final Map<String, Long> members = new HashMap<String, Long>();
+    private List<String> assigned = new ArrayList<String>();
+    private SimpleMessageListenerContainer container;
+
+    @PostConstruct
+    public void init() {
+        container = batchContainerFactory.createListenerContainer();
+        container.setMessageListener(userInsertConsumer);
+        container.afterPropertiesSet();
+    }
+
+    /**
+     * Claim the partitions when the application is ready to process the messages
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        synchronized(this) {
+            members.put(instanceId, System.currentTimeMillis());
+            rebalance();
+        }
+        sendHeartbeat(false);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        container.stop();
+        sendHeartbeat(true); //The others take the partitions without waiting the timeout
+    }
+
+    @Scheduled(fixedDelayString = "${partition.heartbeat.ms:2000}")
+    public void heartbeat() {
+        synchronized(this) {
+            if(!members.containsKey(instanceId)) {
+                return; //Not yet started
+            }
+        }
+        sendHeartbeat(false);
+        synchronized(this) {
+            long now = System.currentTimeMillis();
+            members.put(instanceId, now);
+            //A member is gone after three heartbeats lost
+            if(members.values().removeIf(t -> now - t > heartbeatMillis * 3)) {
+                rebalance();
+            }
+        }
+    }
+
+    @RabbitListener(queues = "#{membersQueue.name}")
+    public void receiveHeartbeat(Message message) {
+        String member = new String(message.getBody(), StandardCharsets.UTF_8);
+        boolean leave = Boolean.TRUE.equals(message.getMessageProperties().getHeader(LEAVE_HEADER));
+        if(member.equals(instanceId)) {
+            return;
+        }
+        synchronized(this) {
+            boolean changed = leave ? members.remove(member) != null : members.put(member, System.currentTimeMillis()) == null;
+            if(changed) {
+                rebalance();
+            }
+        }
+    }
+
+    /**
+     * @return The partition queues consumed by this instance
+     */
+    public synchronized List<String> getAssignedQueues() {
+        return new ArrayList<String>(assigned);
+    }
+
+    /**
+     * @param partition The number of the partition
+     * @return true if this instance consumes the partition
+     */
+    public synchronized boolean ownsPartition(int partition) {
+        return assigned.contains(queuePrefix + partition);
+    }
+
+    /**
+     * The partition queues owned by a member
+     * 
+     * @param memberIds All the members
+     * @param member The member
+     * @return The names of the queues of the member
+     */
+    public List<String> assignment(Collection<String> memberIds, String member) {
+        List<String> queues = new ArrayList<String>();
+        for(int p = 0; p < partitions; p++) {
+            String owner = null;
+            long best = Long.MIN_VALUE;
+            for(String m : memberIds) {
+                long score = score(m, p);
+                if(owner == null || score > best || (score == best && m.compareTo(owner) < 0)) {
+                    owner = m;
+                    best = score;
+                }
+            }
+            if(member.equals(owner)) {
+                queues.add(queuePrefix + p);
+            }
+        }
+        return queues;
+    }
+
+    /**
+     * Change the queues of the listener container if the assignment changed
+     */
+    private void rebalance() {
+        List<String> queues = assignment(members.keySet(), instanceId);
+        if(queues.equals(assigned)) {
+            return;
+        }
+        logger.info("Partitions of " + instanceId + " with " + members.size() + " members: " + queues);
+        assigned = queues;
+        if(queues.isEmpty()) {
+            container.stop();
+        } else {
+            container.setQueueNames(queues.toArray(new String[0]));
+            if(!container.isRunning()) {
+                container.start();
+            }
+        }
+    }
+
+    private void sendHeartbeat(boolean leave) {
+        try {
+            MessageProperties properties = new MessageProperties();
+            properties.setExpiration(String.valueOf(heartbeatMillis));
+            if(leave) {
+                properties.setHeader(LEAVE_HEADER, true);
+            }
+            rabbitTemplate.send(RabbitMqConfig.MEMBERS_EXCHANGE, "", new Message(instanceId.getBytes(StandardCharsets.UTF_8), properties));
+        } catch(AmqpException e) {
+            logger.debug("Heartbeat not sent: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Score of a member for a partition, a 64 bit mix of the two values
+     */
+    private static long score(String member, int partition) {
+        long h = member.hashCode() * 0x9E3779B97F4A7C15L + partition;
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+}
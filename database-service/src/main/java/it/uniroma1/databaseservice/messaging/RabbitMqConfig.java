@@ -0,0 +1,206 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package it.uniroma1.databaseservice.messaging;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.AnonymousQueue;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.DirectExchange;
+import org.springframework.amqp.core.FanoutExchange;
+import org.springframework.amqp.core.HeadersExchange;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.amqp.rabbit.annotation.EnableRabbit;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+@Configuration
+@EnableRabbit
+@EnableScheduling
+public class RabbitMqConfig {
+
+    public static final String USER_EXCHANGE = "user_exchange";
+    public static final String MEMBERS_EXCHANGE = "user_partition_members";
+    public static final String RETRY_EXCHANGE = "user_retry";
+    public static final String RETRY_QUEUE_PREFIX = "user_retry_";
+    public static final String DEAD_LETTER_EXCHANGE = "user_dead_letter";
+    public static final String PARKING_QUEUE = "user_parking";
+    public static final String USER_KEYS_QUEUE = "user_keys";
+    public static final String USER_EXISTS_QUEUE = "user_exists";
+    public static final String USER_CHANGES_EXCHANGE = "user_changes";
+
+    @Value("${insert.partitions:8}")
+    private int partitions;
+
+    @Value("${insert.partition.queue.prefix:user_partition_}")
+    private String queuePrefix;
+
+    @Value("${insert.batch.size:100}")
+    private int batchSize;
+
+    @Value("${insert.batch.timeout.ms:50}")
+    private long batchTimeout;
+
+    @Value("${insert.retry.max:3}")
+    private int maxRetries;
+
+    @Value("${insert.retry.initial.ms:1000}")
+    private long retryInitialDelay;
+
+    /**
+     * The partition queues are declared with the same arguments of the userservice,
+     * in this way the consumer can start before the producer.
+     * A queue has a single active consumer: during a rebalance the new owner
+     * of a partition receives the messages only when the old one leaves it.
+     * The messages rejected by the consumer go to the parking queue
+     */
+    @Bean
+    public Declarables partitionQueues() {
+        DirectExchange exchange = new DirectExchange(USER_EXCHANGE);
+        List<Declarable> declarables = new ArrayList<Declarable>();
+        declarables.add(exchange);
+        for(int i = 0; i < partitions; i++) {
+            Queue queue = QueueBuilder.nonDurable(queuePrefix + i).singleActiveConsumer().deadLetterExchange(DEAD_LETTER_EXCHANGE).build();
+            declarables.add(queue);
+            declarables.add(BindingBuilder.bind(queue).to(exchange).with(queue.getName()));
+        }
+        return new Declarables(declarables);
+    }
+
+    /**
+     * One retry queue for each level, the requests are routed by the level
+     * header and wait the TTL of the queue, then they are dead-lettered to
+     * the user exchange with their partition as routing key
+     */
+    @Bean
+    public Declarables retryQueues() {
+        HeadersExchange exchange = new HeadersExchange(RETRY_EXCHANGE);
+        List<Declarable> declarables = new ArrayList<Declarable>();
+        declarables.add(exchange);
+        for(int level = 0; level < maxRetries; level++) {
+            Queue queue = QueueBuilder.nonDurable(RETRY_QUEUE_PREFIX + level)
+                    .ttl((int) InsertRetry.delay(retryInitialDelay, level))
+                    .deadLetterExchange(USER_EXCHANGE)
+                    .build();
+            declarables.add(queue);
+            declarables.add(BindingBuilder.bind(queue).to(exchange).where(InsertRetry.LEVEL_HEADER).matches(String.valueOf(level)));
+        }
+        return new Declarables(declarables);
+    }
+
+    /**
+     * Requests that can't be inserted, kept on a durable queue to be inspected
+     */
+    @Bean
+    public Declarables parkingQueue() {
+        FanoutExchange exchange = new FanoutExchange(DEAD_LETTER_EXCHANGE);
+        Queue queue = QueueBuilder.durable(PARKING_QUEUE).build();
+        return new Declarables(exchange, queue, BindingBuilder.bind(queue).to(exchange));
+    }
+
+    /**
+     * Requests of the userservice instances for their duplicate filter: the
+     * pages of the usernames and emails, and the check of the ones already used.
+     * Shared by all the instances, any of them can reply
+     */
+    @Bean
+    public Declarables userKeysQueues() {
+        return new Declarables(QueueBuilder.nonDurable(USER_KEYS_QUEUE).build(), QueueBuilder.nonDurable(USER_EXISTS_QUEUE).build());
+    }
+
+    /**
+     * Each instance receives the heartbeats of all the instances on its own
+     * temporary queue, used to know the members that share the partitions
+     */
+    @Bean
+    public FanoutExchange membersExchange() {
+        return new FanoutExchange(MEMBERS_EXCHANGE, false, false);
+    }
+
+    @Bean
+    public Queue membersQueue() {
+        return new AnonymousQueue();
+    }
+
+    @Bean
+    public Binding membersBinding(Queue membersQueue, FanoutExchange membersExchange) {
+        return BindingBuilder.bind(membersQueue).to(membersExchange);
+    }
+
+    /**
+     * The change events of the users are sent to this exchange from the outbox,
+     * the authentication-service instances drop their cached credentials and
+     * the database-service instances update their search index.
+     * Declared with the same arguments of the authentication-service
+     */
+    @Bean
+    public FanoutExchange userChangesExchange() {
+        return new FanoutExchange(USER_CHANGES_EXCHANGE, false, false);
+    }
+
+    /**
+     * Each instance receives all the change events on its own temporary queue
+     */
+    @Bean
+    public Queue userChangesQueue() {
+        return new AnonymousQueue();
+    }
+
+    @Bean
+    public Binding userChangesBinding(Queue userChangesQueue, FanoutExchange userChangesExchange) {
+        return BindingBuilder.bind(userChangesQueue).to(userChangesExchange);
+    }
+
+    /**
+     * Container that delivers the messages in micro-batches: a batch is
+     * closed when it reaches batchSize messages or when no message arrives
+     * for batchTimeout milliseconds. A batch that throws is not requeued, so a
+     * message that crashes the consumer is parked instead of being redelivered
+     * in a loop
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory batchContainerFactory(SimpleRabbitListenerContainerFactoryConfigurer configurer, 
+            ConnectionFactory connectionFactory) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(batchTimeout);
+        factory.setPrefetchCount(batchSize * 2);
+        factory.setDefaultRequeueRejected(false);
+        //The consumer acknowledges or rejects each message of the batch
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        return factory;
+    }
+
+}
@@ -0,0 +1,101 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package it.uniroma1.databaseservice.messaging;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.AsyncConsumerStartedEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import it.uniroma1.databaseservice.entitis.models.UserChangeEvent;
+import it.uniroma1.databaseservice.repositories.UserSearchIndex;
+
+/**
+ * Apply to the search index the change events of the users, so the index of
+ * each instance sees also the users written by the other instances. The
+ * events carry only the id: the changed users are read again from the DB,
+ * one query for each message
+ */
+@Component
+public class UserChangeListener {
+
+    Logger logger = LoggerFactory.getLogger(UserChangeListener.class);
+
+    @Autowired
+    private UserSearchIndex userSearchIndex;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private Queue userChangesQueue;
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    @RabbitListener(queues = "#{userChangesQueue.name}")
+    public void receive(Message message) {
+        if(!userSearchIndex.isEnabled()) {
+            return;
+        }
+        try {
+            Set<Long> ids = new LinkedHashSet<Long>();
+            for(UserChangeEvent event : objectMapper.readValue(message.getBody(), UserChangeEvent[].class)) {
+                if(event.getUserId() != null) {
+                    ids.add(event.getUserId());
+                }
+            }
+            userSearchIndex.refresh(ids);
+        } catch(IOException e) {
+            logger.warn("User change not valid: " + e.getMessage());
+        } catch(DataAccessException e) {
+            logger.warn("Search index not updated: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The events sent while the queue had no consumer are lost: when the
+     * consumer starts again (after a broker failure) the index is loaded
+     * again. The first start is covered by the load at startup
+     */
+    @EventListener
+    public void consumerStarted(AsyncConsumerStartedEvent event) {
+        if(event.getSource() instanceof AbstractMessageListenerContainer container 
+                && Arrays.asList(container.getQueueNames()).contains(userChangesQueue.getName())
+                && started.getAndSet(true) && userSearchIndex.isEnabled()) {
+            userSearchIndex.rebuild();
+        }
+    }
+}
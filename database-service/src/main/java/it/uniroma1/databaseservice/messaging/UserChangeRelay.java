@@ -0,0 +1,127 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package it.uniroma1.databaseservice.messaging;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.uniroma1.databaseservice.entitis.models.UserChangeEvent;
+import it.uniroma1.databaseservice.repositories.UserChangeOutbox;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Send the events of the outbox to the user_changes exchange, in batches of
+ * at most outbox.batch.size events (one message, the JSON array of the events).
+ * The events are deleted only after the broker confirms the message, so each
+ * one is sent at least once and a consumer recognizes the repeated ones by their version.
+ * Only the owner of the first partition drains the outbox.
+ */
+@Component
+public class UserChangeRelay {
+
+    Logger logger = LoggerFactory.getLogger(UserChangeRelay.class);
+
+    @Autowired
+    private UserChangeOutbox userChangeOutbox;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PartitionAssignor partitionAssignor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${outbox.batch.size:500}")
+    private int batchSize;
+
+    @Value("${outbox.confirm.timeout.ms:5000}")
+    private long confirmTimeout;
+
+    private Counter published;
+
+    @PostConstruct
+    public void init() {
+        published = Counter.builder("user.changes.published").register(meterRegistry);
+    }
+
+    /**
+     * Send the pending events
+     * 
+     * @return The number of events sent
+     */
+    @Scheduled(fixedDelayString = "${outbox.drain.ms:200}")
+    public synchronized int drain() {
+        if(!partitionAssignor.ownsPartition(0)) {
+            return 0;
+        }
+        int sent = 0;
+        try {
+            List<UserChangeEvent> events;
+            do {
+                events = userChangeOutbox.next(batchSize);
+                if(events.isEmpty()) {
+                    break;
+                }
+                publish(events);
+                userChangeOutbox.delete(events);
+                published.increment(events.size());
+                sent += events.size();
+            } while(events.size() == batchSize);
+        } catch(AmqpException | DataAccessException | JsonProcessingException e) {
+            //Retried at the next drain
+            logger.debug("User changes not sent: " + e.getMessage());
+        }
+        return sent;
+    }
+
+    private void publish(List<UserChangeEvent> events) throws JsonProcessingException {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        properties.setContentEncoding("UTF-8");
+        Message message = new Message(objectMapper.writeValueAsBytes(events), properties);
+        rabbitTemplate.invoke(template -> {
+            template.send(RabbitMqConfig.USER_CHANGES_EXCHANGE, "", message);
+            template.waitForConfirmsOrDie(confirmTimeout);
+            return null;
+        });
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package it.uniroma1.databaseservice.messaging;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareBatchMessageListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.rabbitmq.client.Channel;
+
+import it.uniroma1.databaseservice.entitis.models.ACK;
+import it.uniroma1.databaseservice.entitis.models.UserMessage;
+import it.uniroma1.databaseservice.repositories.UserBatchRepository;
+
+/**
+ * Consume the insert requests published by the userservice instances and
+ * reply to each of them with an ACK. The listener container is created by
+ * the PartitionAssignor with the partition queues owned by this instance.
+ * Each message is acknowledged on its own: a message that can't be handled
+ * is rejected alone and the broker moves it to the parking queue
+ */
+@Component
+public class UserInsertConsumer implements ChannelAwareBatchMessageListener {
+
+    Logger logger = LoggerFactory.getLogger(UserInsertConsumer.class);
+
+    @Autowired
+    private UserBatchRepository userBatchRepository;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private MessageCodec messageCodec;
+
+    @Autowired
+    private InsertRetry insertRetry;
+
+    /**
+     * Receive a micro-batch of insert requests and persist it with a single
+     * JDBC batch. If the batch fails each request is tried alone, so only the
+     * failed ones are retried later
+     * 
+     * @param messages The messages received from the publishers
+     * @param channel The channel used to acknowledge the messages
+     */
+    @Override
+    public void onMessageBatch(List<Message> messages, Channel channel) {
+
+        List<Message> requests = new ArrayList<Message>(messages.size());
+        List<UserMessage> users = new ArrayList<UserMessage>(messages.size());
+        for(Message message : messages) {
+            try {
+                users.add(messageCodec.read(message, UserMessage.class));
+                requests.add(message);
+            } catch(IOException e) {
+                reply(message, failedAck("Message not valid"));
+                ack(channel, message);
+            }
+        }
+
+        try {
+            List<ACK<UserMessage>> acks = userBatchRepository.insertUsers(users);
+            for(int i = 0; i < acks.size(); i++) {
+                reply(requests.get(i), acks.get(i));
+                ack(channel, requests.get(i));
+            }
+        } catch(RuntimeException e) {
+            logger.warn("Batch of " + users.size() + " users failed: " + e.getMessage());
+            for(int i = 0; i < requests.size(); i++) {
+                insertOne(requests.get(i), users.get(i), channel);
+            }
+        }
+    }
+
+    private void insertOne(Message request, UserMessage user, Channel channel) {
+        ACK<UserMessage> ack;
+        try {
+            ack = userBatchRepository.insertUsers(List.of(user)).get(0);
+        } catch(RuntimeException e) {
+            failed(request, e, channel);
+            return;
+        }
+        reply(request, ack);
+        ack(channel, request);
+    }
+
+    /**
+     * A request failed for an error of the service: the sender waiting the
+     * reply gets a failed ACK at once, before its reply timeout, the other
+     * requests are retried later
+     */
+    private void failed(Message request, RuntimeException error, Channel channel) {
+        try {
+            if(InsertRetry.isWaited(request)) {
+                reply(request, failedAck("Insert failed: " + error.getMessage()));
+            } else if(!insertRetry.retry(request, error.toString())) {
+                reply(request, failedAck("Insert failed after " + InsertRetry.retries(request) + " retries"));
+            }
+            ack(channel, request);
+        } catch(RuntimeException e) {
+            logger.error("Insert request rejected: " + e.getMessage());
+            insertRetry.deadLettered(1);
+            reject(channel, request);
+        }
+    }
+
+    private ACK<UserMessage> withoutUser(ACK<UserMessage> ack) {
+        if(ack.getPayload() == null) {
+            return ack;
+        }
+        UserMessage saved = new UserMessage();
+        saved.setId(ack.getPayload().getId());
+        ACK<UserMessage> reply = new ACK<UserMessage>();
+        reply.setSuccess(ack.isSuccess());
+        reply.setMessage(ack.getMessage());
+        reply.setPayload(ack.isSuccess() ? saved : null);
+        return reply;
+    }
+
+    private ACK<UserMessage> failedAck(String message) {
+        ACK<UserMessage> ack = new ACK<UserMessage>();
+        ack.setSuccess(false);
+        ack.setMessage(message);
+        return ack;
+    }
+
+    private void ack(Channel channel, Message message) {
+        try {
+            channel.basicAck(message.getMessageProperties().getDeliveryTag(), false);
+        } catch(IOException e) {
+            //The channel is closed, the broker delivers the message again
+            logger.warn("Insert request not acknowledged: " + e.getMessage());
+        }
+    }
+
+    private void reject(Channel channel, Message message) {
+        try {
+            channel.basicReject(message.getMessageProperties().getDeliveryTag(), false);
+        } catch(IOException e) {
+            logger.warn("Insert request not rejected: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Send the ACK to the reply queue of the request, with the same
+     * correlation id and content type. The payload carries only the id of the
+     * saved user, never its password hash. The request is handled also if the
+     * ACK can't be sent
+     * 
+     * @param request The request received
+     * @param ack The ACK to send back
+     */
+    private void reply(Message request, ACK<UserMessage> ack) {
+        MessageProperties requestProperties = request.getMessageProperties();
+        if(requestProperties.getReplyTo() == null) {
+            return; //Nobody is waiting for the response
+        }
+        try {
+            rabbitTemplate.send("", requestProperties.getReplyTo(), messageCodec.reply(requestProperties, withoutUser(ack)));
+        } catch(IOException e) {
+            logger.error("Can't serialize the ACK: " + e.getMessage());
+        } catch(RuntimeException e) {
+            logger.warn("ACK not sent to " + requestProperties.getReplyTo() + ": " + e.getMessage());
+        }
+    }
+
+}
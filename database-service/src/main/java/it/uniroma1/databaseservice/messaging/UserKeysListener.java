@@ -0,0 +1,125 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package it.uniroma1.databaseservice.messaging;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+
+import it.uniroma1.databaseservice.entitis.models.UserKey;
+import it.uniroma1.databaseservice.entitis.models.UserKeys;
+import it.uniroma1.databaseservice.repositories.UserRepository;
+
+/**
+ * Reply to the userservice instances that keep a filter of the usernames and
+ * emails already used, to refuse the duplicates before publishing them
+ */
+@Component
+public class UserKeysListener {
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private MessageCodec messageCodec;
+
+    @Value("${user.keys.page.size:10000}")
+    private int pageSize;
+
+    /**
+     * A page of the usernames and emails of all the users, after the user
+     * lastId of the request
+     */
+    @RabbitListener(queues = RabbitMqConfig.USER_KEYS_QUEUE)
+    public Message keys(Message request) {
+        UserKeys keys = read(request);
+        List<UserKey> users = userRepository.findKeysAfter(keys.getLastId() != null ? keys.getLastId() : 0, Limit.of(pageSize));
+        return reply(request, page(users, pageSize));
+    }
+
+    /**
+     * The usernames and emails of the request that are already used
+     */
+    @RabbitListener(queues = RabbitMqConfig.USER_EXISTS_QUEUE)
+    public Message exists(Message request) {
+        UserKeys keys = read(request);
+        Set<String> usernames = keys.getUsernames() != null ? new HashSet<String>(keys.getUsernames()) : Set.of();
+        Set<String> emails = keys.getEmails() != null ? new HashSet<String>(keys.getEmails()) : Set.of();
+        UserKeys used = new UserKeys(new ArrayList<String>(), new ArrayList<String>(), null);
+        if(!usernames.isEmpty() && !emails.isEmpty()) {
+            //The query finds also the users with the email of another request
+            for(UserKey user : userRepository.findKeys(usernames, emails)) {
+                if(usernames.contains(user.getUsername())) {
+                    used.getUsernames().add(user.getUsername());
+                }
+                if(emails.contains(user.getEmail())) {
+                    used.getEmails().add(user.getEmail());
+                }
+            }
+        }
+        return reply(request, used);
+    }
+
+    /**
+     * The keys of a page of users
+     * 
+     * @param users The users read, ordered by id
+     * @param pageSize The size of the page requested
+     * @return The keys, lastId is null if the page is the last one
+     */
+    public static UserKeys page(List<UserKey> users, int pageSize) {
+        UserKeys page = new UserKeys(new ArrayList<String>(users.size()), new ArrayList<String>(users.size()), null);
+        for(UserKey user : users) {
+            page.getUsernames().add(user.getUsername());
+            page.getEmails().add(user.getEmail());
+        }
+        if(users.size() == pageSize) {
+            page.setLastId(users.get(users.size() - 1).getId());
+        }
+        return page;
+    }
+
+    private UserKeys read(Message request) {
+        try {
+            return messageCodec.read(request, UserKeys.class);
+        } catch(IOException e) {
+            throw new AmqpRejectAndDontRequeueException("Request not valid", e);
+        }
+    }
+
+    private Message reply(Message request, UserKeys keys) {
+        try {
+            return messageCodec.reply(request.getMessageProperties(), keys);
+        } catch(IOException e) {
+            throw new AmqpRejectAndDontRequeueException("Reply not valid", e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package it.uniroma1.databaseservice.repositories;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Ids of the roles, the table is tiny and almost static: it is read once
+ * and read again only when an authority is not found, a new role is seen
+ * without restarting the service
+ */
+@Repository
+public class RoleCatalog {
+
+    private static final String SELECT_ROLES = "SELECT id, authority FROM role";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Immutable snapshot of the table, null until the first use
+     */
+    private volatile Map<String, Long> ids;
+
+    /**
+     * @param authority The authority
+     * @return The id of the role, null if it doesn't exist
+     */
+    public Long id(String authority) {
+        if(authority == null) {
+            return null;
+        }
+        Map<String, Long> current = ids;
+        Long id = current != null ? current.get(authority) : null;
+        if(id == null) {
+            id = reload().get(authority);
+        }
+        return id;
+    }
+
+    /**
+     * Read again all the roles
+     * 
+     * @return The ids of the roles by authority
+     */
+    public synchronized Map<String, Long> reload() {
+        Map<String, Long> loaded = new HashMap<String, Long>();
+        jdbcTemplate.query(SELECT_ROLES, rs -> {
+            loaded.put(rs.getString("authority"), rs.getLong("id"));
+        });
+        ids = Map.copyOf(loaded);
+        return ids;
+    }
+}
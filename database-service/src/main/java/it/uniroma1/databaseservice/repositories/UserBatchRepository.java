@@ -0,0 +1,231 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package it.uniroma1.databaseservice.repositories;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.generator.BeforeExecutionGenerator;
+import org.hibernate.generator.EventType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import it.uniroma1.databaseservice.entitis.User;
+import it.uniroma1.databaseservice.entitis.models.ACK;
+import it.uniroma1.databaseservice.entitis.models.RoleMessage;
+import it.uniroma1.databaseservice.entitis.models.UserChangeEvent;
+import it.uniroma1.databaseservice.entitis.models.UserMessage;
+import it.uniroma1.databaseservice.entitis.models.UserUI;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+/**
+ * Insert users with JDBC batches instead of one JPA save per user.
+ * A batch is written in a single transaction, if it fails every user of the
+ * batch is retried alone so that each request gets its own ACK.
+ * The ids are reserved with the generator of the User entity, a block of ids
+ * costs one query and the inserts don't need to read back the generated keys.
+ * The CREATED events of the users are written to the outbox in the same transaction.
+ */
+@Repository
+public class UserBatchRepository {
+
+    private static final String INSERT_USER = "INSERT INTO application_users (id, username, email, password, name, surname, enabled) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_USER_ROLE = "INSERT INTO user_role (user_id, role_id) VALUES (?, ?)";
+
+    Logger logger = LoggerFactory.getLogger(UserBatchRepository.class);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private UserSearchIndex userSearchIndex;
+
+    @Autowired
+    private UserChangeOutbox userChangeOutbox;
+
+    @Autowired
+    private RoleCatalog roleCatalog;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+
+    /**
+     * Insert the users and return one ACK for each of them, in the same order
+     * 
+     * @param users The users to insert
+     * @return The list of ACK
+     */
+    public List<ACK<UserMessage>> insertUsers(List<UserMessage> users) {
+
+        List<ACK<UserMessage>> acks = new ArrayList<ACK<UserMessage>>(users.size());
+        List<UserMessage> toInsert = new ArrayList<UserMessage>(users.size());
+        List<long[]> toInsertRoles = new ArrayList<long[]>(users.size());
+        List<ACK<UserMessage>> toInsertAcks = new ArrayList<ACK<UserMessage>>(users.size());
+        for(UserMessage u : users) {
+            ACK<UserMessage> ack;
+            try {
+                if(u.getUsername() == null || u.getEmail() == null || u.getPassword() == null) {
+                    throw new IllegalArgumentException("User is not valid");
+                }
+                long[] roles = resolveRoles(u);
+                ack = createAck(true, "Ok", u);
+                toInsert.add(u);
+                toInsertRoles.add(roles);
+                toInsertAcks.add(ack);
+            } catch(IllegalArgumentException e) {
+                ack = createAck(false, e.getMessage(), u);
+            }
+            acks.add(ack);
+        }
+
+        if(!toInsert.isEmpty()) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> insertBatch(toInsert, toInsertRoles));
+                index(toInsert);
+            } catch(DataAccessException e) {
+                logger.warn("Batch of " + toInsert.size() + " users failed, inserting one by one: " + e.getMessage());
+                for(int i = 0; i < toInsert.size(); i++) {
+                    UserMessage u = toInsert.get(i);
+                    u.setId(null);
+                    insertSingle(u, toInsertRoles.get(i), toInsertAcks.get(i));
+                }
+            }
+        }
+        return acks;
+    }
+
+    private void insertSingle(UserMessage u, long[] roles, ACK<UserMessage> ack) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> insertBatch(List.of(u), List.<long[]>of(roles)));
+            index(List.of(u));
+        } catch(DataIntegrityViolationException e) {
+            ack.setSuccess(false);
+            ack.setMessage("Username or email already used");
+        } catch(DataAccessException e) {
+            ack.setSuccess(false);
+            ack.setMessage(e.getMessage());
+        }
+    }
+
+    private void insertBatch(List<UserMessage> users, List<long[]> roles) {
+        SharedSessionContractImplementor session = entityManager.unwrap(SharedSessionContractImplementor.class);
+        List<Object[]> userRoles = new ArrayList<Object[]>();
+        List<UserChangeEvent> events = new ArrayList<UserChangeEvent>(users.size());
+        for(int i = 0; i < users.size(); i++) {
+            long id = nextId(session);
+            users.get(i).setId(id);
+            events.add(new UserChangeEvent(UserChangeEvent.Type.CREATED, id, users.get(i).getUsername()));
+            for(long roleId : roles.get(i)) {
+                userRoles.add(new Object[] {id, roleId});
+            }
+        }
+        jdbcTemplate.batchUpdate(INSERT_USER, new BatchPreparedStatementSetter() {
+
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                UserMessage u = users.get(i);
+                ps.setLong(1, u.getId());
+                ps.setString(2, u.getUsername());
+                ps.setString(3, u.getEmail());
+                ps.setString(4, u.getPassword());
+                ps.setString(5, u.getName());
+                ps.setString(6, u.getSurname());
+                ps.setBoolean(7, u.getEnabled() != null && u.getEnabled());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return users.size();
+            }
+        });
+        if(!userRoles.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_USER_ROLE, userRoles);
+        }
+        userChangeOutbox.record(events);
+    }
+
+    /**
+     * Take the next id from the sequence of the User entity, shared with the
+     * users saved with JPA
+     * 
+     * @param session The session of the transaction of the batch
+     */
+    private long nextId(SharedSessionContractImplementor session) {
+        BeforeExecutionGenerator generator = (BeforeExecutionGenerator) session.getFactory().getMappingMetamodel()
+            .getEntityDescriptor(User.class).getGenerator();
+        return ((Number) generator.generate(session, null, null, EventType.INSERT)).longValue();
+    }
+
+    /**
+     * Add the committed users to the search index
+     */
+    private void index(List<UserMessage> users) {
+        for(UserMessage u : users) {
+            userSearchIndex.put(new UserUI(u.getId(), u.getUsername(), u.getEmail(), u.getName(), u.getSurname(), u.getEnabled() != null && u.getEnabled()));
+        }
+    }
+
+    /**
+     * Convert the authorities of the user in role ids
+     * 
+     * @param u The user
+     * @return The ids of the roles
+     * @throws IllegalArgumentException if a role doesn't exist
+     */
+    private long[] resolveRoles(UserMessage u) {
+        if(u.getAuthorities() == null || u.getAuthorities().isEmpty()) {
+            return new long[0];
+        }
+        long[] ids = new long[u.getAuthorities().size()];
+        int i = 0;
+        for(RoleMessage r : u.getAuthorities()) {
+            Long id = r == null ? null : roleCatalog.id(r.getAuthority());
+            if(id == null) {
+                throw new IllegalArgumentException("Role not valid");
+            }
+            ids[i++] = id;
+        }
+        return ids;
+    }
+
+    private ACK<UserMessage> createAck(boolean success, String message, UserMessage payload) {
+        ACK<UserMessage> ack = new ACK<UserMessage>();
+        ack.setSuccess(success);
+        ack.setMessage(message);
+        ack.setPayload(payload);
+        return ack;
+    }
+}
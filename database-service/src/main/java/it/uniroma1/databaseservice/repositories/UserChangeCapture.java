@@ -0,0 +1,177 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package it.uniroma1.databaseservice.repositories;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.AbstractCollectionEvent;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCollectionRecreateEvent;
+import org.hibernate.event.spi.PostCollectionRecreateEventListener;
+import org.hibernate.event.spi.PostCollectionRemoveEvent;
+import org.hibernate.event.spi.PostCollectionRemoveEventListener;
+import org.hibernate.event.spi.PostCollectionUpdateEvent;
+import org.hibernate.event.spi.PostCollectionUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import it.uniroma1.databaseservice.entitis.User;
+import it.uniroma1.databaseservice.entitis.models.UserChangeEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Write in the outbox the changes of the users done through JPA, during the
+ * flush and so in the transaction of the change. A user disabled by an update
+ * is a DISABLED event, a change of its authorities a ROLES_CHANGED event.
+ * The inserts done with JDBC write their events themselves.
+ */
+@Component
+public class UserChangeCapture implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener, 
+        PostCollectionRecreateEventListener, PostCollectionUpdateEventListener, PostCollectionRemoveEventListener {
+
+    private static final String AUTHORITIES_ROLE = User.class.getName() + ".authorities";
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private UserChangeOutbox userChangeOutbox;
+
+    @PostConstruct
+    public void init() {
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getServiceRegistry()
+            .getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_INSERT, this);
+        registry.appendListeners(EventType.POST_UPDATE, this);
+        registry.appendListeners(EventType.POST_DELETE, this);
+        registry.appendListeners(EventType.POST_COLLECTION_RECREATE, this);
+        registry.appendListeners(EventType.POST_COLLECTION_UPDATE, this);
+        registry.appendListeners(EventType.POST_COLLECTION_REMOVE, this);
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if(event.getEntity() instanceof User u) {
+            insertedInTransaction().add(u);
+            record(UserChangeEvent.Type.CREATED, u);
+        }
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        if(event.getEntity() instanceof User u) {
+            record(disabled(event) ? UserChangeEvent.Type.DISABLED : UserChangeEvent.Type.UPDATED, u);
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if(event.getEntity() instanceof User u) {
+            record(UserChangeEvent.Type.DELETED, u);
+        }
+    }
+
+    @Override
+    public void onPostRecreateCollection(PostCollectionRecreateEvent event) {
+        rolesChanged(event);
+    }
+
+    @Override
+    public void onPostUpdateCollection(PostCollectionUpdateEvent event) {
+        rolesChanged(event);
+    }
+
+    @Override
+    public void onPostRemoveCollection(PostCollectionRemoveEvent event) {
+        rolesChanged(event);
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return false;
+    }
+
+    /**
+     * The authorities of a user just inserted are part of its CREATED event
+     */
+    private void rolesChanged(AbstractCollectionEvent event) {
+        if(AUTHORITIES_ROLE.equals(event.getCollection().getRole()) && event.getAffectedOwnerOrNull() instanceof User u 
+                && !insertedInTransaction().contains(u)) {
+            record(UserChangeEvent.Type.ROLES_CHANGED, u);
+        }
+    }
+
+    private boolean disabled(PostUpdateEvent event) {
+        int[] dirty = event.getDirtyProperties();
+        if(dirty == null || event.getOldState() == null) {
+            return false;
+        }
+        String[] names = event.getPersister().getPropertyNames();
+        for(int i : dirty) {
+            if("enabled".equals(names[i])) {
+                return Boolean.TRUE.equals(event.getOldState()[i]) && !Boolean.TRUE.equals(event.getState()[i]);
+            }
+        }
+        return false;
+    }
+
+    private void record(UserChangeEvent.Type type, User u) {
+        userChangeOutbox.record(List.of(new UserChangeEvent(type, u.getId(), u.getUsername())));
+    }
+
+    /**
+     * The users inserted in the current transaction
+     */
+    @SuppressWarnings("unchecked")
+    private Set<User> insertedInTransaction() {
+        if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return Collections.newSetFromMap(new IdentityHashMap<User, Boolean>());
+        }
+        Set<User> inserted = (Set<User>) TransactionSynchronizationManager.getResource(this);
+        if(inserted == null) {
+            Set<User> created = Collections.newSetFromMap(new IdentityHashMap<User, Boolean>());
+            TransactionSynchronizationManager.bindResource(this, created);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(UserChangeCapture.this);
+                }
+            });
+            inserted = created;
+        }
+        return inserted;
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package it.uniroma1.databaseservice.repositories;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import it.uniroma1.databaseservice.entitis.models.UserChangeEvent;
+
+/**
+ * Transactional outbox of the user changes. The events are written in the
+ * transaction of the change, so they exist if and only if the change has been
+ * committed, and are deleted after they have been sent to the broker.
+ * The id of an event doesn't follow the order of the commits, the version is
+ * assigned when the event is read to be sent, from the single counter of
+ * user_change_version: the versions grow in the order the events are sent and
+ * an event sent again keeps its version
+ */
+@Repository
+public class UserChangeOutbox {
+
+    private static final String INSERT_EVENT = "INSERT INTO user_change_outbox (user_id, username, type, created_at) VALUES (?, ?, ?, ?)";
+    private static final String SELECT_UNVERSIONED = "SELECT id FROM user_change_outbox WHERE version IS NULL ORDER BY id LIMIT ?";
+    private static final String LOCK_LAST_VERSION = "SELECT last_version FROM user_change_version WHERE id = 1 FOR UPDATE";
+    private static final String INSERT_VERSIONS = "INSERT INTO user_change_version (id, last_version) VALUES (1, ?)";
+    private static final String RESERVE_VERSIONS = "UPDATE user_change_version SET last_version = ? WHERE id = 1";
+    private static final String SET_VERSION = "UPDATE user_change_outbox SET version = ? WHERE id = ?";
+    private static final String SELECT_EVENTS = "SELECT version, type, user_id, username, created_at FROM user_change_outbox WHERE version IS NOT NULL ORDER BY version LIMIT ?";
+    private static final String DELETE_EVENT = "DELETE FROM user_change_outbox WHERE version = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Write the events, must be called in the transaction of the change
+     */
+    public void record(List<UserChangeEvent> events) {
+        if(events.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(INSERT_EVENT, events, events.size(), (ps, e) -> {
+            ps.setObject(1, e.getUserId());
+            ps.setString(2, e.getUsername());
+            ps.setString(3, e.getType().name());
+            ps.setLong(4, e.getTimestamp());
+        });
+    }
+
+    /**
+     * Assign the next versions to the events without one, then read the events
+     * not yet sent. The events of a failed send come first with their version
+     * 
+     * @param limit Max number of events
+     * @return The oldest events not yet sent, with their version
+     */
+    @Transactional
+    public List<UserChangeEvent> next(int limit) {
+        //The row lock of the counter is held until the commit, taken before
+        //reading the events so two relays can't version the same event
+        List<Long> counter = jdbcTemplate.queryForList(LOCK_LAST_VERSION, Long.class);
+        long last = 0;
+        if(counter.isEmpty()) {
+            jdbcTemplate.update(INSERT_VERSIONS, last);
+        } else {
+            last = counter.get(0);
+        }
+        List<Long> ids = jdbcTemplate.queryForList(SELECT_UNVERSIONED, Long.class, limit);
+        if(!ids.isEmpty()) {
+            jdbcTemplate.update(RESERVE_VERSIONS, last + ids.size());
+            long first = last + 1;
+            List<Object[]> versions = new ArrayList<Object[]>(ids.size());
+            for(int i = 0; i < ids.size(); i++) {
+                versions.add(new Object[] {first + i, ids.get(i)});
+            }
+            jdbcTemplate.batchUpdate(SET_VERSION, versions);
+        }
+        return jdbcTemplate.query(SELECT_EVENTS, (rs, i) -> new UserChangeEvent(rs.getLong(1), UserChangeEvent.Type.valueOf(rs.getString(2)), 
+            (Long) rs.getObject(3, Long.class), rs.getString(4), rs.getLong(5)), limit);
+    }
+
+    /**
+     * Delete the events sent
+     */
+    public void delete(List<UserChangeEvent> events) {
+        jdbcTemplate.batchUpdate(DELETE_EVENT, events, events.size(), (ps, e) -> ps.setLong(1, e.getVersion()));
+    }
+}
@@ -20,24 +20,84 @@
 
 package it.uniroma1.databaseservice.repositories;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 
 import it.uniroma1.databaseservice.entitis.User;
+import it.uniroma1.databaseservice.entitis.models.UserKey;
 import it.uniroma1.databaseservice.entitis.models.UserUI;
+import jakarta.persistence.QueryHint;
 
 public interface UserRepository extends JpaRepository<User, Long>{
 
-    @Query("SELECT NEW it.uniroma1.databaseservice.entitis.models.UserUI(u.id, u.username, u.email, u.name, u.surname, u.enabled) " +
+    static final String SEARCH_USERS = "SELECT NEW it.uniroma1.databaseservice.entitis.models.UserUI(u.id, u.username, u.email, u.name, u.surname, u.enabled) " +
             "FROM User u " +
-            "WHERE u.username LIKE %?1% " +
+            "WHERE (u.username LIKE %?1% " +
             "   OR u.email LIKE %?1% " +
             "   OR u.name LIKE %?1% " +
-            "   OR u.surname LIKE %?1%")
+            "   OR u.surname LIKE %?1%)";
+
+    @Query(SEARCH_USERS)
     public List<UserUI> searchUsers(String queryString);
 
+    /**
+     * A page of the users found, without counting all of them
+     * 
+     * @param queryString The string to search
+     * @param pageable The page to read
+     * @return The page of users
+     */
+    @Query(SEARCH_USERS + " ORDER BY u.id")
+    public Slice<UserUI> searchUsers(String queryString, Pageable pageable);
+
+    /**
+     * Keyset pagination: the next users found after the last user already read.
+     * Unlike the offset of a Pageable, the cost doesn't grow with the number of pages.
+     * 
+     * @param queryString The string to search
+     * @param afterId The id of the last user read (0 for the first page)
+     * @param limit The max number of users
+     * @return The users ordered by id
+     */
+    @Query(SEARCH_USERS + " AND u.id > ?2 ORDER BY u.id")
+    public List<UserUI> searchUsersAfter(String queryString, long afterId, Limit limit);
+
+    /**
+     * All the users found, read from the DB while the stream is consumed
+     * (500 rows for each round trip). Must be called in a transaction and the stream must be closed
+     * 
+     * @param queryString The string to search
+     * @return The stream of users
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query(SEARCH_USERS + " ORDER BY u.id")
+    public Stream<UserUI> streamUsers(String queryString);
+
+    /**
+     * Keyset pagination of the unique columns of all the users
+     * 
+     * @param afterId The id of the last user read (0 for the first page)
+     * @param limit The max number of users
+     * @return The users ordered by id
+     */
+    @Query("SELECT NEW it.uniroma1.databaseservice.entitis.models.UserKey(u.id, u.username, u.email) FROM User u WHERE u.id > ?1 ORDER BY u.id")
+    public List<UserKey> findKeysAfter(long afterId, Limit limit);
+
+    /**
+     * The users with one of the usernames or one of the emails
+     */
+    @Query("SELECT NEW it.uniroma1.databaseservice.entitis.models.UserKey(u.id, u.username, u.email) FROM User u WHERE u.username IN ?1 OR u.email IN ?2")
+    public List<UserKey> findKeys(Collection<String> usernames, Collection<String> emails);
+
     public User findByUsername(String username);
 
     public User findById(long id);
@@ -0,0 +1,412 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package it.uniroma1.databaseservice.repositories;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import it.uniroma1.databaseservice.entitis.models.UserUI;
+
+/**
+ * In memory trigram inverted index on username, email, name and surname.
+ * A search reads the posting lists of the trigrams of the query, intersects
+ * them and checks the few candidates left, instead of scanning the whole
+ * table with LIKE. The match is case insensitive.
+ * 
+ * The index is loaded from the DB at startup and kept up to date by the
+ * writes of UserBatchRepository and of the JPA entities of this instance, and
+ * by the change events of the users, that carry the writes of all the instances.
+ */
+@Component
+public class UserSearchIndex {
+
+    public static final String MODE = "ngram";
+    private static final int GRAM_LENGTH = 3;
+    private static final char FIELD_SEPARATOR = '\u0000';
+    private static final String SELECT_USERS = "SELECT id, username, email, name, surname, enabled FROM application_users";
+
+    Logger logger = LoggerFactory.getLogger(UserSearchIndex.class);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${search.mode:like}")
+    private String mode;
+
+    private record Document(UserUI user, String text) {}
+
+    /**
+     * Document numbers of a trigram, always sorted because the documents
+     * are only appended
+     */
+    private static class Postings {
+        private int[] docs = new int[4];
+        private int size;
+
+        private void add(int doc) {
+            if(size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Postings> postings = new HashMap<Long, Postings>();
+    //Document number -> document, null if the user has been updated or removed
+    private final List<Document> documents = new ArrayList<Document>();
+    private final Map<Long, Integer> documentByUser = new HashMap<Long, Integer>();
+    private int removed;
+
+    public boolean isEnabled() {
+        return MODE.equalsIgnoreCase(mode);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if(isEnabled()) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Load again all the users from the DB
+     */
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            clear();
+            jdbcTemplate.query(SELECT_USERS, rs -> {
+                add(new UserUI(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5), rs.getBoolean(6)));
+            });
+            logger.info("Search index loaded: " + documents.size() + " users, " + postings.size() + " trigrams");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Insert or replace a user in the index
+     * 
+     * @param user The user
+     */
+    public void put(UserUI user) {
+        if(!isEnabled() || user == null || user.getId() == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            delete(user.getId());
+            add(user);
+            if(removed > documents.size() / 2) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Read again the users from the DB, the ones not found are removed.
+     * The users are read under the write lock, as in rebuild: a put done
+     * after the read, of a write committed later, is never overwritten by it
+     * 
+     * @param ids The ids of the changed users
+     */
+    public void refresh(Collection<Long> ids) {
+        if(!isEnabled() || ids.isEmpty()) {
+            return;
+        }
+        Map<Long, UserUI> found = new HashMap<Long, UserUI>();
+        NamedParameterJdbcTemplate named = new NamedParameterJdbcTemplate(jdbcTemplate);
+        lock.writeLock().lock();
+        try {
+            named.query(SELECT_USERS + " WHERE id IN (:ids)", Map.of("ids", ids), rs -> {
+                found.put(rs.getLong(1), new UserUI(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5), rs.getBoolean(6)));
+            });
+            for(Long id : ids) {
+                delete(id);
+                UserUI user = found.get(id);
+                if(user != null) {
+                    add(user);
+                }
+            }
+            if(removed > documents.size() / 2) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a user from the index
+     * 
+     * @param id The id of the user
+     */
+    public void remove(Long id) {
+        if(!isEnabled() || id == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            delete(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Find the users with the query string in username, email, name or surname
+     * 
+     * @param queryString The string to search
+     * @return The users found, null if the index can't answer the query
+     *         (index disabled or query shorter than a trigram)
+     */
+    public List<UserUI> search(String queryString) {
+        if(!canSearch(queryString)) {
+            return null;
+        }
+        List<UserUI> result = new ArrayList<UserUI>();
+        scan(queryString, result::add);
+        return result;
+    }
+
+    /**
+     * Keyset pagination: the next users found after the last user already read
+     * 
+     * @param queryString The string to search
+     * @param afterId The id of the last user read (0 for the first page)
+     * @param limit The max number of users
+     * @return The users ordered by id, null if the index can't answer the query
+     */
+    public List<UserUI> search(String queryString, long afterId, int limit) {
+        if(!canSearch(queryString) || limit <= 0) {
+            return null;
+        }
+        //Keep only the limit users with the lowest ids: the memory doesn't depend on the users found
+        PriorityQueue<UserUI> lowest = new PriorityQueue<UserUI>(Comparator.comparing(UserUI::getId).reversed());
+        scan(queryString, u -> {
+            if(u.getId() > afterId) {
+                if(lowest.size() < limit) {
+                    lowest.add(u);
+                } else if(u.getId() < lowest.peek().getId()) {
+                    lowest.poll();
+                    lowest.add(u);
+                }
+            }
+        });
+        List<UserUI> result = new ArrayList<UserUI>(lowest);
+        result.sort(Comparator.comparing(UserUI::getId));
+        return result;
+    }
+
+    /**
+     * All the users found, ordered by id. The posting lists are scanned only
+     * once: the ids found are kept (8 bytes for each user) and the users are
+     * read one page at a time while the stream is consumed, each user is
+     * checked again because it may have been changed in the meantime
+     * 
+     * @param queryString The string to search
+     * @param pageSize The number of users read under the same lock
+     * @return The users ordered by id, null if the index can't answer the query
+     */
+    public Stream<UserUI> stream(String queryString, int pageSize) {
+        if(!canSearch(queryString) || pageSize <= 0) {
+            return null;
+        }
+        String query = queryString.toLowerCase(Locale.ROOT);
+        LongStream.Builder found = LongStream.builder();
+        scan(queryString, u -> found.add(u.getId()));
+        long[] ids = found.build().sorted().toArray();
+        return IntStream.iterate(0, from -> from < ids.length, from -> from + pageSize)
+                .mapToObj(from -> page(ids, from, Math.min(ids.length, from + pageSize), query))
+                .flatMap(List::stream);
+    }
+
+    private List<UserUI> page(long[] ids, int from, int to, String query) {
+        List<UserUI> page = new ArrayList<UserUI>(to - from);
+        lock.readLock().lock();
+        try {
+            for(int i = from; i < to; i++) {
+                Integer doc = documentByUser.get(ids[i]);
+                Document d = doc != null ? documents.get(doc) : null;
+                if(d != null && d.text().contains(query)) {
+                    page.add(d.user());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return page;
+    }
+
+    /**
+     * Check if the index is able to answer the query
+     * 
+     * @param queryString The string to search
+     * @return false if the index is disabled or the query is shorter than a trigram
+     */
+    public boolean canSearch(String queryString) {
+        return isEnabled() && queryString != null && queryString.length() >= GRAM_LENGTH;
+    }
+
+    private void scan(String queryString, Consumer<UserUI> found) {
+        String query = queryString.toLowerCase(Locale.ROOT);
+        lock.readLock().lock();
+        try {
+            List<Postings> lists = new ArrayList<Postings>();
+            for(long gram : grams(query)) {
+                Postings p = postings.get(gram);
+                if(p == null) {
+                    return;
+                }
+                lists.add(p);
+            }
+            //Start from the rarest trigram, the candidates can only decrease
+            lists.sort(Comparator.comparingInt(p -> p.size));
+            int[] candidates = Arrays.copyOf(lists.get(0).docs, lists.get(0).size);
+            int size = candidates.length;
+            for(int i = 1; i < lists.size() && size > 0; i++) {
+                size = intersect(candidates, size, lists.get(i));
+            }
+
+            for(int i = 0; i < size; i++) {
+                Document d = documents.get(candidates[i]);
+                //The trigrams can be in different positions, check the whole string
+                if(d != null && d.text().contains(query)) {
+                    found.accept(d.user());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void add(UserUI user) {
+        String text = text(user);
+        int doc = documents.size();
+        documents.add(new Document(user, text));
+        documentByUser.put(user.getId(), doc);
+        for(long gram : grams(text)) {
+            postings.computeIfAbsent(gram, g -> new Postings()).add(doc);
+        }
+    }
+
+    private void delete(Long id) {
+        Integer doc = documentByUser.remove(id);
+        if(doc != null) {
+            documents.set(doc, null);
+            removed++;
+        }
+    }
+
+    private void clear() {
+        postings.clear();
+        documents.clear();
+        documentByUser.clear();
+        removed = 0;
+    }
+
+    /**
+     * Rebuild the posting lists without the documents removed
+     */
+    private void compact() {
+        List<Document> alive = new ArrayList<Document>(documents.size() - removed);
+        for(Document d : documents) {
+            if(d != null) {
+                alive.add(d);
+            }
+        }
+        clear();
+        for(Document d : alive) {
+            add(d.user());
+        }
+    }
+
+    /**
+     * Keep in candidates only the documents in the posting list
+     * 
+     * @return The number of candidates left
+     */
+    private static int intersect(int[] candidates, int size, Postings p) {
+        int found = 0;
+        int j = 0;
+        for(int i = 0; i < size && j < p.size; i++) {
+            while(j < p.size && p.docs[j] < candidates[i]) {
+                j++;
+            }
+            if(j < p.size && p.docs[j] == candidates[i]) {
+                candidates[found++] = candidates[i];
+            }
+        }
+        return found;
+    }
+
+    private static String text(UserUI user) {
+        StringBuilder sb = new StringBuilder();
+        for(String field : new String[] {user.getUsername(), user.getEmail(), user.getName(), user.getSurname()}) {
+            if(field != null) {
+                sb.append(field.toLowerCase(Locale.ROOT));
+            }
+            sb.append(FIELD_SEPARATOR);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The distinct trigrams of the text, each one packed in a long (3 chars of 16 bits)
+     */
+    private static Set<Long> grams(String text) {
+        Set<Long> grams = new LinkedHashSet<Long>();
+        for(int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            char a = text.charAt(i), b = text.charAt(i + 1), c = text.charAt(i + 2);
+            if(a != FIELD_SEPARATOR && b != FIELD_SEPARATOR && c != FIELD_SEPARATOR) {
+                grams.add(((long) a << 32) | ((long) b << 16) | c);
+            }
+        }
+        return grams;
+    }
+}
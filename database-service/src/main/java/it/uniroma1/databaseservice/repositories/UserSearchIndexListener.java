@@ -0,0 +1,73 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package it.uniroma1.databaseservice.repositories;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import it.uniroma1.databaseservice.entitis.User;
+import it.uniroma1.databaseservice.entitis.models.UserUI;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+
+/**
+ * Update the search index with the users written through JPA.
+ * The index is changed only after the commit, a rollback doesn't leave
+ * users that are not in the DB.
+ */
+@Component
+public class UserSearchIndexListener {
+
+    //Lazy: the listener is created with the EntityManagerFactory, before the JdbcTemplate of the index
+    @Autowired
+    @Lazy
+    private UserSearchIndex userSearchIndex;
+
+    @PostPersist
+    @PostUpdate
+    public void afterSave(User u) {
+        UserUI user = new UserUI(u.getId(), u.getUsername(), u.getEmail(), u.getName(), u.getSurname(), u.getEnabled() != null && u.getEnabled());
+        afterCommit(() -> userSearchIndex.put(user));
+    }
+
+    @PostRemove
+    public void afterRemove(User u) {
+        Long id = u.getId();
+        afterCommit(() -> userSearchIndex.remove(id));
+    }
+
+    private void afterCommit(Runnable action) {
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package it.uniroma1.databaseservice.repositories;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Repository;
+
+import it.uniroma1.databaseservice.entitis.models.UserUI;
+
+/**
+ * Search the users with the mode selected by search.mode:
+ * like (default) the LIKE query of UserRepository, ngram the in memory
+ * trigram index. The queries that the index can't answer use the LIKE query.
+ */
+@Repository
+public class UserSearchRepository {
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserSearchIndex userSearchIndex;
+
+    /**
+     * Find the users with the query string in username, email, name or surname
+     * 
+     * @param queryString The string to search
+     * @return The users found
+     */
+    public List<UserUI> searchUsers(String queryString) {
+        List<UserUI> result = userSearchIndex.search(queryString);
+        if(result == null) {
+            result = userRepository.searchUsers(queryString);
+        }
+        return result;
+    }
+
+    /**
+     * Keyset pagination: the next users found after the last user already read
+     * 
+     * @param queryString The string to search
+     * @param afterId The id of the last user read (0 for the first page)
+     * @param limit The max number of users
+     * @return The users ordered by id
+     */
+    public List<UserUI> searchUsers(String queryString, long afterId, int limit) {
+        List<UserUI> result = userSearchIndex.search(queryString, afterId, limit);
+        if(result == null) {
+            result = userRepository.searchUsersAfter(queryString, afterId, Limit.of(limit));
+        }
+        return result;
+    }
+
+    /**
+     * All the users found, read while the stream is consumed.
+     * With the index the matches are found with a single scan and the users
+     * are read one page at a time, otherwise with a single query and a JDBC
+     * cursor: the call must be done in a transaction and the stream must be closed
+     * 
+     * @param queryString The string to search
+     * @param pageSize The number of users of each page
+     * @return The users ordered by id
+     */
+    public Stream<UserUI> streamUsers(String queryString, int pageSize) {
+        Stream<UserUI> users = userSearchIndex.stream(queryString, pageSize);
+        if(users == null) {
+            users = userRepository.streamUsers(queryString);
+        }
+        return users;
+    }
+}
@@ -1011,3 +1011,6 @@ INSERT INTO user_role(user_id, role_id) VALUES (51,2);
 INSERT INTO user_role(user_id, role_id) VALUES (54,1);
 INSERT INTO user_role(user_id, role_id) VALUES (59,1);
 
+-- The rows above are inserted with explicit ids, move the user sequence and the role identity after them
+ALTER SEQUENCE application_users_seq RESTART WITH 1001;
+ALTER TABLE role ALTER COLUMN id RESTART WITH 3;
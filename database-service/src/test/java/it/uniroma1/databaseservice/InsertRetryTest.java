@@ -0,0 +1,190 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.databaseservice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.Channel;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.uniroma1.databaseservice.entitis.models.ACK;
+import it.uniroma1.databaseservice.entitis.models.UserMessage;
+import it.uniroma1.databaseservice.messaging.InsertRetry;
+import it.uniroma1.databaseservice.messaging.MessageCodec;
+import it.uniroma1.databaseservice.messaging.RabbitMqConfig;
+import it.uniroma1.databaseservice.messaging.UserInsertConsumer;
+import it.uniroma1.databaseservice.repositories.UserBatchRepository;
+
+public class InsertRetryTest {
+
+    /**
+     * Template that records the messages instead of sending them
+     */
+    private static class RecordingTemplate extends RabbitTemplate {
+
+        private final List<String> exchanges = new ArrayList<String>();
+        private final List<Message> messages = new ArrayList<Message>();
+
+        @Override
+        public void send(String exchange, String routingKey, Message message) {
+            exchanges.add(exchange);
+            messages.add(message);
+        }
+    }
+
+    private Message request() {
+        MessageProperties properties = new MessageProperties();
+        properties.setReceivedRoutingKey("user_partition_3");
+        properties.setReplyTo("reply");
+        properties.setCorrelationId("42");
+        return new Message(new byte[] {1}, properties);
+    }
+
+    /**
+     * A failed request goes through each retry level with its partition and
+     * its reply queue, then it is parked
+     */
+    @Test
+    public void testRetryThenPark() {
+        RecordingTemplate template = new RecordingTemplate();
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        InsertRetry insertRetry = new InsertRetry(template, meterRegistry, 3);
+
+        Message message = request();
+        for(int level = 0; level < 3; level++) {
+            assertTrue(insertRetry.retry(message, "DB down"));
+            Message retried = template.messages.get(level);
+            assertEquals(RabbitMqConfig.RETRY_EXCHANGE, template.exchanges.get(level));
+            assertEquals(String.valueOf(level), retried.getMessageProperties().getHeader(InsertRetry.LEVEL_HEADER));
+            assertEquals(level + 1, InsertRetry.retries(retried));
+            assertEquals("42", retried.getMessageProperties().getCorrelationId());
+            assertEquals("reply", retried.getMessageProperties().getReplyTo());
+            //The broker delivers the message again after the TTL
+            message = new Message(retried.getBody(), retried.getMessageProperties());
+        }
+        assertFalse(insertRetry.retry(message, "DB down"));
+        assertEquals(RabbitMqConfig.DEAD_LETTER_EXCHANGE, template.exchanges.get(3));
+        assertEquals("DB down", template.messages.get(3).getMessageProperties().getHeader(InsertRetry.REASON_HEADER));
+
+        assertEquals(1, meterRegistry.get("insert.retried").tag("level", "2").counter().count());
+        assertEquals(1, meterRegistry.get("insert.parked").counter().count());
+    }
+
+    @Test
+    public void testExponentialDelay() {
+        assertEquals(1000, InsertRetry.delay(1000, 0));
+        assertEquals(2000, InsertRetry.delay(1000, 1));
+        assertEquals(4000, InsertRetry.delay(1000, 2));
+    }
+
+    @Test
+    public void testWaitedRequests() {
+        Message message = request();
+        assertFalse(InsertRetry.isWaited(message));
+        message.getMessageProperties().setReplyTo("amq.rabbitmq.reply-to.g1h2AA5yZXBseQ");
+        assertTrue(InsertRetry.isWaited(message));
+    }
+
+    private Message insertRequest(ObjectMapper objectMapper, String username, String replyTo, long tag) throws IOException {
+        UserMessage user = new UserMessage();
+        user.setUsername(username);
+        MessageProperties properties = new MessageProperties();
+        properties.setReceivedRoutingKey("user_partition_3");
+        properties.setReplyTo(replyTo);
+        properties.setDeliveryTag(tag);
+        return new Message(objectMapper.writeValueAsBytes(user), properties);
+    }
+
+    /**
+     * When the batch fails each request is inserted alone: the failed request
+     * of a waiting sender gets a failed ACK at once, the confirmed one is
+     * retried, and every message is acknowledged on its own
+     */
+    @Test
+    public void testFailedBatchHandledPerMessage() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        RecordingTemplate template = new RecordingTemplate();
+        InsertRetry insertRetry = new InsertRetry(template, new SimpleMeterRegistry(), 3);
+        UserBatchRepository repository = mock(UserBatchRepository.class);
+        Channel channel = mock(Channel.class);
+        UserInsertConsumer consumer = new UserInsertConsumer();
+        ReflectionTestUtils.setField(consumer, "userBatchRepository", repository);
+        ReflectionTestUtils.setField(consumer, "rabbitTemplate", template);
+        ReflectionTestUtils.setField(consumer, "messageCodec", new MessageCodec(objectMapper));
+        ReflectionTestUtils.setField(consumer, "insertRetry", insertRetry);
+
+        UserMessage saved = new UserMessage();
+        saved.setId(7L);
+        saved.setUsername("good");
+        saved.setPassword("$2a$04$hash");
+        ACK<UserMessage> inserted = new ACK<UserMessage>();
+        inserted.setSuccess(true);
+        inserted.setPayload(saved);
+        when(repository.insertUsers(argThat(users -> users != null && users.size() > 1))).thenThrow(new IllegalStateException("batch failed"));
+        when(repository.insertUsers(argThat(users -> users != null && users.size() == 1 && "good".equals(users.get(0).getUsername())))).thenReturn(List.of(inserted));
+        when(repository.insertUsers(argThat(users -> users != null && users.size() == 1 && !"good".equals(users.get(0).getUsername())))).thenThrow(new IllegalStateException("row failed"));
+
+        consumer.onMessageBatch(List.of(
+            insertRequest(objectMapper, "good", "amq.rabbitmq.reply-to.a", 1),
+            insertRequest(objectMapper, "waited", "amq.rabbitmq.reply-to.b", 2),
+            insertRequest(objectMapper, "confirmed", "insert_results", 3)), channel);
+
+        verify(channel).basicAck(1, false);
+        verify(channel).basicAck(2, false);
+        verify(channel).basicAck(3, false);
+        verify(channel, never()).basicReject(anyLong(), anyBoolean());
+        verify(repository, times(4)).insertUsers(argThat(users -> users != null));
+
+        //Two replies and one retry
+        assertEquals(3, template.messages.size());
+        assertEquals("", template.exchanges.get(0));
+        ACK<UserMessage> reply = objectMapper.readValue(template.messages.get(0).getBody(), new TypeReference<ACK<UserMessage>>() {});
+        assertTrue(reply.isSuccess());
+        //Only the id of the saved user is sent back
+        assertEquals(7L, reply.getPayload().getId());
+        assertEquals(null, reply.getPayload().getPassword());
+        assertEquals(null, reply.getPayload().getUsername());
+        assertFalse(objectMapper.readValue(template.messages.get(1).getBody(), ACK.class).isSuccess());
+        assertEquals(RabbitMqConfig.RETRY_EXCHANGE, template.exchanges.get(2));
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.databaseservice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import it.uniroma1.databaseservice.entitis.models.ACK;
+import it.uniroma1.databaseservice.entitis.models.UserMessage;
+import it.uniroma1.databaseservice.messaging.MessageCodec;
+
+public class MessageCodecTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final MessageCodec messageCodec = new MessageCodec(objectMapper);
+
+    private UserMessage user() {
+        UserMessage user = new UserMessage();
+        user.setUsername("codec_user");
+        user.setEmail("codec_user@email.it");
+        user.setPassword("password");
+        user.setName("Name");
+        user.setSurname("Surname");
+        user.setEnabled(true);
+        return user;
+    }
+
+    private Message request(byte[] body, String contentType) {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(contentType);
+        properties.setCorrelationId("42");
+        return new Message(body, properties);
+    }
+
+    /**
+     * A Smile request is read and gets a Smile reply
+     */
+    @Test
+    public void testSmileRequest() throws IOException {
+        Message request = request(new ObjectMapper(new SmileFactory()).writeValueAsBytes(user()), MessageCodec.CONTENT_TYPE_SMILE);
+        assertEquals("codec_user", messageCodec.read(request, UserMessage.class).getUsername());
+
+        ACK<UserMessage> ack = new ACK<UserMessage>();
+        ack.setSuccess(true);
+        ack.setMessage("Ok");
+        Message reply = messageCodec.reply(request.getMessageProperties(), ack);
+        assertEquals(MessageCodec.CONTENT_TYPE_SMILE, reply.getMessageProperties().getContentType());
+        assertEquals("42", reply.getMessageProperties().getCorrelationId());
+        assertTrue(new ObjectMapper(new SmileFactory()).readValue(reply.getBody(), ACK.class).isSuccess());
+    }
+
+    /**
+     * JSON requests, also without content type, get a JSON reply
+     */
+    @Test
+    public void testJsonRequest() throws IOException {
+        byte[] body = objectMapper.writeValueAsBytes(user());
+        assertEquals("codec_user", messageCodec.read(request(body, null), UserMessage.class).getUsername());
+        assertEquals("codec_user", messageCodec.read(new Message(body, new MessageProperties()), UserMessage.class).getUsername());
+        Message request = request(body, "application/json; charset=UTF-8");
+        assertEquals("codec_user", messageCodec.read(request, UserMessage.class).getUsername());
+        Message reply = messageCodec.reply(request.getMessageProperties(), new ACK<UserMessage>());
+        assertEquals(MessageProperties.CONTENT_TYPE_JSON, reply.getMessageProperties().getContentType());
+        objectMapper.readValue(reply.getBody(), ACK.class);
+    }
+
+    @Test
+    public void testUnsupportedContentType() {
+        Message request = request(new byte[] {1, 2, 3}, "application/x-protobuf");
+        assertThrows(IOException.class, () -> messageCodec.read(request, UserMessage.class));
+    }
+}
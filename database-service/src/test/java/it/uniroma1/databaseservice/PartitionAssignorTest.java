@@ -0,0 +1,87 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.databaseservice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import it.uniroma1.databaseservice.messaging.PartitionAssignor;
+
+@SpringBootTest
+@ActiveProfiles("dev")
+public class PartitionAssignorTest {
+
+    private static final int PARTITIONS = 8;
+
+    @Autowired
+    private PartitionAssignor partitionAssignor;
+
+    /**
+     * Alone, the instance owns all the partitions
+     */
+    @Test
+    public void testSingleInstanceOwnsAllPartitions() {
+        assertEquals(PARTITIONS, partitionAssignor.getAssignedQueues().size());
+    }
+
+    /**
+     * Each partition has exactly one owner
+     */
+    @Test
+    public void testPartitionsAreShared() {
+        List<String> members = List.of("instance-a", "instance-b", "instance-c");
+        Set<String> all = new HashSet<String>();
+        int total = 0;
+        for(String member : members) {
+            List<String> queues = partitionAssignor.assignment(members, member);
+            total += queues.size();
+            all.addAll(queues);
+        }
+        assertEquals(PARTITIONS, total);
+        assertEquals(PARTITIONS, all.size());
+    }
+
+    /**
+     * A new instance takes partitions only from the others, nothing else moves
+     */
+    @Test
+    public void testJoinMovesOnlyToTheNewInstance() {
+        List<String> members = new ArrayList<String>(List.of("instance-a", "instance-b", "instance-c"));
+        List<List<String>> before = new ArrayList<List<String>>();
+        for(String member : members) {
+            before.add(partitionAssignor.assignment(members, member));
+        }
+        List<String> joined = new ArrayList<String>(members);
+        joined.add("instance-d");
+        for(int i = 0; i < members.size(); i++) {
+            assertTrue(before.get(i).containsAll(partitionAssignor.assignment(joined, members.get(i))));
+        }
+    }
+}
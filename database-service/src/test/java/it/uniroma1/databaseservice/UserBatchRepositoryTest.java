@@ -0,0 +1,148 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package it.uniroma1.databaseservice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import it.uniroma1.databaseservice.entitis.User;
+import it.uniroma1.databaseservice.entitis.models.ACK;
+import it.uniroma1.databaseservice.entitis.models.RoleMessage;
+import it.uniroma1.databaseservice.entitis.models.UserMessage;
+import it.uniroma1.databaseservice.repositories.UserBatchRepository;
+import it.uniroma1.databaseservice.repositories.UserRepository;
+
+@SpringBootTest
+@ActiveProfiles("dev")
+public class UserBatchRepositoryTest {
+
+    @Autowired
+    private UserBatchRepository userBatchRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private UserMessage createUser(String username, String role) {
+        UserMessage u = new UserMessage();
+        u.setUsername(username);
+        u.setEmail(username + "@test.it");
+        u.setPassword("$2a$04$lQHVbMU/1AIy0eDWDsvI6.XCPJ1ZAu2KXZkZCZ7J92Z1PgRu2Cgdi");
+        u.setName("Name");
+        u.setSurname("Surname");
+        u.setEnabled(true);
+        Set<RoleMessage> roles = new HashSet<RoleMessage>();
+        if(role != null) {
+            roles.add(new RoleMessage(null, role));
+        }
+        u.setAuthorities(roles);
+        return u;
+    }
+
+    @Test
+    public void testBatchInsert() {
+        List<UserMessage> users = new ArrayList<UserMessage>();
+        for(int i = 0; i < 10; i++) {
+            users.add(createUser("batch_user_" + i, "ROLE_SYSTEM_ADMINISTRATOR"));
+        }
+        List<ACK<UserMessage>> acks = userBatchRepository.insertUsers(users);
+        assertEquals(users.size(), acks.size());
+        for(ACK<UserMessage> ack : acks) {
+            assertTrue(ack.isSuccess());
+            assertNotNull(ack.getPayload().getId());
+            Integer roles = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user_role WHERE user_id = ?", Integer.class, ack.getPayload().getId());
+            assertEquals(1, roles);
+        }
+    }
+
+    @Test
+    public void testBatchWithDuplicatedUser() {
+        List<UserMessage> users = new ArrayList<UserMessage>();
+        users.add(createUser("duplicated_user_a", null));
+        users.add(createUser("superadmin", null)); //Already in data.sql
+        users.add(createUser("duplicated_user_b", "ROLE_NOT_EXISTING"));
+        users.add(createUser("duplicated_user_c", "ROLE_SUPERADMIN"));
+        List<ACK<UserMessage>> acks = userBatchRepository.insertUsers(users);
+        assertEquals(users.size(), acks.size());
+        assertTrue(acks.get(0).isSuccess());
+        assertFalse(acks.get(1).isSuccess());
+        assertFalse(acks.get(2).isSuccess());
+        assertTrue(acks.get(3).isSuccess());
+        Integer inserted = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM application_users WHERE username LIKE 'duplicated_user_%'", Integer.class);
+        assertEquals(2, inserted);
+    }
+
+    /**
+     * The batches and JPA take the ids from the same sequence, after the
+     * users of data.sql
+     */
+    @Test
+    public void testIdsFromSequence() {
+        List<UserMessage> users = new ArrayList<UserMessage>();
+        for(int i = 0; i < 120; i++) {
+            users.add(createUser("sequence_user_" + i, "ROLE_SUPERADMIN"));
+        }
+        Set<Long> ids = new HashSet<Long>();
+        for(ACK<UserMessage> ack : userBatchRepository.insertUsers(users)) {
+            assertTrue(ack.isSuccess());
+            assertTrue(ack.getPayload().getId() > 1000);
+            ids.add(ack.getPayload().getId());
+        }
+        assertEquals(users.size(), ids.size());
+
+        User user = new User();
+        user.setUsername("sequence_user_jpa");
+        user.setEmail("sequence_user_jpa@test.it");
+        user.setPassword("password");
+        user.setEnabled(true);
+        user = userRepository.save(user);
+        assertTrue(user.getId() > 1000);
+        assertFalse(ids.contains(user.getId()));
+        assertTrue(userBatchRepository.insertUsers(List.of(createUser("sequence_user_last", null))).get(0).isSuccess());
+    }
+
+    /**
+     * A role created after the catalog is loaded is found without restarting
+     */
+    @Test
+    public void testNewRoleIsFound() {
+        assertTrue(userBatchRepository.insertUsers(List.of(createUser("role_user_a", "ROLE_SUPERADMIN"))).get(0).isSuccess());
+        assertFalse(userBatchRepository.insertUsers(List.of(createUser("role_user_b", "ROLE_AUDITOR"))).get(0).isSuccess());
+        jdbcTemplate.update("INSERT INTO role (authority) VALUES (?)", "ROLE_AUDITOR");
+        assertTrue(userBatchRepository.insertUsers(List.of(createUser("role_user_b", "ROLE_AUDITOR"))).get(0).isSuccess());
+    }
+
+}
@@ -0,0 +1,195 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package it.uniroma1.databaseservice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.core.RabbitOperations;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import it.uniroma1.databaseservice.entitis.Role;
+import it.uniroma1.databaseservice.entitis.User;
+import it.uniroma1.databaseservice.entitis.models.UserChangeEvent;
+import it.uniroma1.databaseservice.entitis.models.UserMessage;
+import it.uniroma1.databaseservice.messaging.UserChangeRelay;
+import it.uniroma1.databaseservice.repositories.UserBatchRepository;
+import it.uniroma1.databaseservice.repositories.UserChangeOutbox;
+import it.uniroma1.databaseservice.repositories.UserRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+//The outbox is drained only by the tests
+@SpringBootTest(properties = "outbox.drain.ms=3600000")
+@ActiveProfiles("dev")
+public class UserChangeOutboxTest {
+
+    @Autowired
+    private UserChangeOutbox userChangeOutbox;
+
+    @Autowired
+    private UserChangeRelay userChangeRelay;
+
+    @Autowired
+    private UserBatchRepository userBatchRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @MockBean
+    private RabbitTemplate rabbitTemplate;
+
+    private UserMessage createUser(String username) {
+        UserMessage u = new UserMessage();
+        u.setUsername(username);
+        u.setEmail(username + "@test.it");
+        u.setPassword("$2a$04$lQHVbMU/1AIy0eDWDsvI6.XCPJ1ZAu2KXZkZCZ7J92Z1PgRu2Cgdi");
+        u.setName("Name");
+        u.setSurname("Surname");
+        u.setEnabled(true);
+        u.setAuthorities(new HashSet<>());
+        return u;
+    }
+
+    private List<UserChangeEvent> events(String username) {
+        List<UserChangeEvent> events = new ArrayList<UserChangeEvent>();
+        for(UserChangeEvent e : userChangeOutbox.next(100000)) {
+            if(username.equals(e.getUsername())) {
+                events.add(e);
+            }
+        }
+        return events;
+    }
+
+    @Test
+    public void testBatchInsertEvents() {
+        userBatchRepository.insertUsers(List.of(createUser("outbox_batch_a"), createUser("outbox_batch_b")));
+        List<UserChangeEvent> a = events("outbox_batch_a");
+        List<UserChangeEvent> b = events("outbox_batch_b");
+        assertEquals(1, a.size());
+        assertEquals(UserChangeEvent.Type.CREATED, a.get(0).getType());
+        assertEquals(1, b.size());
+        assertTrue(b.get(0).getVersion() > a.get(0).getVersion());
+    }
+
+    /**
+     * The changes done with JPA are classified, the roles of a new user are
+     * part of its CREATED event
+     */
+    @Test
+    public void testJpaEvents() {
+        transactionTemplate.executeWithoutResult(status -> {
+            User u = new User();
+            u.setUsername("outbox_jpa");
+            u.setEmail("outbox_jpa@test.it");
+            u.setPassword("password");
+            u.setEnabled(true);
+            u.setAuthorities(new HashSet<Role>(Set.of(entityManager.find(Role.class, 1L))));
+            entityManager.persist(u);
+        });
+        transactionTemplate.executeWithoutResult(status -> userRepository.findByUsername("outbox_jpa").setEnabled(false));
+        transactionTemplate.executeWithoutResult(status -> userRepository.findByUsername("outbox_jpa").getAuthorities().add(entityManager.find(Role.class, 2L)));
+        transactionTemplate.executeWithoutResult(status -> userRepository.findByUsername("outbox_jpa").setName("Name"));
+
+        List<UserChangeEvent.Type> types = new ArrayList<UserChangeEvent.Type>();
+        for(UserChangeEvent e : events("outbox_jpa")) {
+            types.add(e.getType());
+        }
+        assertEquals(List.of(UserChangeEvent.Type.CREATED, UserChangeEvent.Type.DISABLED, UserChangeEvent.Type.ROLES_CHANGED, UserChangeEvent.Type.UPDATED), types);
+    }
+
+    /**
+     * An event with a lower id committed after the others is sent after them
+     */
+    @Test
+    public void testVersionInSendOrder() {
+        userBatchRepository.insertUsers(List.of(createUser("outbox_early")));
+        List<UserChangeEvent> early = events("outbox_early");
+        assertEquals(1, early.size());
+        jdbcTemplate.update("INSERT INTO user_change_outbox (id, username, type, created_at) VALUES (-1, 'outbox_late', 'UPDATED', 0)");
+
+        List<UserChangeEvent> late = events("outbox_late");
+        assertEquals(1, late.size());
+        assertTrue(late.get(0).getVersion() > early.get(0).getVersion());
+        //The version doesn't change until the event is sent
+        assertEquals(early.get(0).getVersion(), events("outbox_early").get(0).getVersion());
+    }
+
+    /**
+     * The events are sent in version order and deleted after the confirm
+     */
+    @Test
+    public void testRelay() throws Exception {
+        when(rabbitTemplate.invoke(any())).thenAnswer(invocation -> 
+            invocation.<RabbitOperations.OperationsCallback<?>>getArgument(0).doInRabbit(rabbitTemplate));
+        userBatchRepository.insertUsers(List.of(createUser("outbox_relay")));
+        assertFalse(events("outbox_relay").isEmpty());
+
+        assertTrue(userChangeRelay.drain() > 0);
+        assertTrue(userChangeOutbox.next(1).isEmpty());
+        ArgumentCaptor<Message> messages = ArgumentCaptor.forClass(Message.class);
+        verify(rabbitTemplate, atLeastOnce()).send(eq("user_changes"), eq(""), messages.capture());
+        long version = 0;
+        boolean sent = false;
+        for(Message message : messages.getAllValues()) {
+            for(UserChangeEvent e : objectMapper.readValue(message.getBody(), UserChangeEvent[].class)) {
+                assertTrue(e.getVersion() > version);
+                version = e.getVersion();
+                sent |= "outbox_relay".equals(e.getUsername());
+            }
+        }
+        assertTrue(sent);
+    }
+}
@@ -20,17 +20,28 @@
 
 package it.uniroma1.databaseservice;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
 
+import it.uniroma1.databaseservice.entitis.models.UserKey;
+import it.uniroma1.databaseservice.entitis.models.UserKeys;
 import it.uniroma1.databaseservice.entitis.models.UserUI;
+import it.uniroma1.databaseservice.messaging.UserKeysListener;
 import it.uniroma1.databaseservice.repositories.UserRepository;
 
 @SpringBootTest
@@ -62,4 +73,60 @@ public class UserRepositoryTest {
         }
     }
 
+    @Test
+    public void testQuerySearchUserPages() {
+        List<UserUI> all = userRepository.searchUsers("es");
+
+        //Offset pagination
+        Slice<UserUI> slice = userRepository.searchUsers("es", PageRequest.of(0, 10));
+        assertEquals(10, slice.getNumberOfElements());
+        assertTrue(slice.hasNext());
+
+        //Keyset pagination: all the pages contain all the users found
+        List<Long> ids = new ArrayList<Long>();
+        List<UserUI> page = userRepository.searchUsersAfter("es", 0, Limit.of(10));
+        while(!page.isEmpty()) {
+            assertTrue(page.size() <= 10);
+            for(UserUI u : page) {
+                ids.add(u.getId());
+            }
+            page = userRepository.searchUsersAfter("es", page.get(page.size() - 1).getId(), Limit.of(10));
+        }
+        assertEquals(all.size(), ids.size());
+        assertEquals(all.stream().map(UserUI::getId).sorted().toList(), ids);
+    }
+
+    @Test
+    @Transactional(readOnly = true)
+    public void testQueryStreamUser() {
+        List<UserUI> all = userRepository.searchUsers("es");
+        try(Stream<UserUI> stream = userRepository.streamUsers("es")) {
+            assertEquals(all.size(), stream.count());
+        }
+    }
+
+    /**
+     * The pages of the keys cover all the users, the last page has no lastId
+     */
+    @Test
+    public void testUserKeysPages() {
+        long users = 0;
+        Long lastId = 0L;
+        while(lastId != null) {
+            UserKeys page = UserKeysListener.page(userRepository.findKeysAfter(lastId, Limit.of(100)), 100);
+            assertEquals(page.getUsernames().size(), page.getEmails().size());
+            users += page.getUsernames().size();
+            assertTrue(page.getLastId() == null || page.getLastId() > lastId);
+            lastId = page.getLastId();
+        }
+        assertEquals(userRepository.count(), users);
+    }
+
+    @Test
+    public void testFindKeys() {
+        List<UserKey> found = userRepository.findKeys(Set.of("jwethey1", "not_a_user"), Set.of("hbailey2@dailymail.co.uk"));
+        assertEquals(2, found.size());
+        assertTrue(found.stream().anyMatch(u -> u.getUsername().equals("jwethey1")));
+        assertTrue(found.stream().anyMatch(u -> u.getEmail().equals("hbailey2@dailymail.co.uk")));
+    }
 }
@@ -0,0 +1,124 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.databaseservice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.jsonwebtoken.Jwts;
+
+import it.uniroma1.databaseservice.entitis.models.UserUI;
+import it.uniroma1.databaseservice.repositories.UserRepository;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("dev")
+public class UserSearchControllerTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${jwt.symmetric.key}")
+    private String secretKey;
+
+    private ResponseEntity<String> search(String query, String role) {
+        HttpHeaders headers = new HttpHeaders();
+        if(role != null) {
+            String token = Jwts.builder()
+                    .claims(Map.of("username", "superadmin", "enabled", true, "roles", List.of(role)))
+                    .subject("user")
+                    .expiration(new Date(System.currentTimeMillis() + 60000))
+                    .signWith(new SecretKeySpec(secretKey.getBytes(StandardCharsets.UTF_8), "HmacSHA256"))
+                    .compact();
+            headers.setBearerAuth(token);
+        }
+        return restTemplate.exchange("http://localhost:" + port + "/api/users/search?q=" + query, HttpMethod.GET, 
+            new HttpEntity<Void>(headers), String.class);
+    }
+
+    /**
+     * The users found are written one for each line
+     */
+    @Test
+    public void testSearchUsersNdjson() throws Exception {
+        List<UserUI> expected = userRepository.searchUsers("ann");
+
+        ResponseEntity<String> response = search("ann", "ROLE_SUPERADMIN");
+        assertEquals(200, response.getStatusCode().value());
+        assertTrue(MediaType.APPLICATION_NDJSON.isCompatibleWith(response.getHeaders().getContentType()));
+
+        String[] lines = response.getBody().split("\n");
+        assertEquals(expected.size(), lines.length);
+        for(String line : lines) {
+            UserUI u = objectMapper.readValue(line, UserUI.class);
+            assertTrue(u.getEmail().contains("ann") || u.getUsername().contains("ann") ||
+                    u.getName().contains("ann") || u.getSurname().contains("ann"));
+        }
+    }
+
+    @Test
+    public void testSearchUsersNoResults() {
+        ResponseEntity<String> response = search("xyzwq", "ROLE_SUPERADMIN");
+        assertEquals(200, response.getStatusCode().value());
+        assertTrue(response.getBody() == null || response.getBody().isEmpty());
+    }
+
+    /**
+     * Only a superadmin can search, with a query of at least 3 characters
+     */
+    @Test
+    public void testSearchUsersRefused() {
+        assertEquals(401, search("ann", null).getStatusCode().value());
+        assertEquals(403, search("ann", "ROLE_SYSTEM_ADMINISTRATOR").getStatusCode().value());
+        assertEquals(400, search("es", "ROLE_SUPERADMIN").getStatusCode().value());
+        assertEquals(400, search("", "ROLE_SUPERADMIN").getStatusCode().value());
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.databaseservice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import it.uniroma1.databaseservice.entitis.User;
+import it.uniroma1.databaseservice.entitis.models.ACK;
+import it.uniroma1.databaseservice.entitis.models.UserChangeEvent;
+import it.uniroma1.databaseservice.entitis.models.UserMessage;
+import it.uniroma1.databaseservice.entitis.models.UserUI;
+import it.uniroma1.databaseservice.messaging.UserChangeListener;
+import it.uniroma1.databaseservice.repositories.UserBatchRepository;
+import it.uniroma1.databaseservice.repositories.UserRepository;
+import it.uniroma1.databaseservice.repositories.UserSearchRepository;
+
+@SpringBootTest(properties = "search.mode=ngram")
+@ActiveProfiles("dev")
+public class UserSearchRepositoryTest {
+
+    @Autowired
+    private UserSearchRepository userSearchRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserBatchRepository userBatchRepository;
+
+    @Autowired
+    private UserChangeListener userChangeListener;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * The index finds the same users of the LIKE query, ignoring the case
+     */
+    @Test
+    public void testIndexSameResultsOfLikeQuery() {
+        for(String query : new String[] {"ann", "Wethey", ".com", "xyzw"}) {
+            Set<Long> expected = new HashSet<Long>();
+            for(UserUI u : userRepository.findAll().stream()
+                    .map(u -> new UserUI(u.getId(), u.getUsername(), u.getEmail(), u.getName(), u.getSurname(), u.getEnabled()))
+                    .toList()) {
+                if(contains(u, query)) {
+                    expected.add(u.getId());
+                }
+            }
+            Set<Long> found = new HashSet<Long>();
+            for(UserUI u : userSearchRepository.searchUsers(query)) {
+                assertTrue(contains(u, query));
+                found.add(u.getId());
+            }
+            assertEquals(expected, found);
+        }
+    }
+
+    /**
+     * The users inserted with JPA and with the batch are searchable
+     */
+    @Test
+    public void testIndexUpdatedOnWrites() {
+        User user = new User();
+        user.setUsername("qwjpasearch");
+        user.setEmail("qwjpasearch@test.it");
+        user.setPassword("password");
+        user.setEnabled(true);
+        user = userRepository.save(user);
+        List<UserUI> found = userSearchRepository.searchUsers("QWJPASEARCH");
+        assertEquals(1, found.size());
+        assertEquals(user.getId(), found.get(0).getId());
+
+        UserMessage message = new UserMessage();
+        message.setUsername("qwbatchsearch");
+        message.setEmail("qwbatchsearch@test.it");
+        message.setPassword("password");
+        message.setEnabled(true);
+        List<ACK<UserMessage>> acks = userBatchRepository.insertUsers(List.of(message));
+        assertTrue(acks.get(0).isSuccess());
+        assertEquals(1, userSearchRepository.searchUsers("qwbatchsearch").size());
+
+        userRepository.delete(user);
+        assertTrue(userSearchRepository.searchUsers("qwjpasearch").isEmpty());
+    }
+
+    /**
+     * The pages of the index contain all the users found, ordered by id
+     */
+    @Test
+    public void testIndexPages() {
+        List<Long> expected = userSearchRepository.searchUsers("ann").stream().map(UserUI::getId).sorted().toList();
+        assertTrue(expected.size() > 3);
+
+        List<UserUI> page = userSearchRepository.searchUsers("ann", 0, 3);
+        assertEquals(expected.subList(0, 3), page.stream().map(UserUI::getId).toList());
+        try(Stream<UserUI> stream = userSearchRepository.streamUsers("ann", 3)) {
+            assertEquals(expected, stream.map(UserUI::getId).toList());
+        }
+    }
+
+    /**
+     * A query shorter than a trigram uses the LIKE query
+     */
+    @Test
+    public void testShortQuery() {
+        assertFalse(userSearchRepository.searchUsers("es").isEmpty());
+        assertFalse(userSearchRepository.searchUsers("e").isEmpty());
+    }
+
+    private boolean contains(UserUI u, String query) {
+        String q = query.toLowerCase(Locale.ROOT);
+        for(String field : new String[] {u.getUsername(), u.getEmail(), u.getName(), u.getSurname()}) {
+            if(field != null && field.toLowerCase(Locale.ROOT).contains(q)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The users written by another instance are found after their change event
+     */
+    @Test
+    public void testIndexUpdatedByChangeEvents() throws Exception {
+        jdbcTemplate.update("INSERT INTO application_users (id, username, email, password, name, surname, enabled) VALUES (?, ?, ?, ?, ?, ?, ?)",
+            900001L, "remote_qzv", "remote_qzv@test.it", "password", "Name", "Surname", true);
+        assertTrue(userSearchRepository.searchUsers("remote_qzv").isEmpty());
+
+        userChangeListener.receive(new Message(objectMapper.writeValueAsBytes(
+            List.of(new UserChangeEvent(UserChangeEvent.Type.CREATED, 900001L, "remote_qzv")))));
+        assertEquals(1, userSearchRepository.searchUsers("remote_qzv").size());
+
+        jdbcTemplate.update("DELETE FROM application_users WHERE id = ?", 900001L);
+        userChangeListener.receive(new Message(objectMapper.writeValueAsBytes(
+            List.of(new UserChangeEvent(UserChangeEvent.Type.DELETED, 900001L, "remote_qzv")))));
+        assertTrue(userSearchRepository.searchUsers("remote_qzv").isEmpty());
+    }
+}
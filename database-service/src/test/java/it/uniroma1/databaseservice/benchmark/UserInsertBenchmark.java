@@ -0,0 +1,187 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package it.uniroma1.databaseservice.benchmark;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Users inserted per second, each with one user_role row, in transactions of
+ * 100 users (the insert.batch.size of the consumer):
+ * identity - one insert for each user reading back the generated key, as JPA does with IDENTITY
+ * identityBatch - JDBC batch reading back the generated keys
+ * sequence - ids reserved 50 at a time from application_users_seq, JDBC batch without generated keys
+ * 
+ * Run from database-service with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java "-Dexec.args=-cp %classpath it.uniroma1.databaseservice.benchmark.UserInsertBenchmark"
+ * The url param runs it against another H2 database, e.g. a file one: -p url=jdbc:h2:file:./target/benchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(UserInsertBenchmark.USERS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserInsertBenchmark {
+
+    static final int USERS = 100000;
+    private static final int BATCH_SIZE = 100;
+    private static final int ALLOCATION_SIZE = 50;
+
+    private static final String INSERT_USER = "INSERT INTO application_users (username, email, password, name, surname, enabled) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_USER_ID = "INSERT INTO application_users (id, username, email, password, name, surname, enabled) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_USER_ROLE = "INSERT INTO user_role (user_id, role_id) VALUES (?, ?)";
+    private static final String NEXT_ID = "SELECT NEXT VALUE FOR application_users_seq";
+    private static final String PASSWORD = "$2a$04$lQHVbMU/1AIy0eDWDsvI6.XCPJ1ZAu2KXZkZCZ7J92Z1PgRu2Cgdi";
+
+    @Param({"identity", "identityBatch", "sequence"})
+    private String strategy;
+
+    @Param({"jdbc:h2:mem:benchmark"})
+    private String url;
+
+    private Connection con;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        con = DriverManager.getConnection(url + ";DB_CLOSE_DELAY=-1", "sa", "");
+        con.setAutoCommit(false);
+        try(Statement st = con.createStatement()) {
+            st.execute("DROP ALL OBJECTS");
+            st.execute("CREATE TABLE application_users (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, " +
+                    "username VARCHAR(255) NOT NULL UNIQUE, email VARCHAR(255) NOT NULL UNIQUE, password VARCHAR(255) NOT NULL, " +
+                    "name VARCHAR(255), surname VARCHAR(255), enabled BOOLEAN NOT NULL)");
+            st.execute("CREATE TABLE user_role (user_id BIGINT NOT NULL, role_id BIGINT NOT NULL, PRIMARY KEY (user_id, role_id))");
+            st.execute("CREATE SEQUENCE application_users_seq START WITH 1 INCREMENT BY " + ALLOCATION_SIZE);
+        }
+        con.commit();
+    }
+
+    @Setup(Level.Invocation)
+    public void clear() throws Exception {
+        try(Statement st = con.createStatement()) {
+            st.execute("TRUNCATE TABLE user_role");
+            st.execute("TRUNCATE TABLE application_users RESTART IDENTITY");
+            st.execute("ALTER SEQUENCE application_users_seq RESTART WITH 1");
+        }
+        con.commit();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        con.close();
+    }
+
+    @Benchmark
+    public long insert() throws Exception {
+        long lastId = 0;
+        long nextId = 0;
+        long reserved = 0;
+        try(PreparedStatement users = "sequence".equals(strategy) ? con.prepareStatement(INSERT_USER_ID) 
+                    : con.prepareStatement(INSERT_USER, Statement.RETURN_GENERATED_KEYS);
+                PreparedStatement roles = con.prepareStatement(INSERT_USER_ROLE);
+                PreparedStatement sequence = con.prepareStatement(NEXT_ID)) {
+            for(int start = 0; start < USERS; start += BATCH_SIZE) {
+                long[] ids = new long[BATCH_SIZE];
+                for(int i = 0; i < BATCH_SIZE; i++) {
+                    int n = start + i;
+                    int p = 1;
+                    if("sequence".equals(strategy)) {
+                        if(reserved == 0) {
+                            try(ResultSet rs = sequence.executeQuery()) {
+                                rs.next();
+                                nextId = rs.getLong(1);
+                            }
+                            reserved = ALLOCATION_SIZE;
+                        }
+                        ids[i] = nextId++;
+                        reserved--;
+                        users.setLong(p++, ids[i]);
+                    }
+                    users.setString(p++, "user_" + n);
+                    users.setString(p++, "user_" + n + "@benchmark.it");
+                    users.setString(p++, PASSWORD);
+                    users.setString(p++, "Name");
+                    users.setString(p++, "Surname");
+                    users.setBoolean(p, true);
+                    if("identity".equals(strategy)) {
+                        users.executeUpdate();
+                        try(ResultSet keys = users.getGeneratedKeys()) {
+                            keys.next();
+                            ids[i] = keys.getLong(1);
+                        }
+                    } else {
+                        users.addBatch();
+                    }
+                }
+                if("identityBatch".equals(strategy)) {
+                    users.executeBatch();
+                    try(ResultSet keys = users.getGeneratedKeys()) {
+                        for(int i = 0; keys.next(); i++) {
+                            ids[i] = keys.getLong(1);
+                        }
+                    }
+                } else if("sequence".equals(strategy)) {
+                    users.executeBatch();
+                }
+                for(long id : ids) {
+                    roles.setLong(1, id);
+                    roles.setLong(2, 2);
+                    roles.addBatch();
+                }
+                roles.executeBatch();
+                con.commit();
+                lastId = ids[BATCH_SIZE - 1];
+            }
+        }
+        return lastId;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(UserInsertBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,144 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package it.uniroma1.databaseservice.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import it.uniroma1.databaseservice.entitis.models.UserUI;
+import it.uniroma1.databaseservice.repositories.UserSearchIndex;
+
+/**
+ * Time of a user search: the LIKE query on H2 against the trigram index.
+ * The ~1000 users of data.sql are copied to reach the number of rows.
+ * 
+ * Run from database-service with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java "-Dexec.args=-cp %classpath it.uniroma1.databaseservice.benchmark.UserSearchBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class UserSearchBenchmark {
+
+    private static final String LIKE_QUERY = "SELECT id, username, email, name, surname, enabled FROM application_users " +
+            "WHERE username LIKE ? OR email LIKE ? OR name LIKE ? OR surname LIKE ?";
+
+    @Param({"1000", "100000", "1000000"})
+    private int rows;
+
+    //A common and a rare string
+    @Param({"ann", "wethey"})
+    private String query;
+
+    private SingleConnectionDataSource dataSource;
+    private UserSearchIndex index;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dataSource = new SingleConnectionDataSource("jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1", "sa", "", true);
+        try(Statement st = dataSource.getConnection().createStatement()) {
+            st.execute("DROP ALL OBJECTS");
+            st.execute("CREATE TABLE application_users (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, " +
+                    "username VARCHAR(255) NOT NULL, email VARCHAR(255) NOT NULL, password VARCHAR(255) NOT NULL, " +
+                    "name VARCHAR(255), surname VARCHAR(255), enabled BOOLEAN NOT NULL)");
+            st.execute("CREATE TABLE role (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, authority VARCHAR(255))");
+            st.execute("CREATE TABLE user_role (user_id BIGINT, role_id BIGINT)");
+            st.execute("CREATE SEQUENCE application_users_seq");
+            st.execute("RUNSCRIPT FROM 'src/main/resources/data.sql'");
+            st.execute("ALTER TABLE application_users ALTER COLUMN id RESTART WITH 1001");
+            int seed = 1000;
+            int copies = rows / seed - 1;
+            if(copies > 0) {
+                st.execute("INSERT INTO application_users (username, email, password, name, surname, enabled) " +
+                        "SELECT CONCAT(u.username, '_', x), CONCAT(x, '_', u.email), u.password, u.name, u.surname, u.enabled " +
+                        "FROM application_users u, SYSTEM_RANGE(1, " + copies + ") WHERE u.id <= " + seed);
+            }
+        }
+
+        index = new UserSearchIndex();
+        ReflectionTestUtils.setField(index, "jdbcTemplate", new JdbcTemplate(dataSource));
+        ReflectionTestUtils.setField(index, "mode", UserSearchIndex.MODE);
+        index.rebuild();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.destroy();
+    }
+
+    @Benchmark
+    public List<UserUI> likeQuery() throws Exception {
+        Connection con = dataSource.getConnection();
+        List<UserUI> result = new ArrayList<UserUI>();
+        try(PreparedStatement ps = con.prepareStatement(LIKE_QUERY)) {
+            String pattern = "%" + query + "%";
+            for(int i = 1; i <= 4; i++) {
+                ps.setString(i, pattern);
+            }
+            try(ResultSet rs = ps.executeQuery()) {
+                while(rs.next()) {
+                    result.add(new UserUI(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5), rs.getBoolean(6)));
+                }
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<UserUI> ngramIndex() {
+        return index.search(query);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(UserSearchBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+}
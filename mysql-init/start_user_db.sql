@@ -42,6 +42,24 @@ CREATE TABLE `application_users` (
 INSERT INTO `application_users` VALUES(1,'superadmin','superadmin','$2a$10$iYGLwSxRDXxnA4mRQPkEK.acxgmXwFhE37BtXzdYr4kEnH/toEJ96','superadmin','superadmin',1);
 /*!40000 ALTER TABLE `application_users` ENABLE KEYS */;
 
+--
+-- Table structure for table `application_users_seq`
+--
+
+DROP TABLE IF EXISTS `application_users_seq`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `application_users_seq` (
+  `next_val` bigint DEFAULT NULL
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
+--
+-- Dumping data for table `application_users_seq`
+--
+
+INSERT INTO `application_users_seq` VALUES (2);
+
 --
 -- Table structure for table `roles`
 --
@@ -0,0 +1,172 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice.audit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Sequential reader of an AuditJournal, also while it is written: when next()
+ * returns false it can be called again later to read the new records.
+ * A segment deleted by the retention of the writer is skipped.
+ */
+public class AuditJournalReader implements Closeable {
+
+    private final Path directory;
+    private final CRC32C crc = new CRC32C();
+
+    private Path segmentPath;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int position;
+
+    private long timestamp;
+    private byte type;
+    private ByteBuffer payload;
+
+    /**
+     * @param directory The directory of the journal, the reader starts from the first record
+     */
+    public AuditJournalReader(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Move the reader before the first record with a timestamp not older than timestamp
+     * 
+     * @param timestamp The time in milliseconds
+     * @throws IOException
+     */
+    public void seek(long timestamp) throws IOException {
+        List<Path> segments = AuditJournal.segments(directory);
+        //The last segment started before the timestamp, the segments after it are all newer
+        int first = 0;
+        for(int i = 1; i < segments.size(); i++) {
+            if(AuditJournal.segmentTimestamp(segments.get(i)) <= timestamp) {
+                first = i;
+            }
+        }
+        closeSegment();
+        if(segments.isEmpty()) {
+            return;
+        }
+        try {
+            openSegment(segments.get(first));
+        } catch(NoSuchFileException e) {
+            //Deleted, next() continues with the newer segments
+            return;
+        }
+        //Only the headers are read to skip the older records
+        while(segment.limit() - position >= AuditJournal.HEADER) {
+            int size = segment.getInt(position);
+            if(size < AuditJournal.HEADER || size > segment.limit() - position 
+                    || segment.getLong(position + 2 * Integer.BYTES) >= timestamp) {
+                break;
+            }
+            position += size;
+        }
+    }
+
+    /**
+     * Read the next record
+     * 
+     * @return false if there are no more records
+     * @throws IOException
+     */
+    public boolean next() throws IOException {
+        while(true) {
+            if(segment != null) {
+                int size = AuditJournal.recordSize(segment, position, crc);
+                if(size > 0) {
+                    timestamp = segment.getLong(position + 2 * Integer.BYTES);
+                    type = segment.get(position + 2 * Integer.BYTES + Long.BYTES);
+                    payload = segment.slice(position + AuditJournal.HEADER, size - AuditJournal.HEADER).asReadOnlyBuffer();
+                    position += size;
+                    return true;
+                }
+            }
+            Path nextSegment = nextSegment();
+            if(nextSegment == null) {
+                return false;
+            }
+            closeSegment();
+            try {
+                openSegment(nextSegment);
+            } catch(NoSuchFileException e) {
+                //Deleted, the next one is newer
+            }
+        }
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    /**
+     * @return The payload of the current record
+     */
+    public ByteBuffer getPayload() {
+        return payload;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeSegment();
+    }
+
+    /**
+     * The segment after the current one, null if it isn't created yet
+     */
+    private Path nextSegment() throws IOException {
+        for(Path path : AuditJournal.segments(directory)) {
+            if(segmentPath == null || path.getFileName().toString().compareTo(segmentPath.getFileName().toString()) > 0) {
+                return path;
+            }
+        }
+        return null;
+    }
+
+    private void openSegment(Path path) throws IOException {
+        segmentPath = path;
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        position = 0;
+    }
+
+    private void closeSegment() throws IOException {
+        if(channel != null) {
+            channel.close();
+            channel = null;
+        }
+        segment = null;
+    }
+}
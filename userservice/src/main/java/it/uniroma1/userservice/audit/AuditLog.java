@@ -0,0 +1,139 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice.audit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Record the results of the insert requests in the audit journal, used for the
+ * offline analysis. The payload of an INSERT record is:
+ * success (byte) | username | message
+ * where a string is its length in bytes (unsigned short) and its UTF-8 bytes
+ */
+@Component
+public class AuditLog {
+
+    public static final byte INSERT = 1;
+
+    Logger logger = LoggerFactory.getLogger(AuditLog.class);
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${audit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${audit.journal.dir:audit}")
+    private String directory;
+
+    @Value("${audit.segment.size.mb:64}")
+    private int segmentSizeMb;
+
+    @Value("${audit.flush.ms:1000}")
+    private long flushMillis;
+
+    @Value("${audit.retention.segments:100}")
+    private int retentionSegments;
+
+    @Value("${audit.retention.days:30}")
+    private int retentionDays;
+
+    private AuditJournal journal;
+    private Counter errors;
+
+    @PostConstruct
+    public void init() {
+        errors = Counter.builder("audit.journal.errors").register(meterRegistry);
+        if(enabled) {
+            try {
+                journal = new AuditJournal(Paths.get(directory), segmentSizeMb * 1024 * 1024, flushMillis,
+                        retentionSegments, TimeUnit.DAYS.toMillis(retentionDays));
+            } catch(IOException e) {
+                logger.error("Audit journal disabled: " + e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if(journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Record the result of an insert request
+     * 
+     * @param username The user to insert
+     * @param success true if the user is inserted
+     * @param message The message of the ACK or the error
+     */
+    public void insert(String username, boolean success, String message) {
+        if(journal == null) {
+            return;
+        }
+        byte[] user = bytes(username);
+        byte[] text = bytes(message);
+        ByteBuffer payload = ByteBuffer.allocate(1 + 2 * Short.BYTES + user.length + text.length);
+        payload.put((byte) (success ? 1 : 0));
+        payload.putShort((short) user.length).put(user);
+        payload.putShort((short) text.length).put(text);
+        try {
+            journal.append(System.currentTimeMillis(), INSERT, payload.array());
+        } catch(IOException e) {
+            errors.increment();
+            logger.warn("Audit record not written: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Read a string of a payload
+     */
+    public static String readString(ByteBuffer payload) {
+        byte[] value = new byte[payload.getShort() & 0xFFFF];
+        payload.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String value) {
+        if(value == null) {
+            return new byte[0];
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        //A string can't be longer than an unsigned short
+        return bytes.length <= 0xFFFF ? bytes : Arrays.copyOf(bytes, 0xFFFF);
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice.controllers;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.springframework.amqp.core.AmqpReplyTimeoutException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import it.uniroma1.userservice.TooManyRequests;
+import it.uniroma1.userservice.entities.ACK;
+import it.uniroma1.userservice.entities.User;
+import it.uniroma1.userservice.messaging.MessageProducer;
+import it.uniroma1.userservice.security.InsertRateLimiter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+@RestController
+public class UserBulkController {
+
+    @Autowired
+    private MessageProducer messageProducer;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private InsertRateLimiter insertRateLimiter;
+
+    @Value("${insert.bulk.chunk.size:100}")
+    private int chunkSize;
+
+    @Value("${insert.ratelimit.bulk.max.wait.ms:10000}")
+    private long maxWaitMillis;
+
+    /**
+     * Insert many users with a single request. The body is a JSON array or a
+     * sequence of JSON objects separated by new lines (NDJSON): it is parsed one
+     * record at time and the users are published in chunks of chunkSize messages,
+     * so the memory used doesn't depend on the size of the upload.
+     * 
+     * The response is written while the chunks are completed and contains the
+     * result of each record followed by the totals.
+     * 
+     * Each record takes a token of the bulk rate limit: the request is refused
+     * if there is no token for the first record, then the reading of the next
+     * records waits for their tokens (at most maxWaitMillis for a record, after
+     * that the upload stops and the error tells when to retry the rest)
+     * 
+     * @param request The HTTP Request
+     * @param response The HTTP Response
+     * @param principal The authenticated user
+     * @throws IOException
+     */
+    @PostMapping(value = "/api/user/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    @PreAuthorize("hasRole('SUPERADMIN')")
+    public void bulkInsert(HttpServletRequest request, HttpServletResponse response, Principal principal) throws IOException {
+
+        String username = principal != null ? principal.getName() : null;
+        long retryAfter = insertRateLimiter.acquireBulk(request.getRemoteAddr(), username, 0);
+        if(retryAfter > 0) {
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+            response.getWriter().write("Too many requests");
+            return;
+        }
+
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(request.getInputStream());
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+
+            long[] totals = new long[2]; //Inserted and failed records
+            List<BulkInsertResult> pendingResults = new ArrayList<BulkInsertResult>(chunkSize);
+            List<CompletableFuture<ACK<User>>> pendingAcks = new ArrayList<CompletableFuture<ACK<User>>>(chunkSize);
+            String error = null;
+            long index = 0;
+
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("results");
+            try {
+                JsonToken token = parser.nextToken();
+                if(token == JsonToken.START_ARRAY) {
+                    token = parser.nextToken();
+                }
+                while(token == JsonToken.START_OBJECT) {
+                    //The token of the first record is taken with the request
+                    if(index > 0 && (retryAfter = insertRateLimiter.acquireBulk(request.getRemoteAddr(), username, maxWaitMillis)) > 0) {
+                        error = "Too many requests at record " + index + ", retry after " + retryAfter + " seconds";
+                        break;
+                    }
+                    UserInsertModel userModel = objectMapper.readValue(parser, UserInsertModel.class);
+                    User u = userModel.toUser();
+                    BulkInsertResult result = new BulkInsertResult(index++, u.getUsername(), false, null);
+                    if(!messageProducer.userValidator(u)) {
+                        result.setMessage("User is not valid");
+                        writeResult(generator, result, totals);
+                    } else {
+                        try {
+                            pendingAcks.add(publish(u, generator, pendingResults, pendingAcks, totals));
+                            pendingResults.add(result);
+                        } catch(Exception e) {
+                            result.setMessage(e.getMessage());
+                            writeResult(generator, result, totals);
+                        }
+                    }
+                    if(pendingAcks.size() >= chunkSize) {
+                        completeChunk(generator, pendingResults, pendingAcks, totals);
+                    }
+                    token = parser.nextToken();
+                }
+                if(error == null && token != null && token != JsonToken.END_ARRAY) {
+                    error = "Unexpected token " + token + " at record " + index;
+                }
+            } catch(JsonProcessingException e) {
+                error = "Record " + index + " not valid: " + e.getOriginalMessage();
+            }
+            completeChunk(generator, pendingResults, pendingAcks, totals);
+            generator.writeEndArray();
+            generator.writeNumberField("total", totals[0] + totals[1]);
+            generator.writeNumberField("inserted", totals[0]);
+            generator.writeNumberField("failed", totals[1]);
+            if(error != null) {
+                generator.writeStringField("error", error);
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Publish the user, if there are too many requests in progress the pending
+     * chunk is completed and the publish is tried again
+     * 
+     * @return The future of the ACK
+     * @throws Exception if the user can't be published
+     */
+    private CompletableFuture<ACK<User>> publish(User u, JsonGenerator generator, List<BulkInsertResult> pendingResults,
+            List<CompletableFuture<ACK<User>>> pendingAcks, long[] totals) throws Exception {
+        try {
+            return messageProducer.sendMessageAsync(u);
+        } catch(TooManyRequests e) {
+            completeChunk(generator, pendingResults, pendingAcks, totals);
+            return messageProducer.sendMessageAsync(u);
+        }
+    }
+
+    /**
+     * Wait the ACKs of the pending chunk and write their results
+     */
+    private void completeChunk(JsonGenerator generator, List<BulkInsertResult> pendingResults,
+            List<CompletableFuture<ACK<User>>> pendingAcks, long[] totals) throws IOException {
+        for(int i = 0; i < pendingAcks.size(); i++) {
+            BulkInsertResult result = pendingResults.get(i);
+            try {
+                ACK<User> ack = pendingAcks.get(i).join();
+                if(ack != null) {
+                    result.setSuccess(ack.isSuccess());
+                    result.setMessage(ack.getMessage());
+                } else {
+                    result.setMessage("Can't complete the operation");
+                }
+            } catch(CompletionException e) {
+                if(e.getCause() instanceof AmqpReplyTimeoutException) {
+                    result.setMessage("At the moment is not possible satisfy the operation request");
+                } else {
+                    result.setMessage(e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+                }
+            }
+            writeResult(generator, result, totals);
+        }
+        pendingResults.clear();
+        pendingAcks.clear();
+        generator.flush();
+    }
+
+    private void writeResult(JsonGenerator generator, BulkInsertResult result, long[] totals) throws IOException {
+        totals[result.isSuccess() ? 0 : 1]++;
+        generator.writeObject(result);
+    }
+
+}
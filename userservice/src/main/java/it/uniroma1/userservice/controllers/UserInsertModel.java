@@ -19,14 +19,12 @@
 
 package it.uniroma1.userservice.controllers;
 
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 import javax.validation.constraints.Email;
 import javax.validation.constraints.NotBlank;
 
-import it.uniroma1.userservice.entities.Role;
 import it.uniroma1.userservice.entities.User;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -68,14 +66,8 @@ public class UserInsertModel {
         u.setSurname(surname);
         u.setUsername(username);
 
-        Set<Role> rolesForUser = new HashSet<Role>();
-        if(roles != null && !roles.isEmpty()) {
-            for(String tmp : roles) {
-                Role r = new Role();
-                r.setAuthority(tmp);
-            }
-        }
-        u.setAuthorities(rolesForUser);
+        //The roles of the request are not sent to the database-service
+        u.setAuthorities(Set.of());
         return u;
     }
     
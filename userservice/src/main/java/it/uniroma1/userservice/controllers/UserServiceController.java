@@ -19,24 +19,37 @@
 
 package it.uniroma1.userservice.controllers;
 
+import java.security.Principal;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
 import javax.validation.Valid;
 
+import org.springframework.amqp.core.AmqpReplyTimeoutException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import it.uniroma1.userservice.TooManyRequests;
 import it.uniroma1.userservice.entities.ACK;
+import it.uniroma1.userservice.entities.InsertTracking;
 import it.uniroma1.userservice.entities.User;
+import it.uniroma1.userservice.messaging.InsertTracker;
 import it.uniroma1.userservice.messaging.MessageProducer;
+import it.uniroma1.userservice.security.InsertRateLimiter;
+import jakarta.servlet.http.HttpServletRequest;
 
 @RestController
 @Validated
@@ -45,6 +58,15 @@ public class UserServiceController {
     @Autowired
     private MessageProducer messageProducer;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private InsertRateLimiter insertRateLimiter;
+
+    @Autowired
+    private InsertTracker insertTracker;
+
     @GetMapping("/api/user/hello")
     @PreAuthorize("hasRole('SYSTEM_ADMINISTRATOR')")
     public ResponseEntity<String> protectedResourceExample() {
@@ -56,35 +78,124 @@ public class UserServiceController {
         }
     }
 
+    /**
+     * Insert a user. By default the response is sent when the database-service
+     * replies, with async=true when the broker confirms the request: the
+     * response is 202 with the tracking of the request, polled with the
+     * Location URL
+     * 
+     * @param userModel The user to insert
+     * @param async true to wait only the confirm of the broker
+     * @param request The HTTP Request
+     * @param principal The authenticated user
+     * @return The inserted user or the tracking of the request
+     */
     @PostMapping("/api/user/insert")
     @PreAuthorize("hasRole('SUPERADMIN')")
-    public ResponseEntity<String> insertUser(@Valid @RequestBody UserInsertModel userModel) {
+    public CompletableFuture<ResponseEntity<String>> insertUser(@Valid @RequestBody UserInsertModel userModel, 
+            @RequestParam(defaultValue = "false") boolean async, HttpServletRequest request, Principal principal) {
+        long retryAfter = insertRateLimiter.acquire(request.getRemoteAddr(), principal != null ? principal.getName() : null);
+        if(retryAfter > 0) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter)).body("Too many requests"));
+        }
+        if(async) {
+            return insertUserConfirmed(userModel);
+        }
         try {
             User u = userModel.toUser();
-            String response = messageProducer.sendMessage(u);
-            if (response != null) {
+            return messageProducer.sendMessageAsync(u)
+                .thenApply(ack -> createInsertResponse(u, ack))
+                .exceptionally(e -> {
+                    if(e.getCause() instanceof AmqpReplyTimeoutException) {
+                        //REQUEST NOT PERFORMED
+                        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("At the moment is not possible satisfy the operation request");
+                    }
+                    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+                });
+        } catch(TooManyRequests e) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage()));
+        } catch(Exception e){
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage()));
+        }
+    }
+
+    /**
+     * State of an insert request sent with async=true
+     * 
+     * @param trackingId The tracking id returned by the insert
+     * @return The tracking, 404 if it's unknown to this instance
+     */
+    @GetMapping("/api/user/insert/{trackingId}")
+    @PreAuthorize("hasRole('SUPERADMIN')")
+    public ResponseEntity<InsertTracking> insertStatus(@PathVariable String trackingId) {
+        InsertTracking tracking = insertTracker.get(trackingId);
+        if(tracking == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        return ResponseEntity.status(HttpStatus.OK).body(tracking);
+    }
+
+    private CompletableFuture<ResponseEntity<String>> insertUserConfirmed(UserInsertModel userModel) {
+        try {
+            return messageProducer.sendMessageConfirmed(userModel.toUser())
+                .thenApply(this::createTrackingResponse)
+                .exceptionally(e -> {
+                    if(e.getCause() instanceof TimeoutException) {
+                        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("At the moment is not possible satisfy the operation request");
+                    }
+                    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+                });
+        } catch(TooManyRequests e) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage()));
+        } catch(Exception e){
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage()));
+        }
+    }
+
+    /**
+     * Convert the confirm of the broker in the HTTP response
+     * 
+     * @param tracking The tracking of the request
+     * @return 202 with the tracking if the broker accepted the request, 400 if it
+     * has been refused as duplicate, 503 otherwise
+     */
+    private ResponseEntity<String> createTrackingResponse(InsertTracking tracking) {
+        try {
+            HttpStatus status = tracking.getStatus() == InsertTracking.Status.REJECTED ? HttpStatus.SERVICE_UNAVAILABLE 
+                : tracking.getStatus() == InsertTracking.Status.FAILED ? HttpStatus.BAD_REQUEST : HttpStatus.ACCEPTED;
+            return ResponseEntity.status(status)
+                .location(URI.create("/api/user/insert/" + tracking.getTrackingId()))
+                .body(objectMapper.writeValueAsString(tracking));
+        } catch(Exception e){
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+        }
+    }
+
+    /**
+     * Convert the ACK received from the consumer in the HTTP response
+     * 
+     * @param u The user sent
+     * @param ack The ACK
+     * @return The HTTP response
+     */
+    private ResponseEntity<String> createInsertResponse(User u, ACK<User> ack) {
+        try {
+            if (ack != null) {
                 //ACK RECEIVED
-                ObjectMapper om = new ObjectMapper();
-                ACK<User> ack = om.readValue(response, new TypeReference<ACK<User>>() {});
-                if (ack != null) {
-                    if (ack.isSuccess()) {
-                        if (ack.getPayload() != null) {
-                            om = new ObjectMapper();
-                            String bodyResponse = om.writeValueAsString(u);
-                            return ResponseEntity.status(HttpStatus.OK).body(bodyResponse);    
-                        } else {
-                            return ResponseEntity.status(HttpStatus.OK).body("OK");    
-                        } 
+                if (ack.isSuccess()) {
+                    if (ack.getPayload() != null) {
+                        String bodyResponse = objectMapper.writeValueAsString(u);
+                        return ResponseEntity.status(HttpStatus.OK).body(bodyResponse);    
                     } else {
-                        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ack.getMessage());
-                    }
+                        return ResponseEntity.status(HttpStatus.OK).body("OK");    
+                    } 
                 } else {
-                    //ERROR
-                    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Can't complete the operation");
+                    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ack.getMessage());
                 }
             } else {
-                //REQUEST NOT PERFORMED
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("At the moment is not possible satisy the operation request");
+                //ERROR
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Can't complete the operation");
             }
         } catch(Exception e){
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
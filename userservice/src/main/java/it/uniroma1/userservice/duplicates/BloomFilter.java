@@ -0,0 +1,106 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice.duplicates;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Set of strings with a fixed memory that can answer "not present" for sure
+ * and "maybe present" with a false positive probability fpp once it contains
+ * capacity keys. The bits are set atomically, so the keys can be added and
+ * checked by many threads without locks.
+ */
+public class BloomFilter {
+
+    private final long capacity;
+    private final long bits;
+    private final int hashes;
+    private final AtomicLongArray words;
+
+    /**
+     * @param capacity The number of keys expected
+     * @param fpp The false positive probability with capacity keys
+     */
+    public BloomFilter(long capacity, double fpp) {
+        if(capacity < 1 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("Capacity must be positive and fpp between 0 and 1");
+        }
+        //Optimal size: m = -n ln(p) / ln(2)^2 bits and k = m / n ln(2) hash functions
+        long m = (long) Math.ceil(-capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        if(m > Integer.MAX_VALUE * 64L) {
+            throw new IllegalArgumentException("Bloom filter too big");
+        }
+        this.capacity = capacity;
+        this.words = new AtomicLongArray((int) ((m + 63) / 64));
+        this.bits = words.length() * 64L;
+        this.hashes = Math.max(1, (int) Math.round((double) bits / capacity * Math.log(2)));
+    }
+
+    public void add(String key) {
+        long hash = hash64(key);
+        long h1 = hash & 0xFFFFFFFFL;
+        long h2 = hash >>> 32;
+        for(int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bits);
+            long mask = 1L << bit;
+            int word = (int) (bit >>> 6);
+            long current = words.get(word);
+            while((current & mask) == 0 && !words.compareAndSet(word, current, current | mask)) {
+                current = words.get(word);
+            }
+        }
+    }
+
+    public boolean mightContain(String key) {
+        long hash = hash64(key);
+        long h1 = hash & 0xFFFFFFFFL;
+        long h2 = hash >>> 32;
+        for(int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bits);
+            if((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The memory used by the bits
+     */
+    public long sizeInBytes() {
+        return bits / 8;
+    }
+
+    static long hash64(String value) {
+        //FNV-1a on the chars, then the SplitMix64 finalizer to spread the bits
+        long h = 0xcbf29ce484222325L;
+        for(int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+}
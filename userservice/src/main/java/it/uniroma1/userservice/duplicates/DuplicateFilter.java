@@ -0,0 +1,309 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice.duplicates;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.uniroma1.userservice.entities.User;
+import it.uniroma1.userservice.entities.UserKeys;
+import it.uniroma1.userservice.messaging.MessageTransport;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Find the insert requests with a username or an email already used before
+ * publishing them. A Bloom filter of the usernames and emails of all the users
+ * is loaded from the database-service at startup (and every reloadInterval)
+ * and updated with the ACKs of the inserts: when it doesn't contain the keys
+ * of a request the request is new for sure and it is published at once. Only
+ * the requests that may be duplicates are checked on the database-service,
+ * in batches, and are refused without publishing them if the keys are used.
+ * A false positive of the filter costs a check, never a refused user.
+ * 
+ * If the filter is not loaded or the check fails the request is published
+ * and the unique columns of the database decide.
+ */
+@Component
+public class DuplicateFilter {
+
+    public static final String USER_KEYS_QUEUE = "user_keys";
+    public static final String USER_EXISTS_QUEUE = "user_exists";
+
+    private static final ParameterizedTypeReference<UserKeys> KEYS_TYPE = new ParameterizedTypeReference<UserKeys>() {};
+
+    Logger logger = LoggerFactory.getLogger(DuplicateFilter.class);
+
+    @Autowired
+    private MessageTransport messageTransport;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${duplicates.enabled:true}")
+    private boolean enabled;
+
+    @Value("${duplicates.expected.keys:2000000}")
+    private long expectedKeys;
+
+    @Value("${duplicates.fpp:0.01}")
+    private double fpp;
+
+    @Value("${duplicates.batch.size:500}")
+    private int batchSize;
+
+    @Value("${duplicates.batch.delay.ms:2}")
+    private long batchDelay;
+
+    @Value("${duplicates.reload.ms:3600000}")
+    private long reloadInterval;
+
+    @Value("${duplicates.retry.ms:30000}")
+    private long retryInterval;
+
+    private record PendingCheck(String username, String email, CompletableFuture<Boolean> result) {}
+
+    //Null until the first load
+    private volatile ScalableBloomFilter filter;
+    //The filter that is being loaded, it receives also the keys of the new users
+    private volatile ScalableBloomFilter loading;
+
+    private final List<PendingCheck> pending = new ArrayList<PendingCheck>();
+    private boolean flushScheduled;
+    //Flush the batches of checks and complete them
+    private ScheduledExecutorService executor;
+    //Load the filter, it can take long and must not delay the checks
+    private ScheduledExecutorService loader;
+
+    private Counter absent;
+    private Counter maybe;
+    private Counter duplicate;
+    private Counter failed;
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "duplicate-filter"));
+        loader = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "duplicate-filter-load"));
+        absent = Counter.builder("duplicates.checked").tag("result", "absent").register(meterRegistry);
+        maybe = Counter.builder("duplicates.checked").tag("result", "maybe").register(meterRegistry);
+        duplicate = Counter.builder("duplicates.checked").tag("result", "duplicate").register(meterRegistry);
+        failed = Counter.builder("duplicates.checked").tag("result", "failed").register(meterRegistry);
+        Gauge.builder("duplicates.filter.bytes", this, f -> f.filter != null ? f.filter.sizeInBytes() : 0).register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if(enabled) {
+            loader.execute(this::reload);
+        }
+    }
+
+    /**
+     * Stop the executors, the checks not yet sent are answered as not duplicates
+     */
+    @PreDestroy
+    public void shutdown() {
+        loader.shutdownNow();
+        executor.shutdownNow();
+        List<PendingCheck> batch;
+        synchronized(pending) {
+            batch = new ArrayList<PendingCheck>(pending);
+            pending.clear();
+        }
+        complete(batch, null, new IllegalStateException("Duplicate filter stopped"));
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Load the usernames and emails of all the users, one page at time, in a
+     * new filter that replaces the current one when it is complete
+     * 
+     * @return false if the load failed, the current filter is kept
+     */
+    public boolean load() {
+        ScalableBloomFilter loaded = new ScalableBloomFilter(expectedKeys, fpp);
+        loading = loaded;
+        try {
+            long users = 0;
+            Long lastId = 0L;
+            while(lastId != null) {
+                UserKeys page = messageTransport.request("", USER_KEYS_QUEUE, new UserKeys(null, null, lastId), KEYS_TYPE).join();
+                page.getUsernames().forEach(loaded::add);
+                page.getEmails().forEach(loaded::add);
+                users += page.getUsernames().size();
+                lastId = page.getLastId();
+            }
+            filter = loaded;
+            logger.info("Duplicate filter loaded with " + users + " users in " + loaded.sizeInBytes() + " bytes");
+            return true;
+        } catch(RuntimeException e) {
+            logger.warn("Duplicate filter not loaded: " + e.getMessage());
+            return false;
+        } finally {
+            loading = null;
+        }
+    }
+
+    private void reload() {
+        boolean loaded = load();
+        loader.schedule(this::reload, loaded ? reloadInterval : retryInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Add the keys of a user saved by the database-service
+     */
+    public void add(User user) {
+        add(filter, user);
+        add(loading, user);
+    }
+
+    private static void add(ScalableBloomFilter target, User user) {
+        if(target != null) {
+            if(user.getUsername() != null) {
+                target.add(user.getUsername());
+            }
+            if(user.getEmail() != null) {
+                target.add(user.getEmail());
+            }
+        }
+    }
+
+    /**
+     * Check if the username or the email of a user are already used
+     * 
+     * @param user The user to insert, already validated
+     * @return The future of the answer, false also if the check can't be done
+     */
+    public CompletableFuture<Boolean> isDuplicate(User user) {
+        ScalableBloomFilter current = filter;
+        if(current == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        if(!current.mightContain(user.getUsername()) && !current.mightContain(user.getEmail())) {
+            absent.increment();
+            return CompletableFuture.completedFuture(false);
+        }
+        maybe.increment();
+        PendingCheck check = new PendingCheck(user.getUsername(), user.getEmail(), new CompletableFuture<Boolean>());
+        boolean full;
+        synchronized(pending) {
+            pending.add(check);
+            full = pending.size() >= batchSize;
+            if(!full && !flushScheduled) {
+                try {
+                    executor.schedule(this::flush, batchDelay, TimeUnit.MILLISECONDS);
+                    flushScheduled = true;
+                } catch(RejectedExecutionException e) {
+                    //Stopped: answered at once
+                    pending.remove(check);
+                    check.result().complete(false);
+                }
+            }
+        }
+        if(full) {
+            flush();
+        }
+        return check.result();
+    }
+
+    /**
+     * Check the pending requests with a single query of the database-service
+     */
+    private void flush() {
+        List<PendingCheck> batch;
+        synchronized(pending) {
+            flushScheduled = false;
+            if(pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<PendingCheck>(pending);
+            pending.clear();
+        }
+        List<String> usernames = new ArrayList<String>(batch.size());
+        List<String> emails = new ArrayList<String>(batch.size());
+        for(PendingCheck check : batch) {
+            usernames.add(check.username());
+            emails.add(check.email());
+        }
+        try {
+            messageTransport.request("", USER_EXISTS_QUEUE, new UserKeys(usernames, emails, null), KEYS_TYPE)
+                .whenComplete((used, e) -> completeAsync(batch, used, e));
+        } catch(RuntimeException e) {
+            complete(batch, null, e);
+        }
+    }
+
+    /**
+     * Complete the checks on the executor, not on the thread of the reply,
+     * or at once if the executor has been stopped
+     */
+    private void completeAsync(List<PendingCheck> batch, UserKeys used, Throwable e) {
+        try {
+            executor.execute(() -> complete(batch, used, e));
+        } catch(RejectedExecutionException rejected) {
+            complete(batch, used, e);
+        }
+    }
+
+    private void complete(List<PendingCheck> batch, UserKeys used, Throwable e) {
+        if(e == null && used == null) {
+            e = new IllegalStateException("No reply");
+        }
+        if(e != null) {
+            logger.debug("Duplicate check failed: " + e.getMessage());
+            failed.increment(batch.size());
+            batch.forEach(check -> check.result().complete(false));
+            return;
+        }
+        Set<String> usedUsernames = used.getUsernames() != null ? new HashSet<String>(used.getUsernames()) : Set.of();
+        Set<String> usedEmails = used.getEmails() != null ? new HashSet<String>(used.getEmails()) : Set.of();
+        for(PendingCheck check : batch) {
+            boolean isDuplicate = usedUsernames.contains(check.username()) || usedEmails.contains(check.email());
+            if(isDuplicate) {
+                duplicate.increment();
+            }
+            check.result().complete(isDuplicate);
+        }
+    }
+}
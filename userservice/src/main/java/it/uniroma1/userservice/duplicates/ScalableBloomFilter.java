@@ -0,0 +1,84 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice.duplicates;
+
+/**
+ * Bloom filter that grows with the number of keys: when a stage is full a
+ * new one is added with twice the capacity and half the false positive
+ * probability, so the total probability stays below fpp whatever the number
+ * of keys. A key is maybe present if any stage contains it.
+ */
+public class ScalableBloomFilter {
+
+    private static final int MAX_STAGES = 32;
+
+    private final double fpp;
+    //Replaced when a stage is added, the readers never see a partial array
+    private volatile BloomFilter[] stages;
+    private long count;
+
+    /**
+     * @param initialCapacity The capacity of the first stage
+     * @param fpp The false positive probability of the whole filter
+     */
+    public ScalableBloomFilter(long initialCapacity, double fpp) {
+        this.fpp = fpp;
+        this.stages = new BloomFilter[] {new BloomFilter(initialCapacity, fpp / 2)};
+    }
+
+    public synchronized void add(String key) {
+        BloomFilter[] current = stages;
+        BloomFilter last = current[current.length - 1];
+        if(mightContain(key)) {
+            return; //Already there, or a false positive that doesn't use capacity
+        }
+        if(count >= last.getCapacity() && current.length < MAX_STAGES) {
+            BloomFilter[] grown = new BloomFilter[current.length + 1];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            last = new BloomFilter(last.getCapacity() * 2, fpp / (2L << current.length));
+            grown[current.length] = last;
+            stages = grown;
+            count = 0;
+        }
+        last.add(key);
+        count++;
+    }
+
+    public boolean mightContain(String key) {
+        for(BloomFilter stage : stages) {
+            if(stage.mightContain(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getStages() {
+        return stages.length;
+    }
+
+    public long sizeInBytes() {
+        long size = 0;
+        for(BloomFilter stage : stages) {
+            size += stage.sizeInBytes();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice.entities;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * State of an insert request sent without waiting the ACK, polled by the
+ * client with its tracking id
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+public class InsertTracking {
+
+    public enum Status {
+        //Published, waiting the confirm of the broker
+        PENDING,
+        //Confirmed by the broker, waiting the database-service
+        ACCEPTED,
+        //Not accepted by the broker
+        REJECTED,
+        //The confirm of the broker didn't arrive, the database-service can still save it
+        UNKNOWN,
+        //Saved by the database-service
+        INSERTED,
+        //Refused by the database-service
+        FAILED;
+
+        public boolean isFinal() {
+            return this == REJECTED || this == INSERTED || this == FAILED;
+        }
+    }
+
+    private String trackingId;
+    private String username;
+    private Status status;
+    private String message;
+
+}
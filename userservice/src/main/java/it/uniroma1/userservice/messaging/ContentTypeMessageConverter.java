@@ -0,0 +1,118 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice.messaging;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.SmartMessageConverter;
+import org.springframework.core.ParameterizedTypeReference;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Converter of the messages selected by the AMQP content type: JSON, readable
+ * and understood by every version of the services, or Smile, the binary
+ * encoding of the same Jackson model that writes shorter messages and is
+ * faster to parse. The messages are written with the configured content type,
+ * the messages received are read with the codec of their content type, JSON
+ * when it is missing (or the default application/octet-stream)
+ */
+public class ContentTypeMessageConverter implements SmartMessageConverter {
+
+    public static final String CONTENT_TYPE_SMILE = "application/x-jackson-smile";
+
+    private final Map<String, ObjectMapper> codecs;
+    private final String contentType;
+
+    /**
+     * @param objectMapper The shared JSON ObjectMapper, the Smile one is a copy with the same configuration
+     * @param contentType The content type of the messages sent
+     */
+    public ContentTypeMessageConverter(ObjectMapper objectMapper, String contentType) {
+        this.codecs = Map.of(MessageProperties.CONTENT_TYPE_JSON, objectMapper, 
+            CONTENT_TYPE_SMILE, objectMapper.copyWith(new SmileFactory()));
+        if(!codecs.containsKey(contentType)) {
+            throw new IllegalArgumentException("Content type not supported: " + contentType);
+        }
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) throws MessageConversionException {
+        if(messageProperties.getContentType() == null || !codecs.containsKey(messageProperties.getContentType())) {
+            messageProperties.setContentType(contentType);
+        }
+        try {
+            byte[] body = codecs.get(messageProperties.getContentType()).writeValueAsBytes(object);
+            if(MessageProperties.CONTENT_TYPE_JSON.equals(messageProperties.getContentType())) {
+                messageProperties.setContentEncoding("UTF-8");
+            }
+            messageProperties.setContentLength(body.length);
+            return new Message(body, messageProperties);
+        } catch(IOException e) {
+            throw new MessageConversionException("Can't write the message", e);
+        }
+    }
+
+    @Override
+    public Object fromMessage(Message message) throws MessageConversionException {
+        Type type = message.getMessageProperties().getInferredArgumentType();
+        return fromMessage(message, type != null ? type : Object.class);
+    }
+
+    @Override
+    public Object fromMessage(Message message, Object conversionHint) throws MessageConversionException {
+        ObjectMapper codec = codec(message.getMessageProperties().getContentType());
+        Type type = conversionHint instanceof ParameterizedTypeReference<?> reference ? reference.getType() : (Type) conversionHint;
+        JavaType javaType = codec.constructType(type);
+        try {
+            return codec.readValue(message.getBody(), javaType);
+        } catch(IOException e) {
+            throw new MessageConversionException("Can't read the message as " + javaType, e);
+        }
+    }
+
+    /**
+     * The codec of a content type, the parameters like the charset are ignored
+     */
+    private ObjectMapper codec(String messageContentType) {
+        if(messageContentType == null || messageContentType.equals(MessageProperties.DEFAULT_CONTENT_TYPE)) {
+            return codecs.get(MessageProperties.CONTENT_TYPE_JSON);
+        }
+        int parameters = messageContentType.indexOf(';');
+        String mimeType = (parameters < 0 ? messageContentType : messageContentType.substring(0, parameters)).trim();
+        ObjectMapper codec = codecs.get(mimeType);
+        if(codec == null) {
+            throw new MessageConversionException("Content type not supported: " + messageContentType);
+        }
+        return codec;
+    }
+}
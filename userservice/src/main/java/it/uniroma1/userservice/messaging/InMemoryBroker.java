@@ -0,0 +1,138 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice.messaging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.Queue;
+
+/**
+ * Broker in the JVM with the semantic of the RabbitMQ direct exchanges: a
+ * message is delivered to the queues bound to its exchange with its routing
+ * key, the default exchange ("") delivers it to the queue with the name of
+ * the routing key. A queue has a single consumer thread that receives the
+ * messages in order and in batches, like the partition queues.
+ */
+public class InMemoryBroker {
+
+    Logger logger = LoggerFactory.getLogger(InMemoryBroker.class);
+
+    private final Map<String, BlockingQueue<Message>> queues = new ConcurrentHashMap<String, BlockingQueue<Message>>();
+    private final Map<String, Map<String, List<String>>> bindings = new ConcurrentHashMap<String, Map<String, List<String>>>();
+    private final List<Thread> consumers = new CopyOnWriteArrayList<Thread>();
+
+    public void declareQueue(String name) {
+        queues.computeIfAbsent(name, n -> new LinkedBlockingQueue<Message>());
+    }
+
+    public void bind(String exchange, String routingKey, String queue) {
+        declareQueue(queue);
+        bindings.computeIfAbsent(exchange, e -> new ConcurrentHashMap<String, List<String>>())
+            .computeIfAbsent(routingKey, k -> new CopyOnWriteArrayList<String>())
+            .add(queue);
+    }
+
+    /**
+     * Declare the queues and the bindings to queues of the declarables
+     */
+    public void declare(Declarables declarables) {
+        for(Declarable declarable : declarables.getDeclarables()) {
+            if(declarable instanceof Queue queue) {
+                declareQueue(queue.getName());
+            } else if(declarable instanceof Binding binding && binding.isDestinationQueue()) {
+                bind(binding.getExchange(), binding.getRoutingKey(), binding.getDestination());
+            }
+        }
+    }
+
+    /**
+     * Deliver a message
+     * 
+     * @return false if the message is not routed to any queue
+     */
+    public boolean send(String exchange, String routingKey, Message message) {
+        if(exchange == null || exchange.isEmpty()) {
+            BlockingQueue<Message> queue = queues.get(routingKey);
+            return queue != null && queue.offer(message);
+        }
+        Map<String, List<String>> exchangeBindings = bindings.get(exchange);
+        List<String> destinations = exchangeBindings != null ? exchangeBindings.get(routingKey) : null;
+        if(destinations == null || destinations.isEmpty()) {
+            return false;
+        }
+        for(String destination : destinations) {
+            queues.get(destination).offer(message);
+        }
+        return true;
+    }
+
+    /**
+     * Start the consumer of a queue
+     * 
+     * @param queue The name of the queue
+     * @param batchSize The max number of messages of a batch
+     * @param listener Receive the batches, in the consumer thread
+     */
+    public void subscribe(String queue, int batchSize, Consumer<List<Message>> listener) {
+        declareQueue(queue);
+        BlockingQueue<Message> messages = queues.get(queue);
+        Thread consumer = new Thread(() -> {
+            List<Message> batch = new ArrayList<Message>(batchSize);
+            while(!Thread.currentThread().isInterrupted()) {
+                try {
+                    batch.add(messages.take());
+                    messages.drainTo(batch, batchSize - 1);
+                    listener.accept(batch);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch(RuntimeException e) {
+                    logger.error("Consumer of " + queue + " failed", e);
+                }
+                batch.clear();
+            }
+        }, "inmemory-" + queue);
+        consumer.setDaemon(true);
+        consumers.add(consumer);
+        consumer.start();
+    }
+
+    /**
+     * Stop all the consumers
+     */
+    public void shutdown() {
+        for(Thread consumer : consumers) {
+            consumer.interrupt();
+        }
+        consumers.clear();
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice.messaging;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.AmqpReplyTimeoutException;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.Queue;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.stereotype.Component;
+
+import it.uniroma1.userservice.entities.ACK;
+import it.uniroma1.userservice.entities.User;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Transport on an InMemoryBroker, enabled with messaging.transport=memory.
+ * The messages are converted to bytes and back like on RabbitMQ, so a
+ * database-service consumer subscribed to the broker in the same JVM receives
+ * the same requests and its ACKs follow the same path: the load tests of the
+ * insert path can run without a broker.
+ */
+@Component
+@ConditionalOnProperty(name = "messaging.transport", havingValue = "memory")
+public class InMemoryMessageTransport implements MessageTransport {
+
+    private static final ParameterizedTypeReference<ACK<User>> ACK_TYPE = new ParameterizedTypeReference<ACK<User>>() {};
+
+    @Autowired
+    private ContentTypeMessageConverter messageConverter;
+
+    @Autowired
+    private List<Declarables> declarables;
+
+    @Autowired
+    private Queue insertResultsQueue;
+
+    @Autowired
+    private InsertTracker insertTracker;
+
+    @Value("${insert.reply.timeout.ms:5000}")
+    private long replyTimeout;
+
+    private final InMemoryBroker broker = new InMemoryBroker();
+    private final String replyQueue = "inmemory.reply-to." + UUID.randomUUID();
+    private final Map<String, CompletableFuture<Message>> pendingReplies = new ConcurrentHashMap<String, CompletableFuture<Message>>();
+
+    @PostConstruct
+    public void init() {
+        for(Declarables d : declarables) {
+            broker.declare(d);
+        }
+        broker.subscribe(replyQueue, 100, replies -> replies.forEach(this::receiveReply));
+        broker.subscribe(insertResultsQueue.getName(), 100, results -> results.forEach(insertTracker::receiveResult));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        broker.shutdown();
+    }
+
+    /**
+     * @return The broker, used to subscribe the consumers of the requests
+     */
+    public InMemoryBroker getBroker() {
+        return broker;
+    }
+
+    @Override
+    public ACK<User> sendAndReceive(String exchange, String routingKey, User user) {
+        try {
+            return sendAndReceiveAsync(exchange, routingKey, user).join();
+        } catch(CompletionException e) {
+            if(e.getCause() instanceof AmqpReplyTimeoutException) {
+                return null; //Like the RabbitTemplate
+            }
+            throw e.getCause() instanceof AmqpException ? (AmqpException) e.getCause() : e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<ACK<User>> sendAndReceiveAsync(String exchange, String routingKey, User user) {
+        return request(exchange, routingKey, user, ACK_TYPE);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> request(String exchange, String routingKey, Object body, ParameterizedTypeReference<T> replyType) {
+        String correlationId = UUID.randomUUID().toString();
+        Message request = toMessage(body, replyQueue, correlationId);
+        CompletableFuture<Message> reply = new CompletableFuture<Message>();
+        pendingReplies.put(correlationId, reply);
+        if(!broker.send(exchange, routingKey, request)) {
+            pendingReplies.remove(correlationId);
+            return CompletableFuture.failedFuture(new AmqpException("Message not routed: " + exchange + "/" + routingKey));
+        }
+        return reply.orTimeout(replyTimeout, TimeUnit.MILLISECONDS)
+            .handle((message, e) -> {
+                pendingReplies.remove(correlationId);
+                if(e instanceof TimeoutException) {
+                    throw new CompletionException(new AmqpReplyTimeoutException("Reply timed out", request));
+                }
+                if(e != null) {
+                    throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+                }
+                return (T) messageConverter.fromMessage(message, replyType);
+            });
+    }
+
+    @Override
+    public CompletableFuture<Confirm> sendConfirmed(String exchange, String routingKey, User user, String replyTo, String correlationId) {
+        boolean routed = broker.send(exchange, routingKey, toMessage(user, replyTo, correlationId));
+        return CompletableFuture.completedFuture(routed ? new Confirm(true, null) : new Confirm(false, "NO_ROUTE"));
+    }
+
+    private Message toMessage(Object body, String replyTo, String correlationId) {
+        MessageProperties properties = new MessageProperties();
+        properties.setReplyTo(replyTo);
+        properties.setCorrelationId(correlationId);
+        return messageConverter.toMessage(body, properties);
+    }
+
+    private void receiveReply(Message message) {
+        CompletableFuture<Message> reply = pendingReplies.remove(message.getMessageProperties().getCorrelationId());
+        if(reply != null) { //Null if it arrived after the timeout
+            reply.complete(message);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice.messaging;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.uniroma1.userservice.audit.AuditLog;
+import it.uniroma1.userservice.duplicates.DuplicateFilter;
+import it.uniroma1.userservice.entities.ACK;
+import it.uniroma1.userservice.entities.InsertTracking;
+import it.uniroma1.userservice.entities.User;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Keep the state of the insert requests sent without waiting the ACK.
+ * The database-service sends their ACKs to the results queue of this
+ * instance, so a request can be polled only on the instance that accepted it.
+ * Only the most recent maxSize requests are kept.
+ */
+@Component
+public class InsertTracker {
+
+    private static final ParameterizedTypeReference<ACK<User>> ACK_TYPE = new ParameterizedTypeReference<ACK<User>>() {};
+
+    Logger logger = LoggerFactory.getLogger(InsertTracker.class);
+
+    @Autowired
+    private ContentTypeMessageConverter messageConverter;
+
+    @Autowired
+    private AuditLog auditLog;
+
+    //Lazy because the filter uses the transport, that delivers the ACKs to this tracker
+    @Autowired
+    @Lazy
+    private DuplicateFilter duplicateFilter;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${insert.tracking.max.size:100000}")
+    private int maxSize;
+
+    private Map<String, InsertTracking> trackings;
+
+    @PostConstruct
+    public void init() {
+        trackings = new LinkedHashMap<String, InsertTracking>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, InsertTracking> eldest) {
+                return size() > maxSize;
+            }
+        };
+        Gauge.builder("insert.tracking.size", this, InsertTracker::size).register(meterRegistry);
+    }
+
+    /**
+     * Start to track a new request
+     * 
+     * @param username The user to insert
+     * @return The tracking id
+     */
+    public String create(String username) {
+        String trackingId = UUID.randomUUID().toString();
+        synchronized(trackings) {
+            trackings.put(trackingId, new InsertTracking(trackingId, username, InsertTracking.Status.PENDING, null));
+        }
+        return trackingId;
+    }
+
+    /**
+     * Change the state of a request, a final state is never changed
+     * 
+     * @param trackingId The tracking id
+     * @param status The new state
+     * @param message The reason of the state
+     */
+    public void update(String trackingId, InsertTracking.Status status, String message) {
+        InsertTracking tracking;
+        synchronized(trackings) {
+            tracking = trackings.get(trackingId);
+            if(tracking == null || tracking.getStatus().isFinal()) {
+                return;
+            }
+            tracking.setStatus(status);
+            tracking.setMessage(message);
+        }
+        if(status.isFinal()) {
+            auditLog.insert(tracking.getUsername(), status == InsertTracking.Status.INSERTED, message);
+        }
+    }
+
+    /**
+     * @param trackingId The tracking id
+     * @return A copy of the state of the request, null if it's unknown
+     */
+    public InsertTracking get(String trackingId) {
+        synchronized(trackings) {
+            InsertTracking tracking = trackings.get(trackingId);
+            if(tracking == null) {
+                return null;
+            }
+            return new InsertTracking(tracking.getTrackingId(), tracking.getUsername(), tracking.getStatus(), tracking.getMessage());
+        }
+    }
+
+    public int size() {
+        synchronized(trackings) {
+            return trackings.size();
+        }
+    }
+
+    /**
+     * Receive the ACKs of the requests, the correlation id is the tracking id
+     */
+    @RabbitListener(queues = "#{insertResultsQueue.name}")
+    public void receiveResult(Message message) {
+        String trackingId = message.getMessageProperties().getCorrelationId();
+        try {
+            @SuppressWarnings("unchecked")
+            ACK<User> ack = (ACK<User>) messageConverter.fromMessage(message, ACK_TYPE);
+            //The ACK carries only the id, the email is added at the next load of the filter
+            InsertTracking tracking = get(trackingId);
+            if(ack.isSuccess() && tracking != null) {
+                User user = new User();
+                user.setUsername(tracking.getUsername());
+                duplicateFilter.add(user);
+            }
+            update(trackingId, ack.isSuccess() ? InsertTracking.Status.INSERTED : InsertTracking.Status.FAILED, ack.getMessage());
+        } catch(MessageConversionException e) {
+            logger.warn("ACK of " + trackingId + " not valid: " + e.getMessage());
+        }
+    }
+}
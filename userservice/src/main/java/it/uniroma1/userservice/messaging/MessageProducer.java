@@ -19,43 +19,217 @@
 
 package it.uniroma1.userservice.messaging;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
 import org.springframework.amqp.core.DirectExchange;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.core.Queue;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 import it.uniroma1.userservice.InvalidInputParameter;
+import it.uniroma1.userservice.TooManyRequests;
+import it.uniroma1.userservice.audit.AuditLog;
+import it.uniroma1.userservice.duplicates.DuplicateFilter;
+import it.uniroma1.userservice.entities.ACK;
+import it.uniroma1.userservice.entities.InsertTracking;
 import it.uniroma1.userservice.entities.User;
 
 @Service
 public class MessageProducer {
 
+    /**
+     * Same message of the database-service for the unique columns
+     */
+    public static final String DUPLICATE_MESSAGE = "Username or email already used";
+
     @Autowired
-    private RabbitTemplate rabbitTemplate;
+    private MessageTransport messageTransport;
 
     @Autowired
     private DirectExchange directExchange;
 
-    @Value("${binding.rabbitmq.key}")
-    private String keyBinding;
+    @Autowired
+    private UserPartitioner userPartitioner;
+
+    @Autowired
+    private AuditLog auditLog;
+
+    @Autowired
+    private InsertTracker insertTracker;
+
+    @Autowired
+    private Queue insertResultsQueue;
+
+    @Autowired
+    private DuplicateFilter duplicateFilter;
 
-    public String sendMessage(User user) throws InvalidInputParameter, JsonProcessingException {
+    @Value("${insert.confirm.timeout.ms:5000}")
+    private long confirmTimeout;
+
+    @Value("${duplicates.check.timeout.ms:1000}")
+    private long duplicateCheckTimeout;
+
+    /**
+     * Requests sent and still waiting for the ACK
+     */
+    private final Semaphore inFlightRequests;
+
+    /**
+     * Requests published and still waiting the confirm of the broker
+     */
+    private final Semaphore unconfirmedPublishes;
+
+    public MessageProducer(@Value("${insert.max.inflight:1000}") int maxInFlightRequests, 
+            @Value("${insert.max.unconfirmed:10000}") int maxUnconfirmedPublishes) {
+        this.inFlightRequests = new Semaphore(maxInFlightRequests);
+        this.unconfirmedPublishes = new Semaphore(maxUnconfirmedPublishes);
+    }
+
+    public ACK<User> sendMessage(User user) throws InvalidInputParameter {
         boolean isValidUser = userValidator(user);
         if(isValidUser) {
-            ObjectMapper om = new ObjectMapper();
-            String jsonMessage = om.writeValueAsString(user);
-            String response = (String) rabbitTemplate.convertSendAndReceive(directExchange.getName(), keyBinding, jsonMessage);
-            return response;
+            ACK<User> ack = isDuplicate(user).join() ? duplicateAck() 
+                : messageTransport.sendAndReceive(directExchange.getName(), userPartitioner.routingKey(user.getUsername()), user);
+            completed(user, ack, null);
+            return ack;
         } else {
             throw new InvalidInputParameter("User is not valid");
         }
     }
 
-    private boolean userValidator(User u) {
+    /**
+     * Send the user without waiting the response, the future is completed
+     * with the ACK or exceptionally with AmqpReplyTimeoutException if the
+     * consumer doesn't reply in time. A user with a username or an email
+     * already used is refused without sending it
+     * 
+     * @param user The user to insert
+     * @return The future of the ACK
+     * @throws InvalidInputParameter if the user is not valid
+     * @throws TooManyRequests if too many requests are waiting for the ACK
+     */
+    public CompletableFuture<ACK<User>> sendMessageAsync(User user) throws InvalidInputParameter, TooManyRequests {
+        boolean isValidUser = userValidator(user);
+        if(!isValidUser) {
+            throw new InvalidInputParameter("User is not valid");
+        }
+        if(!inFlightRequests.tryAcquire()) {
+            throw new TooManyRequests("Too many insert requests in progress");
+        }
+        try {
+            CompletableFuture<ACK<User>> response = isDuplicate(user)
+                .thenCompose(duplicate -> duplicate ? CompletableFuture.completedFuture(duplicateAck()) 
+                    : messageTransport.sendAndReceiveAsync(directExchange.getName(), userPartitioner.routingKey(user.getUsername()), user));
+            return response.whenComplete((ack, e) -> {
+                inFlightRequests.release();
+                completed(user, ack, e);
+            });
+        } catch(RuntimeException e) {
+            inFlightRequests.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Send the user waiting only the confirm of the broker. The ACK of the database-service is sent to the results queue of this
+     * instance and updates the tracking of the request.
+     * 
+     * @param user The user to insert
+     * @return The future of the tracking, completed when the broker confirms
+     * or refuses the message, exceptionally if the confirm doesn't arrive in time
+     * @throws InvalidInputParameter if the user is not valid
+     * @throws TooManyRequests if too many publishes are waiting the confirm
+     */
+    public CompletableFuture<InsertTracking> sendMessageConfirmed(User user) throws InvalidInputParameter, TooManyRequests {
+        boolean isValidUser = userValidator(user);
+        if(!isValidUser) {
+            throw new InvalidInputParameter("User is not valid");
+        }
+        if(!unconfirmedPublishes.tryAcquire()) {
+            throw new TooManyRequests("Too many insert requests waiting the confirm");
+        }
+        String trackingId = insertTracker.create(user.getUsername());
+        return isDuplicate(user).thenCompose(duplicate -> {
+            if(duplicate) {
+                unconfirmedPublishes.release();
+                insertTracker.update(trackingId, InsertTracking.Status.FAILED, DUPLICATE_MESSAGE);
+                return CompletableFuture.completedFuture(new InsertTracking(trackingId, user.getUsername(), InsertTracking.Status.FAILED, DUPLICATE_MESSAGE));
+            }
+            return publishConfirmed(user, trackingId);
+        });
+    }
+
+    private CompletableFuture<InsertTracking> publishConfirmed(User user, String trackingId) {
+        CompletableFuture<MessageTransport.Confirm> confirmation;
+        try {
+            confirmation = messageTransport.sendConfirmed(directExchange.getName(), userPartitioner.routingKey(user.getUsername()), user, 
+                insertResultsQueue.getName(), trackingId);
+        } catch(RuntimeException e) {
+            unconfirmedPublishes.release();
+            insertTracker.update(trackingId, InsertTracking.Status.REJECTED, e.getMessage());
+            throw e;
+        }
+        return confirmation
+            .orTimeout(confirmTimeout, TimeUnit.MILLISECONDS)
+            .handle((confirm, e) -> {
+                unconfirmedPublishes.release();
+                if(e != null) {
+                    insertTracker.update(trackingId, InsertTracking.Status.UNKNOWN, "Confirm not received: " + e);
+                    throw new CompletionException(e);
+                }
+                InsertTracking.Status status = confirm.ack() ? InsertTracking.Status.ACCEPTED : InsertTracking.Status.REJECTED;
+                String message = confirm.reason();
+                insertTracker.update(trackingId, status, message);
+                //The ACK of the database-service can arrive before the confirm
+                InsertTracking tracking = insertTracker.get(trackingId);
+                return tracking != null ? tracking : new InsertTracking(trackingId, user.getUsername(), status, message);
+            });
+    }
+
+    /**
+     * A check of the duplicate filter that doesn't answer in time is
+     * considered not a duplicate, the unique columns of the database decide
+     */
+    private CompletableFuture<Boolean> isDuplicate(User user) {
+        return duplicateFilter.isDuplicate(user).completeOnTimeout(false, duplicateCheckTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    private ACK<User> duplicateAck() {
+        ACK<User> ack = new ACK<User>();
+        ack.setSuccess(false);
+        ack.setMessage(DUPLICATE_MESSAGE);
+        return ack;
+    }
+
+    /**
+     * Audit the result of the insert and add the user to the duplicate
+     * filter if it has been saved
+     */
+    private void completed(User user, ACK<User> ack, Throwable e) {
+        audit(user, ack, e);
+        if(e == null && ack != null && ack.isSuccess()) {
+            duplicateFilter.add(user);
+        }
+    }
+
+    /**
+     * Record the result of the insert in the audit journal
+     */
+    private void audit(User user, ACK<User> ack, Throwable e) {
+        if(e != null) {
+            auditLog.insert(user.getUsername(), false, e.getCause() != null ? e.getCause().toString() : e.toString());
+        } else if(ack == null) {
+            auditLog.insert(user.getUsername(), false, "No ACK received");
+        } else {
+            auditLog.insert(user.getUsername(), ack.isSuccess(), ack.getMessage());
+        }
+    }
+
+    public boolean userValidator(User u) {
         
         if(u != null) {
             //Username not valid
@@ -0,0 +1,75 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice.messaging;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.core.ParameterizedTypeReference;
+
+import it.uniroma1.userservice.entities.ACK;
+import it.uniroma1.userservice.entities.User;
+
+/**
+ * Transport of the insert requests to the database-service: a request is
+ * published to an exchange with a routing key and the ACK is sent back to the
+ * reply queue of the request with the same correlation id
+ */
+public interface MessageTransport {
+
+    /**
+     * Answer of the broker to a publish
+     * 
+     * @param ack true if the message is routed to a queue
+     * @param reason Why the message is not accepted
+     */
+    record Confirm(boolean ack, String reason) {}
+
+    /**
+     * Send the user and wait the ACK
+     * 
+     * @return The ACK, null if it doesn't arrive in time
+     */
+    ACK<User> sendAndReceive(String exchange, String routingKey, User user);
+
+    /**
+     * Send the user without waiting the ACK
+     * 
+     * @return The future of the ACK, completed exceptionally with AmqpReplyTimeoutException 
+     * if it doesn't arrive in time
+     */
+    CompletableFuture<ACK<User>> sendAndReceiveAsync(String exchange, String routingKey, User user);
+
+    /**
+     * Send the user, the ACK is sent to replyTo with correlationId
+     * 
+     * @return The future of the confirm of the broker
+     */
+    CompletableFuture<Confirm> sendConfirmed(String exchange, String routingKey, User user, String replyTo, String correlationId);
+
+    /**
+     * Send a request and wait the reply without blocking
+     * 
+     * @param replyType The type of the reply
+     * @return The future of the reply, completed exceptionally if the request
+     * is not routed or the reply doesn't arrive in time
+     */
+    <T> CompletableFuture<T> request(String exchange, String routingKey, Object request, ParameterizedTypeReference<T> replyType);
+
+}
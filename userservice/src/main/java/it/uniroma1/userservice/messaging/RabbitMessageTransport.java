@@ -0,0 +1,89 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice.messaging;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.amqp.rabbit.AsyncRabbitTemplate;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.stereotype.Component;
+
+import it.uniroma1.userservice.entities.ACK;
+import it.uniroma1.userservice.entities.User;
+
+/**
+ * Transport on RabbitMQ, used unless messaging.transport is memory
+ */
+@Component
+@ConditionalOnProperty(name = "messaging.transport", havingValue = "rabbit", matchIfMissing = true)
+public class RabbitMessageTransport implements MessageTransport {
+
+    /**
+     * Type of the reply, used by the message converter to decode the ACK
+     */
+    private static final ParameterizedTypeReference<ACK<User>> ACK_TYPE = new ParameterizedTypeReference<ACK<User>>() {};
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private AsyncRabbitTemplate asyncRabbitTemplate;
+
+    @Override
+    public ACK<User> sendAndReceive(String exchange, String routingKey, User user) {
+        return rabbitTemplate.convertSendAndReceiveAsType(exchange, routingKey, user, ACK_TYPE);
+    }
+
+    @Override
+    public CompletableFuture<ACK<User>> sendAndReceiveAsync(String exchange, String routingKey, User user) {
+        return asyncRabbitTemplate.convertSendAndReceiveAsType(exchange, routingKey, user, ACK_TYPE);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> request(String exchange, String routingKey, Object request, ParameterizedTypeReference<T> replyType) {
+        return asyncRabbitTemplate.convertSendAndReceiveAsType(exchange, routingKey, request, replyType);
+    }
+
+    /**
+     * The publishes are not serialized, so many of them can wait the confirm
+     * on the same channel. A message not routed is returned before the confirm
+     */
+    @Override
+    public CompletableFuture<Confirm> sendConfirmed(String exchange, String routingKey, User user, String replyTo, String correlationId) {
+        CorrelationData correlationData = new CorrelationData(correlationId);
+        rabbitTemplate.convertAndSend(exchange, routingKey, user, m -> {
+            m.getMessageProperties().setReplyTo(replyTo);
+            m.getMessageProperties().setCorrelationId(correlationId);
+            return m;
+        }, correlationData);
+        return correlationData.getFuture().thenApply(confirm -> {
+            if(correlationData.getReturned() != null) {
+                //Confirmed but not routed to a queue
+                return new Confirm(false, correlationData.getReturned().getReplyText());
+            }
+            return new Confirm(confirm.isAck(), confirm.getReason());
+        });
+    }
+
+}
@@ -19,14 +19,25 @@
 
 package it.uniroma1.userservice.messaging;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.amqp.rabbit.AsyncRabbitTemplate;
 import org.springframework.amqp.rabbit.annotation.EnableRabbit;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.AnonymousQueue;
 import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
 import org.springframework.amqp.core.DirectExchange;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 
 @Configuration
@@ -34,16 +45,8 @@ import org.springframework.amqp.core.Queue;
 public class RabbitMqConfig {
 
 
-    @Value("${queue.rabbitmq.listener.name}")
-    private String queueName;
-
-    @Value("${binding.rabbitmq.key}")
-    private String keyBinding;
-
-    @Bean
-    public Queue queue() {
-        return new Queue(queueName, false);
-    }
+    @Value("${insert.reply.timeout.ms:5000}")
+    private long replyTimeout;
 
     /**
      * Declared as final because in this type of connection we need only one
@@ -55,9 +58,55 @@ public class RabbitMqConfig {
         return new DirectExchange("user_exchange");
     }
 
+    /**
+     * One queue for each partition, bound with its name as routing key.
+     * A queue has a single active consumer: the messages of a partition are
+     * consumed in order even when more database-service instances subscribe it.
+     * The arguments are the same of the database-service, that declares the
+     * dead letter exchange where the rejected messages are parked
+     */
+    @Bean
+    public Declarables partitionQueues(DirectExchange exchange, UserPartitioner userPartitioner) {
+        List<Declarable> declarables = new ArrayList<Declarable>();
+        for(int i = 0; i < userPartitioner.getPartitions(); i++) {
+            Queue queue = QueueBuilder.nonDurable(userPartitioner.queueName(i)).singleActiveConsumer()
+                    .deadLetterExchange("user_dead_letter").build();
+            declarables.add(queue);
+            declarables.add(BindingBuilder.bind(queue).to(exchange).with(queue.getName()));
+        }
+        return new Declarables(declarables);
+    }
+
+    /**
+     * Temporary queue of this instance where the database-service sends the
+     * ACKs of the inserts sent without waiting the reply
+     */
+    @Bean
+    public Queue insertResultsQueue() {
+        return new AnonymousQueue();
+    }
+
+    /**
+     * Messages are written with the shared ObjectMapper in the format of
+     * messaging.content.type and read in the format of their content type,
+     * the converter is applied by Spring Boot to the templates and the listeners
+     */
+    @Bean
+    public ContentTypeMessageConverter messageConverter(ObjectMapper objectMapper, 
+            @Value("${messaging.content.type:application/json}") String contentType) {
+        return new ContentTypeMessageConverter(objectMapper, contentType);
+    }
+
+    /**
+     * Template used to wait the ACKs without blocking a thread for each
+     * request, the replies are received with direct reply-to
+     */
     @Bean
-    Binding bindingA(Queue queue, DirectExchange exchange) {
-        return BindingBuilder.bind(queue).to(exchange).with(keyBinding);
+    @ConditionalOnProperty(name = "messaging.transport", havingValue = "rabbit", matchIfMissing = true)
+    public AsyncRabbitTemplate asyncRabbitTemplate(RabbitTemplate rabbitTemplate) {
+        AsyncRabbitTemplate asyncRabbitTemplate = new AsyncRabbitTemplate(rabbitTemplate);
+        asyncRabbitTemplate.setReceiveTimeout(replyTimeout);
+        return asyncRabbitTemplate;
     }
 
 }
@@ -0,0 +1,62 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice.messaging;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Choose the partition queue of a user: all the requests of the same
+ * username go to the same queue and are consumed in order by a single
+ * database-service instance
+ */
+@Component
+public class UserPartitioner {
+
+    @Value("${insert.partitions:8}")
+    private int partitions;
+
+    @Value("${insert.partition.queue.prefix:user_partition_}")
+    private String queuePrefix;
+
+    /**
+     * @param username The username of the request
+     * @return The partition, between 0 and partitions - 1
+     */
+    public int partition(String username) {
+        return Math.floorMod(username.hashCode(), partitions);
+    }
+
+    /**
+     * @param username The username of the request
+     * @return The routing key of the partition, equal to the name of its queue
+     */
+    public String routingKey(String username) {
+        return queueName(partition(username));
+    }
+
+    public String queueName(int partition) {
+        return queuePrefix + partition;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice.security;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Admission control of /api/user/insert and /api/user/bulk: a client can't
+ * send more than the configured requests (records for the bulk) for each IP
+ * and for each authenticated user. Each route has its own buckets
+ */
+@Component
+public class InsertRateLimiter {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${insert.ratelimit.ip.capacity:50}")
+    private int ipCapacity;
+
+    @Value("${insert.ratelimit.ip.per.second:20}")
+    private double ipPerSecond;
+
+    @Value("${insert.ratelimit.user.capacity:50}")
+    private int userCapacity;
+
+    @Value("${insert.ratelimit.user.per.second:20}")
+    private double userPerSecond;
+
+    @Value("${insert.ratelimit.bulk.ip.capacity:1000}")
+    private int bulkIpCapacity;
+
+    @Value("${insert.ratelimit.bulk.ip.per.second:500}")
+    private double bulkIpPerSecond;
+
+    @Value("${insert.ratelimit.bulk.user.capacity:1000}")
+    private int bulkUserCapacity;
+
+    @Value("${insert.ratelimit.bulk.user.per.second:500}")
+    private double bulkUserPerSecond;
+
+    @Value("${insert.ratelimit.max.keys:100000}")
+    private int maxKeys;
+
+    private Policy insert;
+    private Policy bulk;
+
+    /**
+     * The buckets of the IPs and of the users of a route
+     */
+    private class Policy {
+
+        private final RateLimiter ipLimiter;
+        private final RateLimiter userLimiter;
+        private final Counter ipRejected;
+        private final Counter userRejected;
+
+        private Policy(String route, int ipCapacity, double ipPerSecond, int userCapacity, double userPerSecond) {
+            ipLimiter = new RateLimiter(ipCapacity, ipPerSecond, maxKeys);
+            userLimiter = new RateLimiter(userCapacity, userPerSecond, maxKeys);
+            ipRejected = Counter.builder("ratelimit.rejected").tag("route", route).tag("key", "ip").register(meterRegistry);
+            userRejected = Counter.builder("ratelimit.rejected").tag("route", route).tag("key", "user").register(meterRegistry);
+            Gauge.builder("ratelimit.keys", () -> ipLimiter.size() + userLimiter.size()).tag("route", route).register(meterRegistry);
+        }
+
+        /**
+         * Take a token for the IP and one for the user, only if both are available
+         * 
+         * @return 0 if taken, otherwise the nanoseconds to wait
+         */
+        private long acquire(String ip, String username, boolean count) {
+            //Always the IP first and then the user
+            synchronized(ipLimiter.lock(ip)) {
+                long now = System.nanoTime();
+                long wait = ipLimiter.waitNanos(ip, now);
+                if(wait > 0) {
+                    if(count) {
+                        ipRejected.increment();
+                    }
+                    return wait;
+                }
+                if(username == null) {
+                    ipLimiter.take(ip, now);
+                    return 0;
+                }
+                synchronized(userLimiter.lock(username)) {
+                    wait = userLimiter.waitNanos(username, now);
+                    if(wait > 0) {
+                        if(count) {
+                            userRejected.increment();
+                        }
+                        return wait;
+                    }
+                    ipLimiter.take(ip, now);
+                    userLimiter.take(username, now);
+                    return 0;
+                }
+            }
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        insert = new Policy("insert", ipCapacity, ipPerSecond, userCapacity, userPerSecond);
+        bulk = new Policy("bulk", bulkIpCapacity, bulkIpPerSecond, bulkUserCapacity, bulkUserPerSecond);
+    }
+
+    /**
+     * Take a token for the IP and one for the user of an insert request, a
+     * request refused for the user doesn't use a token of the IP
+     * 
+     * @param ip The IP of the client
+     * @param username The authenticated user, null if unknown
+     * @return 0 if the request is allowed, otherwise the seconds to wait before retrying
+     */
+    public long acquire(String ip, String username) {
+        return toSeconds(insert.acquire(ip, username, true));
+    }
+
+    /**
+     * Take the tokens of a record of a bulk upload, waiting at most maxWaitMillis
+     * for them: a long upload is slowed down to the rate of the route
+     * 
+     * @param ip The IP of the client
+     * @param username The authenticated user, null if unknown
+     * @param maxWaitMillis The max time to wait for the tokens, 0 to not wait
+     * @return 0 if the record is allowed, otherwise the seconds to wait before retrying
+     */
+    public long acquireBulk(String ip, String username, long maxWaitMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        long wait;
+        while((wait = bulk.acquire(ip, username, false)) > 0) {
+            if(System.nanoTime() + wait > deadline || Thread.currentThread().isInterrupted()) {
+                //Counted once, when the record is refused
+                return toSeconds(bulk.acquire(ip, username, true));
+            }
+            LockSupport.parkNanos(wait);
+        }
+        return 0;
+    }
+
+    private long toSeconds(long nanos) {
+        if(nanos == 0) {
+            return 0;
+        }
+        return Math.max(1, (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+}
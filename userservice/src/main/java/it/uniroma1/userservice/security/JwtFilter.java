@@ -21,9 +21,7 @@ package it.uniroma1.userservice.security;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -34,7 +32,6 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import io.jsonwebtoken.Claims;
-import it.uniroma1.userservice.entities.Role;
 import it.uniroma1.userservice.entities.User;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
@@ -47,6 +44,12 @@ public class JwtFilter extends OncePerRequestFilter {
     @Autowired
     private JwtUtil jwtUtil;
 
+    @Autowired
+    private TokenCache tokenCache;
+
+    @Autowired
+    private RoleCatalog roleCatalog;
+
     /**
      * Convert the claims into User object
      * 
@@ -59,14 +62,8 @@ public class JwtFilter extends OncePerRequestFilter {
             User u = new User();
             u.setUsername(claims.get("username", String.class));
             u.setEnabled(claims.get("enabled", Boolean.class));
-            Set<Role> authorities = new HashSet<Role>();
-            List<String> stringaAthorities = claims.get("roles", List.class);
-            for(String tmp : stringaAthorities) {
-                Role r = new Role();
-                r.setAuthority(tmp);
-                authorities.add(r);
-            }
-            u.setAuthorities(authorities);
+            //Shared roles, the set of the same roles is built once
+            u.setAuthorities(roleCatalog.roles(claims.get("roles", List.class)));
             return u;
         
         }
@@ -81,17 +78,22 @@ public class JwtFilter extends OncePerRequestFilter {
         try {
             if(!isPublicUrl(request)) {
                 String token = extractToken(request.getHeader("Authorization"));
-                if(token != null) {
+                UsernamePasswordAuthenticationToken cached = token != null ? tokenCache.get(token) : null;
+                if(cached != null) {
+                    //Token already verified and not expired
+                    SecurityContextHolder.getContext().setAuthentication(cached);
+                } else if(token != null) {
                     //1. Check token signature and extract all information
                     Claims claims = jwtUtil.extractAllClaims(token);
                     //2. Check if the token is not expired
-                    boolean isTokenExpired = jwtUtil.isTokenExpired(token);
+                    boolean isTokenExpired = jwtUtil.isTokenExpired(claims);
                     //3. Create the user and insert into Security Context
                     if(!isTokenExpired && claims != null) {
                         User u = createUserbyClaims(claims);
                         if(u != null) {
                                UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(u.getUsername(), null, u.getAuthorities());
                                SecurityContextHolder.getContext().setAuthentication(auth); //Authenticate the user
+                               tokenCache.put(token, auth, claims.getExpiration().getTime());
                         }
                     } else {
                         SecurityContextHolder.clearContext();
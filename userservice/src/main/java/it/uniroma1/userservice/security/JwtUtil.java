@@ -27,6 +27,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 
+import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 
 import org.springframework.beans.factory.annotation.Value;
@@ -35,7 +36,9 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
+import jakarta.annotation.PostConstruct;
 
 @Service
 public class JwtUtil {
@@ -43,6 +46,19 @@ public class JwtUtil {
     @Value("${jwt.symmetric.key}")
     private String secretKey;
 
+    /**
+     * The key and the parser are immutable and thread safe, they are built
+     * once instead of for each token
+     */
+    private SecretKey key;
+    private JwtParser jwtParser;
+
+    @PostConstruct
+    public void init() throws UnsupportedEncodingException {
+        key = new SecretKeySpec(secretKey.getBytes("UTF-8"), "HmacSHA256");
+        jwtParser = Jwts.parser().verifyWith(key).build();
+    }
+
     public String extractUsername(String token) throws UnsupportedEncodingException {
         return extractClaim(token, Claims::getSubject);
     }
@@ -57,12 +73,22 @@ public class JwtUtil {
     }
 
     public Claims extractAllClaims(String token) throws UnsupportedEncodingException {
-        SecretKeySpec secret_key = new SecretKeySpec(secretKey.getBytes("UTF-8"), "HmacSHA256");
-        return Jwts.parser().verifyWith(secret_key).build().parseSignedClaims(token).getPayload();
+        return jwtParser.parseSignedClaims(token).getPayload();
     }
 
     public Boolean isTokenExpired(String token) throws UnsupportedEncodingException {
-        return extractExpiration(token).before(new Date());
+        return isTokenExpired(extractAllClaims(token));
+    }
+
+    /**
+     * Check the expiration on claims already extracted, without parsing the
+     * token again
+     * 
+     * @param claims The claims of the token
+     * @return true if the token is expired
+     */
+    public Boolean isTokenExpired(Claims claims) {
+        return claims.getExpiration().before(new Date());
     }
 
     /**
@@ -109,8 +135,6 @@ public class JwtUtil {
      */
     public String createToken(Map<String, Object> claims, String subject) throws UnsupportedEncodingException {
 
-        SecretKeySpec key = new SecretKeySpec(secretKey.getBytes("UTF-8"), "HmacSHA256");
-
         return Jwts.builder()
                 .claims(claims)
                 .subject(subject)
@@ -0,0 +1,119 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice.security;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import it.uniroma1.userservice.entities.Role;
+import it.uniroma1.userservice.entities.User;
+
+/**
+ * The roles of the tokens are a few: one immutable instance for each
+ * authority is shared by all the authentications, and the sets of the most
+ * common combinations of roles are built only once. The catalog starts with
+ * the known roles and learns the new ones from the verified tokens
+ */
+@Component
+public class RoleCatalog {
+
+    private final int maxRoles;
+    private final int maxSets;
+    private final Map<String, Role> roles = new ConcurrentHashMap<String, Role>();
+    private final Map<List<String>, Set<Role>> sets = new ConcurrentHashMap<List<String>, Set<Role>>();
+
+    public RoleCatalog(@Value("${role.catalog.authorities:ROLE_SUPERADMIN,ROLE_SYSTEM_ADMINISTRATOR}") List<String> authorities, 
+            @Value("${role.catalog.max.roles:64}") int maxRoles, @Value("${role.catalog.max.sets:256}") int maxSets) {
+        this.maxRoles = maxRoles;
+        this.maxSets = maxSets;
+        for(String authority : authorities) {
+            role(authority);
+        }
+    }
+
+    /**
+     * @param authority The authority
+     * @return The shared instance of the role, a new one if the catalog is full
+     */
+    public Role role(String authority) {
+        Role role = roles.get(authority);
+        if(role != null) {
+            return role;
+        }
+        if(roles.size() >= maxRoles) {
+            return new CatalogRole(authority);
+        }
+        return roles.computeIfAbsent(authority, CatalogRole::new);
+    }
+
+    /**
+     * @param authorities The authorities, as in the claims of the token
+     * @return The immutable set of the shared roles
+     */
+    public Set<Role> roles(List<String> authorities) {
+        if(authorities == null || authorities.isEmpty()) {
+            return Set.of();
+        }
+        Set<Role> set = sets.get(authorities);
+        if(set != null) {
+            return set;
+        }
+        List<Role> found = new ArrayList<Role>(authorities.size());
+        for(String authority : authorities) {
+            found.add(role(authority));
+        }
+        set = Set.copyOf(found);
+        if(sets.size() < maxSets) {
+            sets.putIfAbsent(List.copyOf(authorities), set);
+        }
+        return set;
+    }
+
+    /**
+     * Role shared between threads, it can't be modified
+     */
+    private static final class CatalogRole extends Role {
+
+        CatalogRole(String authority) {
+            super(null, authority, null);
+        }
+
+        @Override
+        public void setId(Long id) {
+            throw new UnsupportedOperationException("Shared role");
+        }
+
+        @Override
+        public void setAuthority(String authority) {
+            throw new UnsupportedOperationException("Shared role");
+        }
+
+        @Override
+        public void setUsers(Set<User> users) {
+            throw new UnsupportedOperationException("Shared role");
+        }
+    }
+}
@@ -30,6 +30,8 @@ import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 
+import jakarta.servlet.DispatcherType;
+
 @Configuration
 @EnableWebSecurity
 @EnableMethodSecurity(securedEnabled = true)
@@ -43,6 +45,8 @@ public class SecurityConfig {
 		http
             .csrf((csrf) -> csrf.disable())
 			.authorizeHttpRequests((requests) -> requests
+				.dispatcherTypeMatchers(DispatcherType.ASYNC) //Already authorized on the request dispatch
+					.permitAll()
 				.requestMatchers(
 								 "/" 
 								)
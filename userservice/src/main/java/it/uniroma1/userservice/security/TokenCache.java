@@ -0,0 +1,153 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * LRU cache of the tokens already verified by the JwtFilter.
+ * The key is the SHA-256 digest of the token (the token itself is never stored),
+ * the value is the authentication built from its claims. An entry is never
+ * returned after the expiration of its token.
+ * The entries are split in stripes, each one with its own lock and its own
+ * LRU order, so the requests contend only when their tokens fall in the same
+ * stripe. A small cache has fewer stripes, each one keeps at least
+ * MIN_STRIPE_SIZE tokens.
+ */
+@Component
+public class TokenCache {
+
+    private static final int STRIPES = 64;
+    private static final int MIN_STRIPE_SIZE = 64;
+
+    private final int maxSize;
+    private final Stripe[] stripes;
+    private final Counter hits;
+    private final Counter misses;
+
+    private record CachedToken(UsernamePasswordAuthenticationToken authentication, long expiration) {}
+
+    private static class Stripe extends LinkedHashMap<String, CachedToken> {
+
+        private final int maxKeys;
+
+        private Stripe(int maxKeys) {
+            //Access order: the eldest entry is the least recently used
+            super(16, 0.75f, true);
+            this.maxKeys = maxKeys;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedToken> eldest) {
+            return size() > maxKeys || eldest.getValue().expiration() <= System.currentTimeMillis();
+        }
+    }
+
+    public TokenCache(@Value("${jwt.cache.max.size:10000}") int maxSize, MeterRegistry registry) {
+        this.maxSize = maxSize;
+        int count = Integer.highestOneBit(Math.max(1, Math.min(STRIPES, maxSize / MIN_STRIPE_SIZE)));
+        this.stripes = new Stripe[count];
+        for(int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(Math.max(1, maxSize / count));
+        }
+        this.hits = Counter.builder("jwt.cache.requests").tag("result", "hit").register(registry);
+        this.misses = Counter.builder("jwt.cache.requests").tag("result", "miss").register(registry);
+        Gauge.builder("jwt.cache.size", this, TokenCache::size).register(registry);
+    }
+
+    /**
+     * Return the authentication of an already verified token
+     * 
+     * @param token The JWT
+     * @return The authentication, null if the token is not cached or is expired
+     */
+    public UsernamePasswordAuthenticationToken get(String token) {
+        String digest = digest(token);
+        Stripe stripe = stripe(digest);
+        synchronized(stripe) {
+            CachedToken cached = stripe.get(digest);
+            if(cached != null) {
+                if(cached.expiration() > System.currentTimeMillis()) {
+                    hits.increment();
+                    return cached.authentication();
+                }
+                stripe.remove(digest);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Cache the authentication of a verified token
+     * 
+     * @param token The JWT
+     * @param authentication The authentication built from its claims
+     * @param expiration The expiration of the token in milliseconds
+     */
+    public void put(String token, UsernamePasswordAuthenticationToken authentication, long expiration) {
+        if(maxSize <= 0 || expiration <= System.currentTimeMillis()) {
+            return;
+        }
+        String digest = digest(token);
+        Stripe stripe = stripe(digest);
+        synchronized(stripe) {
+            stripe.put(digest, new CachedToken(authentication, expiration));
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for(Stripe stripe : stripes) {
+            synchronized(stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private Stripe stripe(String key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+
+    private String digest(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            //SHA-256 is always provided by the JVM
+            throw new IllegalStateException(e);
+        }
+    }
+}
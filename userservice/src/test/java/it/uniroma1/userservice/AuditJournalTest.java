@@ -0,0 +1,181 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import it.uniroma1.userservice.audit.AuditJournal;
+import it.uniroma1.userservice.audit.AuditJournalReader;
+import it.uniroma1.userservice.audit.AuditLog;
+
+public class AuditJournalTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    public void testAppendAndReadAcrossSegments() throws Exception {
+        try (AuditJournal journal = new AuditJournal(directory, SEGMENT_SIZE, 10)) {
+            for(int i = 0; i < 1000; i++) {
+                journal.append(1000 + i, AuditLog.INSERT, payload("user" + i));
+            }
+        }
+        assertTrue(segments().size() > 1);
+
+        try (AuditJournalReader reader = new AuditJournalReader(directory)) {
+            for(int i = 0; i < 1000; i++) {
+                assertTrue(reader.next());
+                assertEquals(1000 + i, reader.getTimestamp());
+                assertEquals(AuditLog.INSERT, reader.getType());
+                assertEquals("user" + i, AuditLog.readString(reader.getPayload()));
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testSeekByTimestamp() throws Exception {
+        try (AuditJournal journal = new AuditJournal(directory, SEGMENT_SIZE, 0)) {
+            for(int i = 0; i < 1000; i++) {
+                journal.append(1000 + i * 10, AuditLog.INSERT, payload("user" + i));
+            }
+            //Older timestamps are moved to the last one
+            journal.append(0, AuditLog.INSERT, payload("late"));
+        }
+        try (AuditJournalReader reader = new AuditJournalReader(directory)) {
+            reader.seek(5005);
+            assertTrue(reader.next());
+            assertEquals(5010, reader.getTimestamp());
+            assertEquals("user401", AuditLog.readString(reader.getPayload()));
+
+            reader.seek(10990);
+            assertTrue(reader.next());
+            assertEquals("user999", AuditLog.readString(reader.getPayload()));
+            assertTrue(reader.next());
+            assertEquals(10990, reader.getTimestamp());
+            assertEquals("late", AuditLog.readString(reader.getPayload()));
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testReaderFollowsWriterAndReopenAfterTornRecord() throws Exception {
+        try (AuditJournal journal = new AuditJournal(directory, SEGMENT_SIZE, 0);
+             AuditJournalReader reader = new AuditJournalReader(directory)) {
+            journal.append(1, AuditLog.INSERT, payload("first"));
+            assertTrue(reader.next());
+            assertFalse(reader.next());
+            journal.append(2, AuditLog.INSERT, payload("second"));
+            assertTrue(reader.next());
+            assertEquals("second", AuditLog.readString(reader.getPayload()));
+            assertThrows(IOException.class, () -> new AuditJournal(directory, SEGMENT_SIZE, 0));
+        }
+
+        //A record written only in part after the last one
+        List<Path> segments = segments();
+        Path segment = segments.get(segments.size() - 1);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            ByteBuffer torn = ByteBuffer.allocate(8).putInt(100).putInt(12345).flip();
+            channel.write(torn, firstFreePosition(segment));
+        }
+        try (AuditJournal journal = new AuditJournal(directory, SEGMENT_SIZE, 0)) {
+            journal.append(3, AuditLog.INSERT, payload("third"));
+        }
+        try (AuditJournalReader reader = new AuditJournalReader(directory)) {
+            int records = 0;
+            while(reader.next()) {
+                records++;
+            }
+            assertEquals(3, records);
+            assertEquals("third", AuditLog.readString(reader.getPayload()));
+        }
+    }
+
+    @Test
+    public void testRetention() throws Exception {
+        try (AuditJournal journal = new AuditJournal(directory, SEGMENT_SIZE, 0, 3, 0);
+             AuditJournalReader reader = new AuditJournalReader(directory)) {
+            journal.append(1000, AuditLog.INSERT, payload("user0"));
+            assertTrue(reader.next());
+            for(int i = 1; i < 1000; i++) {
+                journal.append(1000 + i, AuditLog.INSERT, payload("user" + i));
+            }
+            assertEquals(3, segments().size());
+            //The deleted segments are skipped
+            long last = 0;
+            while(reader.next()) {
+                last = reader.getTimestamp();
+            }
+            assertEquals(1999, last);
+        }
+        try (AuditJournalReader reader = new AuditJournalReader(directory)) {
+            assertTrue(reader.next());
+            assertTrue(reader.getTimestamp() > 1000);
+        }
+
+        //All the records of the older segments are more than 100 ms older than the last one
+        try (AuditJournal journal = new AuditJournal(directory, SEGMENT_SIZE, 0, 0, 100)) {
+            for(int i = 0; i < 1000; i++) {
+                journal.append(2000 + i * 10, AuditLog.INSERT, payload("user" + i));
+            }
+        }
+        assertEquals(2, segments().size());
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.toString().endsWith(".journal")).sorted().toList();
+        }
+    }
+
+    private long firstFreePosition(Path segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int position = 0;
+            while(buffer.getInt(position) != 0) {
+                position += buffer.getInt(position);
+            }
+            return position;
+        }
+    }
+
+    private byte[] payload(String username) {
+        byte[] user = username.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(Short.BYTES + user.length).putShort((short) user.length).put(user).array();
+    }
+}
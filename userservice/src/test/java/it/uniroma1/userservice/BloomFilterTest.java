@@ -0,0 +1,137 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.uniroma1.userservice.duplicates.BloomFilter;
+import it.uniroma1.userservice.duplicates.DuplicateFilter;
+import it.uniroma1.userservice.duplicates.ScalableBloomFilter;
+import it.uniroma1.userservice.entities.User;
+import it.uniroma1.userservice.entities.UserKeys;
+import it.uniroma1.userservice.messaging.MessageTransport;
+
+public class BloomFilterTest {
+
+    @Test
+    public void noFalseNegatives() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for(int i = 0; i < 10000; i++) {
+            filter.add("user_" + i);
+        }
+        for(int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain("user_" + i));
+        }
+        assertFalse(filter.mightContain("not_added"));
+    }
+
+    /**
+     * The false positives stay below the configured probability also with
+     * ten times the initial capacity
+     */
+    @Test
+    public void scalableFalsePositives() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(10000, 0.01);
+        for(int i = 0; i < 100000; i++) {
+            filter.add("user_" + i + "@email.it");
+        }
+        assertTrue(filter.getStages() > 1);
+        for(int i = 0; i < 100000; i++) {
+            assertTrue(filter.mightContain("user_" + i + "@email.it"));
+        }
+        int falsePositives = 0;
+        for(int i = 0; i < 100000; i++) {
+            if(filter.mightContain("other_" + i + "@email.it")) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 1000, "False positives: " + falsePositives);
+    }
+
+    private DuplicateFilter duplicateFilter(MessageTransport transport, long batchDelay) {
+        DuplicateFilter duplicateFilter = new DuplicateFilter();
+        ReflectionTestUtils.setField(duplicateFilter, "messageTransport", transport);
+        ReflectionTestUtils.setField(duplicateFilter, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(duplicateFilter, "expectedKeys", 1000L);
+        ReflectionTestUtils.setField(duplicateFilter, "fpp", 0.01);
+        ReflectionTestUtils.setField(duplicateFilter, "batchSize", 500);
+        ReflectionTestUtils.setField(duplicateFilter, "batchDelay", batchDelay);
+        duplicateFilter.init();
+        when(transport.request(eq(""), eq(DuplicateFilter.USER_KEYS_QUEUE), any(), any()))
+            .thenAnswer(invocation -> CompletableFuture.completedFuture(new UserKeys(List.of("used"), List.of("used@email.it"), null)));
+        assertTrue(duplicateFilter.load());
+        return duplicateFilter;
+    }
+
+    private User user() {
+        User user = new User();
+        user.setUsername("used");
+        user.setEmail("used@email.it");
+        return user;
+    }
+
+    /**
+     * A reply without the lists of the used keys is not a duplicate
+     */
+    @Test
+    public void duplicateCheckWithoutKeys() throws Exception {
+        MessageTransport transport = mock(MessageTransport.class);
+        DuplicateFilter duplicateFilter = duplicateFilter(transport, 1);
+        when(transport.request(eq(""), eq(DuplicateFilter.USER_EXISTS_QUEUE), any(), any()))
+            .thenAnswer(invocation -> CompletableFuture.completedFuture(new UserKeys(null, null, null)));
+        assertFalse(duplicateFilter.isDuplicate(user()).get(5, TimeUnit.SECONDS));
+        duplicateFilter.shutdown();
+    }
+
+    /**
+     * The checks waiting the batch or the reply are answered also after the
+     * filter has been stopped
+     */
+    @Test
+    public void duplicateCheckAfterShutdown() throws Exception {
+        MessageTransport transport = mock(MessageTransport.class);
+        DuplicateFilter duplicateFilter = duplicateFilter(transport, 60000);
+        CompletableFuture<Boolean> waitingBatch = duplicateFilter.isDuplicate(user());
+        duplicateFilter.shutdown();
+        assertFalse(waitingBatch.get(5, TimeUnit.SECONDS));
+
+        CompletableFuture<UserKeys> reply = new CompletableFuture<UserKeys>();
+        when(transport.request(eq(""), eq(DuplicateFilter.USER_EXISTS_QUEUE), any(), any())).thenAnswer(invocation -> reply);
+        duplicateFilter = duplicateFilter(transport, 0);
+        ReflectionTestUtils.setField(duplicateFilter, "batchSize", 1);
+        CompletableFuture<Boolean> waitingReply = duplicateFilter.isDuplicate(user());
+        duplicateFilter.shutdown();
+        reply.complete(new UserKeys(List.of("used"), List.of(), null));
+        assertTrue(waitingReply.get(5, TimeUnit.SECONDS));
+    }
+}
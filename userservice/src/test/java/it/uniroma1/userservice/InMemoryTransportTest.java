@@ -0,0 +1,235 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.DirectExchange;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.Queue;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import it.uniroma1.userservice.duplicates.DuplicateFilter;
+import it.uniroma1.userservice.entities.ACK;
+import it.uniroma1.userservice.entities.InsertTracking;
+import it.uniroma1.userservice.entities.User;
+import it.uniroma1.userservice.messaging.ContentTypeMessageConverter;
+import it.uniroma1.userservice.messaging.InMemoryMessageTransport;
+import it.uniroma1.userservice.messaging.InsertTracker;
+import it.uniroma1.userservice.messaging.MessageProducer;
+import it.uniroma1.userservice.messaging.MessageTransport;
+import it.uniroma1.userservice.messaging.UserPartitioner;
+
+@SpringBootTest(properties = {"messaging.transport=memory", "spring.rabbitmq.listener.simple.auto-startup=false",
+    "audit.journal.dir=target/audit-memory-test"})
+public class InMemoryTransportTest {
+
+    @Autowired
+    private MessageProducer messageProducer;
+
+    @Autowired
+    private InMemoryMessageTransport transport;
+
+    @Autowired
+    private InsertTracker insertTracker;
+
+    @Autowired
+    private UserPartitioner userPartitioner;
+
+    @Autowired
+    private DirectExchange directExchange;
+
+    @Autowired
+    private ContentTypeMessageConverter messageConverter;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private Queue insertResultsQueue;
+
+    @Autowired
+    private DuplicateFilter duplicateFilter;
+
+    private static InMemoryUserConsumer consumer;
+
+    @BeforeEach
+    public void startConsumer() {
+        if(consumer == null) {
+            consumer = new InMemoryUserConsumer(transport.getBroker(), messageConverter, userPartitioner);
+        }
+    }
+
+    private User user(String username) {
+        User u = new User();
+        u.setUsername(username);
+        u.setPassword("password");
+        u.setEmail(username + "@email.it");
+        u.setName("Name");
+        u.setSurname("Surname");
+        u.setEnabled(true);
+        return u;
+    }
+
+    @Test
+    public void sendMessage() throws Exception {
+        ACK<User> ack = messageProducer.sendMessage(user("memory_sync"));
+        assertNotNull(ack);
+        assertTrue(ack.isSuccess());
+        assertNotNull(ack.getPayload().getId());
+        assertEquals(null, ack.getPayload().getPassword());
+
+        ack = messageProducer.sendMessage(user("memory_sync"));
+        assertFalse(ack.isSuccess());
+    }
+
+    @Test
+    public void sendMessageAsync() throws Exception {
+        List<CompletableFuture<ACK<User>>> responses = new ArrayList<CompletableFuture<ACK<User>>>();
+        for(int i = 0; i < 200; i++) {
+            responses.add(messageProducer.sendMessageAsync(user("memory_async_" + i)));
+        }
+        for(int i = 0; i < 200; i++) {
+            ACK<User> ack = responses.get(i).join();
+            assertTrue(ack.isSuccess());
+            assertNotNull(ack.getPayload().getId());
+        }
+    }
+
+    @Test
+    public void sendMessageConfirmed() throws Exception {
+        InsertTracking tracking = messageProducer.sendMessageConfirmed(user("memory_confirmed")).join();
+        assertTrue(tracking.getStatus() == InsertTracking.Status.ACCEPTED || tracking.getStatus() == InsertTracking.Status.INSERTED);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while(insertTracker.get(tracking.getTrackingId()).getStatus() != InsertTracking.Status.INSERTED 
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(InsertTracking.Status.INSERTED, insertTracker.get(tracking.getTrackingId()).getStatus());
+    }
+
+    @Test
+    public void messageNotRouted() {
+        Message message = new Message(new byte[0], new MessageProperties());
+        assertFalse(transport.getBroker().send(directExchange.getName(), "no_partition", message));
+        assertFalse(transport.sendConfirmed(directExchange.getName(), "no_partition", user("memory_lost"), "results", "1").join().ack());
+    }
+
+    /**
+     * The messages are read with the codec of their content type, whatever
+     * the format used to send
+     */
+    @Test
+    public void smileContentType() throws Exception {
+        ContentTypeMessageConverter smileConverter = new ContentTypeMessageConverter(objectMapper, ContentTypeMessageConverter.CONTENT_TYPE_SMILE);
+        Message smile = smileConverter.toMessage(user("memory_smile"), new MessageProperties());
+        Message json = messageConverter.toMessage(user("memory_smile"), new MessageProperties());
+        assertEquals(ContentTypeMessageConverter.CONTENT_TYPE_SMILE, smile.getMessageProperties().getContentType());
+        assertTrue(smile.getBody().length < json.getBody().length);
+        assertEquals("memory_smile", ((User) messageConverter.fromMessage(smile, User.class)).getUsername());
+        assertEquals("memory_smile", ((User) smileConverter.fromMessage(json, User.class)).getUsername());
+
+        //The stand-in of the database-service replies in the format of the request
+        String trackingId = insertTracker.create("memory_smile");
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(ContentTypeMessageConverter.CONTENT_TYPE_SMILE);
+        properties.setReplyTo(insertResultsQueue.getName());
+        properties.setCorrelationId(trackingId);
+        assertTrue(transport.getBroker().send(directExchange.getName(), userPartitioner.routingKey("memory_smile"), 
+            smileConverter.toMessage(user("memory_smile"), properties)));
+        long deadline = System.currentTimeMillis() + 5000;
+        while(insertTracker.get(trackingId).getStatus() != InsertTracking.Status.INSERTED && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(InsertTracking.Status.INSERTED, insertTracker.get(trackingId).getStatus());
+    }
+
+    /**
+     * With the filter loaded, the duplicates are refused without publishing
+     * them and the new users are still published
+     */
+    @Test
+    public void duplicateRejectedLocally() throws Exception {
+        assertTrue(messageProducer.sendMessage(user("memory_existing")).isSuccess());
+        assertTrue(duplicateFilter.load());
+
+        long requests = consumer.getRequests();
+        User sameUsername = user("memory_existing");
+        sameUsername.setEmail("memory_other@email.it");
+        ACK<User> ack = messageProducer.sendMessageAsync(sameUsername).join();
+        assertFalse(ack.isSuccess());
+        assertEquals(MessageProducer.DUPLICATE_MESSAGE, ack.getMessage());
+        User sameEmail = user("memory_other");
+        sameEmail.setEmail("memory_existing@email.it");
+        assertFalse(messageProducer.sendMessage(sameEmail).isSuccess());
+        InsertTracking tracking = messageProducer.sendMessageConfirmed(user("memory_existing")).join();
+        assertEquals(InsertTracking.Status.FAILED, tracking.getStatus());
+        assertEquals(requests, consumer.getRequests());
+
+        //Added to the filter by its ACK, refused without publishing it
+        assertTrue(messageProducer.sendMessage(user("memory_new")).isSuccess());
+        assertEquals(requests + 1, consumer.getRequests());
+        assertFalse(messageProducer.sendMessage(user("memory_new")).isSuccess());
+        assertEquals(requests + 1, consumer.getRequests());
+    }
+
+    /**
+     * A publish without confirm leaves its tracking unknown, not pending
+     */
+    @Test
+    public void sendMessageConfirmTimeout() throws Exception {
+        MessageTransport lost = mock(MessageTransport.class);
+        List<String> trackingIds = new ArrayList<String>();
+        when(lost.sendConfirmed(any(), any(), any(), any(), any())).thenAnswer(invocation -> {
+            trackingIds.add(invocation.getArgument(4));
+            return new CompletableFuture<MessageTransport.Confirm>();
+        });
+        ReflectionTestUtils.setField(messageProducer, "messageTransport", lost);
+        ReflectionTestUtils.setField(messageProducer, "confirmTimeout", 100L);
+        try {
+            CompletableFuture<InsertTracking> response = messageProducer.sendMessageConfirmed(user("memory_unconfirmed"));
+            assertThrows(CompletionException.class, response::join);
+        } finally {
+            ReflectionTestUtils.setField(messageProducer, "messageTransport", transport);
+            ReflectionTestUtils.setField(messageProducer, "confirmTimeout", 5000L);
+        }
+        assertEquals(InsertTracking.Status.UNKNOWN, insertTracker.get(trackingIds.get(0)).getStatus());
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+import it.uniroma1.userservice.entities.ACK;
+import it.uniroma1.userservice.duplicates.DuplicateFilter;
+import it.uniroma1.userservice.entities.User;
+import it.uniroma1.userservice.entities.UserKeys;
+import it.uniroma1.userservice.messaging.ContentTypeMessageConverter;
+import it.uniroma1.userservice.messaging.InMemoryBroker;
+import it.uniroma1.userservice.messaging.UserPartitioner;
+
+/**
+ * Consumer of the partition queues on the InMemoryBroker with the same
+ * contract of the database-service: a batch of requests is inserted and each
+ * request gets its ACK on its reply queue with its correlation id and its
+ * content type, a duplicated username is refused. It replies also to the
+ * requests of the duplicate filter, with all the users in a single page
+ */
+public class InMemoryUserConsumer {
+
+    private final InMemoryBroker broker;
+    private final ContentTypeMessageConverter messageConverter;
+    private final Map<String, User> users = new ConcurrentHashMap<String, User>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong ids = new AtomicLong();
+
+    public InMemoryUserConsumer(InMemoryBroker broker, ContentTypeMessageConverter messageConverter, UserPartitioner userPartitioner) {
+        this.broker = broker;
+        this.messageConverter = messageConverter;
+        for(int i = 0; i < userPartitioner.getPartitions(); i++) {
+            broker.subscribe(userPartitioner.queueName(i), 100, this::receiveMessages);
+        }
+        broker.subscribe(DuplicateFilter.USER_KEYS_QUEUE, 100, messages -> messages.forEach(this::receiveKeys));
+        broker.subscribe(DuplicateFilter.USER_EXISTS_QUEUE, 100, messages -> messages.forEach(this::receiveExists));
+    }
+
+    public int size() {
+        return users.size();
+    }
+
+    /**
+     * @return The number of insert requests received
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    private void receiveKeys(Message message) {
+        UserKeys page = new UserKeys(new ArrayList<String>(), new ArrayList<String>(), null);
+        for(User user : users.values()) {
+            page.getUsernames().add(user.getUsername());
+            page.getEmails().add(user.getEmail());
+        }
+        reply(message, page);
+    }
+
+    private void receiveExists(Message message) {
+        UserKeys keys = (UserKeys) messageConverter.fromMessage(message, UserKeys.class);
+        UserKeys used = new UserKeys(new ArrayList<String>(), new ArrayList<String>(), null);
+        for(User user : users.values()) {
+            if(keys.getUsernames().contains(user.getUsername())) {
+                used.getUsernames().add(user.getUsername());
+            }
+            if(keys.getEmails().contains(user.getEmail())) {
+                used.getEmails().add(user.getEmail());
+            }
+        }
+        reply(message, used);
+    }
+
+    private void receiveMessages(List<Message> messages) {
+        for(Message message : messages) {
+            requests.incrementAndGet();
+            ACK<User> ack = new ACK<User>();
+            try {
+                User user = (User) messageConverter.fromMessage(message, User.class);
+                boolean inserted = users.putIfAbsent(user.getUsername(), user) == null;
+                ack.setSuccess(inserted);
+                ack.setMessage(inserted ? "Ok" : "Username already exists");
+                if(inserted) {
+                    //Only the id, as the database-service
+                    User saved = new User();
+                    saved.setId(ids.incrementAndGet());
+                    ack.setPayload(saved);
+                }
+            } catch(MessageConversionException e) {
+                ack.setSuccess(false);
+                ack.setMessage("Message not valid");
+            }
+            reply(message, ack);
+        }
+    }
+
+    private void reply(Message request, Object reply) {
+        MessageProperties requestProperties = request.getMessageProperties();
+        if(requestProperties.getReplyTo() == null) {
+            return;
+        }
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(requestProperties.getContentType());
+        properties.setCorrelationId(requestProperties.getCorrelationId());
+        broker.send("", requestProperties.getReplyTo(), messageConverter.toMessage(reply, properties));
+    }
+}
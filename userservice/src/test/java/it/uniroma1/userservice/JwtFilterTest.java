@@ -21,6 +21,7 @@ package it.uniroma1.userservice;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.HashSet;
@@ -37,11 +38,14 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.util.MultiValueMap;
 
 import it.uniroma1.userservice.entities.Role;
 import it.uniroma1.userservice.entities.User;
+import io.micrometer.core.instrument.MeterRegistry;
 import it.uniroma1.userservice.security.JwtUtil;
+import it.uniroma1.userservice.security.TokenCache;
 
 @SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
 public class JwtFilterTest {
@@ -56,6 +60,12 @@ public class JwtFilterTest {
     @Autowired
     private TestRestTemplate restTemplate;
 
+    @Autowired
+    private TokenCache tokenCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
 
     /**
      *  Test that a valid token is able to access to a privileged resource
@@ -91,6 +101,44 @@ public class JwtFilterTest {
     }
 
 
+    /**
+     *  Test that the second request with the same token is served by the cache
+     */
+    @Test
+    public void testCachedJwtToken() throws Exception {
+
+        User user = new User();
+        user.setUsername("cached");
+        user.setEnabled(true);
+        Set<Role> roles = new HashSet<Role>();
+        Role r = new Role();
+        r.setAuthority("ROLE_SYSTEM_ADMINISTRATOR");
+        roles.add(r);
+        user.setAuthorities(roles);
+        String token = jwtUtil.generateToken(user);
+
+        assertEquals(sendGetHttpRequest(token).getStatusCode().value(), 200);
+        double hits = meterRegistry.get("jwt.cache.requests").tag("result", "hit").counter().count();
+        assertEquals(sendGetHttpRequest(token).getStatusCode().value(), 200);
+        assertEquals(meterRegistry.get("jwt.cache.requests").tag("result", "hit").counter().count(), hits + 1);
+    }
+
+    /**
+     *  Test that an entry is not returned after the expiration of its token
+     */
+    @Test
+    public void testCachedJwtTokenExpiration() throws Exception {
+
+        UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken("user", null, new HashSet<Role>());
+        tokenCache.put("expired", auth, System.currentTimeMillis() - 1);
+        assertNull(tokenCache.get("expired"));
+
+        tokenCache.put("expiring", auth, System.currentTimeMillis() + 100);
+        assertNotNull(tokenCache.get("expiring"));
+        Thread.sleep(150);
+        assertNull(tokenCache.get("expiring"));
+    }
+
     /**
      *  Test that a not valid token is not able to access to a privileged resource
      */
@@ -33,9 +33,6 @@ import org.springframework.messaging.handler.annotation.SendTo;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import it.uniroma1.userservice.entities.ACK;
 import it.uniroma1.userservice.entities.Role;
@@ -70,27 +67,17 @@ public class MessageProducerTest {
         roles.add(r2);
         u.setAuthorities(roles);
 
-        String response = messageProducer.sendMessage(u);
-        assertNotNull(response);
-
-        //Convert the response to a User
-        ObjectMapper om = new ObjectMapper();
-        ACK<User> ack = om.readValue(response, new TypeReference<ACK<User>>() {});
+        ACK<User> ack = messageProducer.sendMessage(u);
         
         assertNotNull(ack);
         assertEquals(ack.isSuccess(), true);
         assertEquals("Ok", ack.getMessage());
     
+        //Only the id of the saved user is sent back
         User resultUser = ack.getPayload();
         assertNotNull(resultUser);
-
-        assertEquals(u.getEmail(), resultUser.getEmail());
-        assertEquals(u.getUsername(), resultUser.getUsername());
-        assertEquals(u.getPassword(), resultUser.getPassword());
-        assertEquals(u.getId(), resultUser.getId());
-        assertEquals(u.getName(), resultUser.getName());
-        assertEquals(u.getSurname(), resultUser.getSurname());
-        assertEquals(u.isEnabled(), resultUser.isEnabled());
+        assertNotNull(resultUser.getId());
+        assertEquals(null, resultUser.getPassword());
         for(Role tmp : resultUser.getAuthorities()) {
             assertNotNull(tmp);
 
@@ -210,29 +197,23 @@ public class MessageProducerTest {
      * Simulate a message consumer, and sand back the message received to the
      * direct exchange
      * 
-     * @param message The message received from the publisher
+     * @param u The user received from the publisher
      * @return the loopback of the message sent by publisher
-     * @throws JsonProcessingException 
-     * @throws JsonMappingException 
      * @throws InvalidInputParameter 
      */
-    @RabbitListener(queues = {"${queue.rabbitmq.listener.name}"})
-    @SendTo("user_exchange/${binding.rabbitmq.key}")
-    public String receiveMessage(String message) throws JsonMappingException, JsonProcessingException, InvalidInputParameter {
+    @RabbitListener(queues = {"${insert.partition.queue.prefix}0"})
+    @SendTo("user_exchange/${insert.partition.queue.prefix}0")
+    public ACK<User> receiveMessage(User u) throws InvalidInputParameter {
 
 
         ACK<User> replyMessage = new ACK<>();
-        ObjectMapper om = new ObjectMapper();
-        User u = (User) om.readValue(message, User.class);
 
         replyMessage.setMessage("Ok");
         replyMessage.setPayload(u);
         replyMessage.setSuccess(true);
 
-        String response = om.writeValueAsString(replyMessage);
-
         //loopback the message to the exchange
-        return response;
+        return replyMessage;
     }
 
 
@@ -0,0 +1,64 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import it.uniroma1.userservice.entities.Role;
+import it.uniroma1.userservice.security.RoleCatalog;
+
+public class RoleCatalogTest {
+
+    @Test
+    public void testSharedInstances() {
+        RoleCatalog catalog = new RoleCatalog(List.of("ROLE_SUPERADMIN"), 16, 16);
+        Role superadmin = catalog.role("ROLE_SUPERADMIN");
+        assertSame(superadmin, catalog.role("ROLE_SUPERADMIN"));
+        assertThrows(UnsupportedOperationException.class, () -> superadmin.setAuthority("ROLE_USER"));
+
+        //Claims parsed from two tokens
+        Set<Role> roles = catalog.roles(new ArrayList<String>(List.of("ROLE_SUPERADMIN", "ROLE_SYSTEM_ADMINISTRATOR")));
+        assertSame(roles, catalog.roles(new ArrayList<String>(List.of("ROLE_SUPERADMIN", "ROLE_SYSTEM_ADMINISTRATOR"))));
+        assertEquals(2, roles.size());
+        assertSame(catalog.role("ROLE_SYSTEM_ADMINISTRATOR"), catalog.role("ROLE_SYSTEM_ADMINISTRATOR"));
+        assertThrows(UnsupportedOperationException.class, () -> roles.add(superadmin));
+    }
+
+    /**
+     * When the catalog is full the new roles are not shared
+     */
+    @Test
+    public void testFullCatalog() {
+        RoleCatalog catalog = new RoleCatalog(List.of("ROLE_SUPERADMIN"), 1, 1);
+        assertNotSame(catalog.role("ROLE_USER"), catalog.role("ROLE_USER"));
+        assertEquals("ROLE_USER", catalog.role("ROLE_USER").getAuthority());
+        catalog.roles(List.of("ROLE_SUPERADMIN"));
+        assertNotSame(catalog.roles(List.of("ROLE_USER")), catalog.roles(List.of("ROLE_USER")));
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import it.uniroma1.userservice.entities.Role;
+import it.uniroma1.userservice.entities.User;
+import it.uniroma1.userservice.security.InsertRateLimiter;
+import it.uniroma1.userservice.security.JwtUtil;
+
+//A slow refill of the bulk tokens of a user, to see the upload waiting
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = "insert.ratelimit.bulk.user.per.second=10")
+public class UserBulkControllerTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    @Autowired
+    private InsertRateLimiter insertRateLimiter;
+
+    private String superadminToken() throws Exception {
+        return superadminToken("superadmin");
+    }
+
+    private String superadminToken(String username) throws Exception {
+        Role roleSuperadmin = new Role();
+        roleSuperadmin.setAuthority("ROLE_SUPERADMIN");
+
+        User superadmin = new User();
+        superadmin.setUsername(username);
+        superadmin.setEnabled(true);
+        Set<Role> superadminRoles = new HashSet<Role>();
+        superadminRoles.add(roleSuperadmin);
+        superadmin.setAuthorities(superadminRoles);
+        return jwtUtil.generateToken(superadmin);
+    }
+
+    private ResponseEntity<String> exchangeBulk(String body, MediaType mediaType, String token) throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(mediaType);
+        headers.setBearerAuth(token);
+        HttpEntity<String> requestEntity = new HttpEntity<>(body, headers);
+
+        return restTemplate.exchange("http://localhost:" + port + "/api/user/bulk", HttpMethod.POST, requestEntity, String.class);
+    }
+
+    private JsonNode sendBulk(String body, MediaType mediaType) throws Exception {
+        ResponseEntity<String> respEntity = exchangeBulk(body, mediaType, superadminToken());
+        assertEquals(HttpStatusCode.valueOf(200), respEntity.getStatusCode());
+        assertNotNull(respEntity.getBody());
+        return new ObjectMapper().readTree(respEntity.getBody());
+    }
+
+    @Test
+    public void testBulkNotValidUsersArray() throws Exception {
+        String body = "[{\"username\":\"john_doe\",\"email\":\"john.doe@gmail.com\",\"enabled\":true}," +
+                      " {\"username\":\"\",\"email\":\"jane.doe@gmail.com\",\"password\":\"pwd\",\"name\":\"Jane\",\"surname\":\"Doe\",\"enabled\":true}]";
+        JsonNode summary = sendBulk(body, MediaType.APPLICATION_JSON);
+        assertEquals(2, summary.get("total").asInt());
+        assertEquals(0, summary.get("inserted").asInt());
+        assertEquals(2, summary.get("failed").asInt());
+        assertEquals(2, summary.get("results").size());
+        for(JsonNode result : summary.get("results")) {
+            assertFalse(result.get("success").asBoolean());
+            assertEquals("User is not valid", result.get("message").asText());
+        }
+    }
+
+    @Test
+    public void testBulkNotValidUsersNdjson() throws Exception {
+        String body = "{\"username\":\"john_doe\",\"enabled\":true}\n" +
+                      "{\"username\":\"jane_doe\",\"enabled\":true}\n" +
+                      "{\"username\":\"jim_doe\",\"enabled\":true}\n";
+        JsonNode summary = sendBulk(body, MediaType.APPLICATION_NDJSON);
+        assertEquals(3, summary.get("total").asInt());
+        assertEquals(3, summary.get("failed").asInt());
+        assertEquals("jim_doe", summary.get("results").get(2).get("username").asText());
+    }
+
+    @Test
+    public void testBulkMalformedBody() throws Exception {
+        String body = "[{\"username\":\"john_doe\",\"enabled\":true}, {\"username\":";
+        JsonNode summary = sendBulk(body, MediaType.APPLICATION_JSON);
+        assertEquals(1, summary.get("total").asInt());
+        assertTrue(summary.has("error"));
+    }
+
+    @Test
+    public void testBulkRateLimited() throws Exception {
+        String body = "{\"username\":\"john_doe\",\"enabled\":true}\n";
+
+        //Use all the tokens of the user from another IP
+        while(insertRateLimiter.acquireBulk("10.0.0.2", "ratelimited_bulk", 0) == 0);
+        ResponseEntity<String> respEntity = exchangeBulk(body, MediaType.APPLICATION_NDJSON, superadminToken("ratelimited_bulk"));
+        assertEquals(HttpStatusCode.valueOf(429), respEntity.getStatusCode());
+        assertNotNull(respEntity.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+
+        //The records after the burst wait for their tokens, the upload is complete
+        while(insertRateLimiter.acquireBulk("10.0.0.2", "slowed_bulk", 0) == 0);
+        Thread.sleep(200);
+        JsonNode summary = new ObjectMapper().readTree(exchangeBulk(body.repeat(20), MediaType.APPLICATION_NDJSON, superadminToken("slowed_bulk")).getBody());
+        assertEquals(20, summary.get("total").asInt());
+        assertFalse(summary.has("error"));
+
+        //The single inserts have their own tokens
+        assertEquals(0, insertRateLimiter.acquire("10.0.0.2", "slowed_bulk"));
+    }
+
+}
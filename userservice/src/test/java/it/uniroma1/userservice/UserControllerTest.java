@@ -21,11 +21,14 @@ package it.uniroma1.userservice;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.HashSet;
 import java.util.Set;
 
 import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -40,15 +43,17 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.handler.annotation.SendTo;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import it.uniroma1.userservice.controllers.UserInsertModel;
 import it.uniroma1.userservice.entities.ACK;
+import it.uniroma1.userservice.entities.InsertTracking;
 import it.uniroma1.userservice.entities.Role;
 import it.uniroma1.userservice.entities.User;
+import it.uniroma1.userservice.messaging.InsertTracker;
+import it.uniroma1.userservice.security.InsertRateLimiter;
 import it.uniroma1.userservice.security.JwtUtil;
+import it.uniroma1.userservice.security.RateLimiter;
 
 @SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
 public class UserControllerTest {
@@ -62,6 +67,12 @@ public class UserControllerTest {
     @Autowired
     private JwtUtil jwtUtil;
 
+    @Autowired
+    private InsertRateLimiter insertRateLimiter;
+
+    @Autowired
+    private InsertTracker insertTracker;
+
 
     @Test
     public void insertUserControllerBySuperadmin() throws Exception {
@@ -214,29 +225,124 @@ public class UserControllerTest {
      * Simulate a message consumer, and sand back the message received to the
      * direct exchange
      * 
-     * @param message The message received from the publisher
+     * @param u The user received from the publisher
      * @return the loopback of the message sent by publisher
-     * @throws JsonProcessingException 
-     * @throws JsonMappingException 
      * @throws InvalidInputParameter 
      */
-    @RabbitListener(queues = {"${queue.rabbitmq.listener.name}"})
-    @SendTo("user_exchange/${binding.rabbitmq.key}")
-    public String receiveMessage(String message) throws JsonMappingException, JsonProcessingException, InvalidInputParameter {
+    @RabbitListener(queues = {"${insert.partition.queue.prefix}0"})
+    @SendTo("user_exchange/${insert.partition.queue.prefix}0")
+    public ACK<User> receiveMessage(User u) throws InvalidInputParameter {
 
 
         ACK<User> replyMessage = new ACK<>();
-        ObjectMapper om = new ObjectMapper();
-        User u = (User) om.readValue(message, User.class);
 
         replyMessage.setMessage("Ok");
         replyMessage.setPayload(u);
         replyMessage.setSuccess(true);
 
-        String response = om.writeValueAsString(replyMessage);
-
         //loopback the message to the exchange
-        return response;
+        return replyMessage;
+    }
+
+    @Test
+    public void insertUserRateLimited() throws Exception {
+        String token = superadminToken("ratelimited_superadmin");
+
+        //Use all the tokens of the user from another IP
+        while(insertRateLimiter.acquire("10.0.0.1", "ratelimited_superadmin") == 0);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setBearerAuth(token);
+
+        UserInsertModel userToInsert = new UserInsertModel();
+        userToInsert.setEmail("jane.doe@gmail.com");
+        userToInsert.setName("Jane");
+        userToInsert.setSurname("Doe");
+        userToInsert.setUsername("jane_doe");
+        userToInsert.setPassword("HelloWorld!123");
+        userToInsert.setEnabled(true);
+
+        HttpEntity<String> requestEntity = new HttpEntity<>(new ObjectMapper().writeValueAsString(userToInsert.toUser()), headers);
+        ResponseEntity<String> respEntity = restTemplate.exchange("http://localhost:" + port + "/api/user/insert", HttpMethod.POST, requestEntity, String.class);
+        assertEquals(HttpStatusCode.valueOf(429), respEntity.getStatusCode());
+        assertEquals("1", respEntity.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+    }
+
+    @Test
+    public void insertRateLimiterChecksBothBuckets() throws Exception {
+        while(insertRateLimiter.acquire("10.0.0.3", "both_buckets") == 0);
+        //Refused for the user: the tokens of the other IP are not used
+        for(int i = 0; i < 100; i++) {
+            assertTrue(insertRateLimiter.acquire("10.0.0.4", "both_buckets") > 0);
+        }
+        assertEquals(0, insertRateLimiter.acquire("10.0.0.4", null));
+    }
+
+    @Test
+    public void rateLimiterBurstAndRefill() throws Exception {
+        RateLimiter rateLimiter = new RateLimiter(3, 20, 100);
+        for(int i = 0; i < 3; i++) {
+            assertEquals(0, rateLimiter.acquire("10.0.0.2"));
+        }
+        long wait = rateLimiter.acquire("10.0.0.2");
+        assertTrue(wait > 0 && wait <= 50_000_000L);
+        //Other keys have their own bucket
+        assertEquals(0, rateLimiter.acquire("10.0.0.3"));
+
+        Thread.sleep(wait / 1_000_000 + 1);
+        assertEquals(0, rateLimiter.acquire("10.0.0.2"));
+
+        //Only the most recent keys are kept
+        for(int i = 0; i < 1000; i++) {
+            rateLimiter.acquire("10.0.1." + i);
+        }
+        assertTrue(rateLimiter.size() <= 128);
+    }
+    @Test
+    public void insertStatusPolling() throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(superadminToken("polling_superadmin"));
+        HttpEntity<String> requestEntity = new HttpEntity<>(headers);
+
+        String trackingId = insertTracker.create("tracked_user");
+        insertTracker.update(trackingId, InsertTracking.Status.ACCEPTED, null);
+        ResponseEntity<InsertTracking> respEntity = restTemplate.exchange("http://localhost:" + port + "/api/user/insert/" + trackingId, 
+                HttpMethod.GET, requestEntity, InsertTracking.class);
+        assertEquals(HttpStatusCode.valueOf(200), respEntity.getStatusCode());
+        assertEquals(InsertTracking.Status.ACCEPTED, respEntity.getBody().getStatus());
+        assertEquals("tracked_user", respEntity.getBody().getUsername());
+
+        //The ACK of the database-service, with the tracking id as correlation id
+        ACK<User> ack = new ACK<User>();
+        ack.setSuccess(false);
+        ack.setMessage("User already exists");
+        MessageProperties properties = new MessageProperties();
+        properties.setCorrelationId(trackingId);
+        insertTracker.receiveResult(new Message(new ObjectMapper().writeValueAsBytes(ack), properties));
+        //A final state doesn't change
+        insertTracker.update(trackingId, InsertTracking.Status.ACCEPTED, null);
+
+        respEntity = restTemplate.exchange("http://localhost:" + port + "/api/user/insert/" + trackingId, 
+                HttpMethod.GET, requestEntity, InsertTracking.class);
+        assertEquals(InsertTracking.Status.FAILED, respEntity.getBody().getStatus());
+        assertEquals("User already exists", respEntity.getBody().getMessage());
+
+        respEntity = restTemplate.exchange("http://localhost:" + port + "/api/user/insert/unknown", 
+                HttpMethod.GET, requestEntity, InsertTracking.class);
+        assertEquals(HttpStatusCode.valueOf(404), respEntity.getStatusCode());
     }
 
+    private String superadminToken(String username) throws Exception {
+        Role roleSuperadmin = new Role();
+        roleSuperadmin.setAuthority("ROLE_SUPERADMIN");
+
+        User superadmin = new User();
+        superadmin.setUsername(username);
+        superadmin.setEnabled(true);
+        Set<Role> superadminRoles = new HashSet<Role>();
+        superadminRoles.add(roleSuperadmin);
+        superadmin.setAuthorities(superadminRoles);
+        return jwtUtil.generateToken(superadmin);
+    }
 }
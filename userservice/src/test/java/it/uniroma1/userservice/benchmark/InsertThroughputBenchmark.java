@@ -0,0 +1,112 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import it.uniroma1.userservice.InMemoryUserConsumer;
+import it.uniroma1.userservice.UserserviceApplication;
+import it.uniroma1.userservice.entities.ACK;
+import it.uniroma1.userservice.entities.User;
+import it.uniroma1.userservice.messaging.ContentTypeMessageConverter;
+import it.uniroma1.userservice.messaging.InMemoryMessageTransport;
+import it.uniroma1.userservice.messaging.MessageProducer;
+import it.uniroma1.userservice.messaging.UserPartitioner;
+
+/**
+ * Inserts per second and latency distribution (p50, p99, p99.9) of the insert
+ * path from the MessageProducer to the ACK, with the in-memory transport and
+ * a consumer in the same JVM in place of RabbitMQ and the database-service.
+ * It measures serialization, partitioning, correlation of the replies and
+ * audit, without the network.
+ * 
+ * Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java "-Dexec.args=-cp %classpath it.uniroma1.userservice.benchmark.InsertThroughputBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class InsertThroughputBenchmark {
+
+    private ConfigurableApplicationContext context;
+    private MessageProducer messageProducer;
+    private final AtomicLong ids = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(UserserviceApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--messaging.transport=memory", "--spring.rabbitmq.listener.simple.auto-startup=false",
+                    "--audit.journal.dir=target/audit-benchmark", "--logging.level.root=WARN");
+        messageProducer = context.getBean(MessageProducer.class);
+        new InMemoryUserConsumer(context.getBean(InMemoryMessageTransport.class).getBroker(), 
+            context.getBean(ContentTypeMessageConverter.class), context.getBean(UserPartitioner.class));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public ACK<User> insert() throws Exception {
+        long id = ids.incrementAndGet();
+        User u = new User();
+        u.setUsername("user_" + id);
+        u.setPassword("password");
+        u.setEmail("user_" + id + "@email.it");
+        u.setName("Name");
+        u.setSurname("Surname");
+        u.setEnabled(true);
+        return messageProducer.sendMessageAsync(u).join();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(InsertThroughputBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+}
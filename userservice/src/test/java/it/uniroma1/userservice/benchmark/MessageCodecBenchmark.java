@@ -0,0 +1,137 @@
+/**
+ * MIT No Attribution
+ *
+ *Copyright 2024 Giuseppe Valente <valentepeppe@gmail.com>
+ *
+ *Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ *software and associated documentation files (the "Software"), to deal in the Software
+ *without restriction, including without limitation the rights to use, copy, modify,
+ *merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ *permit persons to whom the Software is furnished to do so.
+ *
+ *THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ *INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ *PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ *SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package it.uniroma1.userservice.benchmark;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.core.ParameterizedTypeReference;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+
+import it.uniroma1.userservice.entities.ACK;
+import it.uniroma1.userservice.entities.Role;
+import it.uniroma1.userservice.entities.User;
+import it.uniroma1.userservice.messaging.ContentTypeMessageConverter;
+
+/**
+ * Encode and decode time of the insert request (User) and of its reply
+ * (ACK<User>, with only the id of the saved user) for each content type,
+ * the bytes of the two messages are logged in the setup.
+ * 
+ * Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java "-Dexec.args=-cp %classpath it.uniroma1.userservice.benchmark.MessageCodecBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+    private static final ParameterizedTypeReference<ACK<User>> ACK_TYPE = new ParameterizedTypeReference<ACK<User>>() {};
+
+    Logger logger = LoggerFactory.getLogger(MessageCodecBenchmark.class);
+
+    @Param({"application/json", ContentTypeMessageConverter.CONTENT_TYPE_SMILE})
+    private String contentType;
+
+    private ContentTypeMessageConverter converter;
+    private User user;
+    private ACK<User> ack;
+    private Message userMessage;
+    private Message ackMessage;
+
+    @Setup
+    public void setUp() {
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new BlackbirdModule());
+        converter = new ContentTypeMessageConverter(objectMapper, contentType);
+        user = new User();
+        user.setId(54L);
+        user.setUsername("username");
+        user.setEmail("username@email.it");
+        user.setPassword("$2a$10$N9qo8uLOickgx2ZMRZoMyeIjZAgcfl7p92ldGxad68LJZdL17lhWy");
+        user.setName("Name");
+        user.setSurname("Surname");
+        user.setEnabled(true);
+        Set<Role> roles = new HashSet<Role>();
+        Role role = new Role();
+        role.setAuthority("USER");
+        roles.add(role);
+        user.setAuthorities(roles);
+        ack = new ACK<User>();
+        ack.setSuccess(true);
+        ack.setMessage("Ok");
+        User saved = new User();
+        saved.setId(user.getId());
+        ack.setPayload(saved);
+        userMessage = converter.toMessage(user, new MessageProperties());
+        ackMessage = converter.toMessage(ack, new MessageProperties());
+        logger.info(contentType + ": User " + userMessage.getBody().length + " bytes, ACK " + ackMessage.getBody().length + " bytes");
+    }
+
+    @Benchmark
+    public Message encodeUser() {
+        return converter.toMessage(user, new MessageProperties());
+    }
+
+    @Benchmark
+    public Object decodeUser() {
+        return converter.fromMessage(userMessage, User.class);
+    }
+
+    @Benchmark
+    public Message encodeAck() {
+        return converter.toMessage(ack, new MessageProperties());
+    }
+
+    @Benchmark
+    public Object decodeAck() {
+        return converter.fromMessage(ackMessage, ACK_TYPE);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(MessageCodecBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+}